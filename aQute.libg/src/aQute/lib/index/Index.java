@@ -27,7 +27,7 @@ public class Index implements Iterable<byte[]> {
 	final int							valueSize	= 8;
 	final int							capacity;
 	public Page							root;
-	final LinkedHashMap<Integer,Page>	cache		= new LinkedHashMap<Integer,Index.Page>();
+	final LinkedHashMap<Integer,Page>	cache;
 	final MappedByteBuffer				settings;
 
 	private int							nextPage;
@@ -74,11 +74,11 @@ public class Index implements Iterable<byte[]> {
 					try {
 						if (leaf)
 							return rover < n;
-						while (i == null || i.hasNext() == false) {
+						while ((i == null || i.hasNext() == false) && rover < n) {
 							int c = (int) c(rover++);
 							i = getPage(c).iterator();
 						}
-						return i.hasNext();
+						return i != null && i.hasNext();
 					}
 					catch (IOException e) {
 						throw new RuntimeException(e);
@@ -97,6 +97,7 @@ public class Index implements Iterable<byte[]> {
 			buffer.putShort(COUNT_OFFSET, (short) n);
 			buffer.put(TYPE_OFFSET, (byte) (leaf ? 1 : 0));
 			buffer.force();
+			dirty = false;
 		}
 
 		int compare(byte[] key, int i) {
@@ -232,8 +233,8 @@ public class Index implements Iterable<byte[]> {
 					n++;
 					assert i < n;
 					child = right.compare(k, 0) >= 0 ? right : left;
-					left.dirty = true;
-					right.dirty = true;
+					left.write();
+					right.write();
 					this.dirty = true;
 				}
 				child.insertNonFull(k, v);
@@ -285,6 +286,30 @@ public class Index implements Iterable<byte[]> {
 	}
 
 	public Index(File file, int keySize) throws IOException {
+		this(file, keySize, 1000);
+	}
+
+	/**
+	 * Open an index that keeps at most cacheSize pages in memory. The least
+	 * recently used page is written and released when the cache is full. The
+	 * root page is always kept.
+	 */
+	public Index(File file, int keySize, final int cacheSize) throws IOException {
+		if (cacheSize < 1)
+			throw new IllegalArgumentException("Cache size must be at least 1: " + cacheSize);
+
+		cache = new LinkedHashMap<Integer,Page>(16, 0.75f, true) {
+			private static final long	serialVersionUID	= 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer,Page> eldest) {
+				if (size() <= cacheSize)
+					return false;
+
+				release(eldest.getValue());
+				return true;
+			}
+		};
 		capacity = (pageSize - Page.START_OFFSET) / (keySize + valueSize);
 		RandomAccessFile raf = new RandomAccessFile(file, "rw");
 		this.file = raf.getChannel();
@@ -294,7 +319,7 @@ public class Index implements Iterable<byte[]> {
 			settings.putInt(SIGNATURE, MAGIC);
 			settings.putInt(KEYSIZE, keySize);
 			nextPage = 1;
-			root = allocate(true);
+			root = new Page(nextPage++, true);
 			root.n = 1;
 			root.set(0, new byte[KEYSIZE], 0);
 			root.write();
@@ -307,7 +332,7 @@ public class Index implements Iterable<byte[]> {
 				throw new IllegalStateException("Invalid key size for Index file. The file is " + this.keySize
 						+ " and was expected to be " + this.keySize);
 
-			root = getPage(1);
+			root = new Page(1);
 			nextPage = (int) (this.file.size() / pageSize);
 		}
 	}
@@ -320,6 +345,93 @@ public class Index implements Iterable<byte[]> {
 		return root.search(k);
 	}
 
+	/**
+	 * Insert a number of keys at once. The keys must be sorted in ascending
+	 * order without duplicates. If the index is still empty, the tree is built
+	 * bottom up: the leaves are filled in sequence and then each level of
+	 * index pages above them, so every page is written only once. Otherwise
+	 * the keys are inserted one by one.
+	 */
+	public void insertAll(byte[][] keys, long[] values) throws Exception {
+		if (keys.length != values.length)
+			throw new IllegalArgumentException("Keys and values must have the same length: " + keys.length + " "
+					+ values.length);
+
+		if (!isEmpty()) {
+			for (int i = 0; i < keys.length; i++)
+				insert(keys[i], values[i]);
+			return;
+		}
+
+		// The empty root holds the zero key, which must stay the first key
+		// unless it is replaced. Index -1 stands for this key.
+		int start = -1;
+		if (keys.length > 0 && root.compare(keys[0], 0) == 0)
+			start = 0;
+
+		byte[] zero = root.k(0);
+		long zeroValue = root.c(0);
+
+		if (keys.length - start <= capacity) {
+			for (int i = start; i < keys.length; i++) {
+				if (i < 0)
+					continue;
+				root.set(i - start, keys[i], values[i]);
+			}
+			root.n = keys.length - start;
+			root.write();
+			return;
+		}
+
+		// Fill the leaves, remember the first key of each page for the level
+		// above
+		List<byte[]> firstKeys = new ArrayList<byte[]>();
+		List<Integer> numbers = new ArrayList<Integer>();
+		Page page = null;
+		for (int i = start; i < keys.length; i++) {
+			byte[] key = i < 0 ? zero : keys[i];
+			if (page == null || page.n == capacity) {
+				if (page != null)
+					page.write();
+				page = allocate(true);
+				numbers.add(page.number);
+				firstKeys.add(key);
+			}
+			page.set(page.n++, key, i < 0 ? zeroValue : values[i]);
+		}
+		page.write();
+
+		// Build the index pages until the remaining pages fit in the root
+		while (numbers.size() > capacity) {
+			List<byte[]> nextKeys = new ArrayList<byte[]>();
+			List<Integer> nextNumbers = new ArrayList<Integer>();
+			page = null;
+			for (int i = 0; i < numbers.size(); i++) {
+				if (page == null || page.n == capacity) {
+					if (page != null)
+						page.write();
+					page = allocate(false);
+					nextNumbers.add(page.number);
+					nextKeys.add(firstKeys.get(i));
+				}
+				page.set(page.n++, firstKeys.get(i), numbers.get(i));
+			}
+			page.write();
+			firstKeys = nextKeys;
+			numbers = nextNumbers;
+		}
+
+		root.leaf = false;
+		root.n = 0;
+		for (int i = 0; i < numbers.size(); i++)
+			root.set(root.n++, firstKeys.get(i), numbers.get(i));
+		root.write();
+	}
+
+	boolean isEmpty() {
+		return root.leaf && root.n == 1 && nextPage == 2;
+	}
+
 	Page allocate(boolean leaf) throws IOException {
 		Page page = new Page(nextPage++, leaf);
 		cache.put(page.number, page);
@@ -327,6 +439,9 @@ public class Index implements Iterable<byte[]> {
 	}
 
 	Page getPage(int number) throws IOException {
+		if (number == root.number)
+			return root;
+
 		Page page = cache.get(number);
 		if (page == null) {
 			page = new Page(number);
@@ -335,14 +450,38 @@ public class Index implements Iterable<byte[]> {
 		return page;
 	}
 
+	/**
+	 * Write a page that is dropped from the cache. There is no portable way to
+	 * unmap the buffer, it is unmapped when it is garbage collected.
+	 */
+	void release(Page page) {
+		try {
+			if (page.dirty)
+				page.write();
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	@Override
 	public String toString() {
 		return root.toString();
 	}
 
 	public void close() throws IOException {
-		file.close();
-		cache.clear();
+		try {
+			for (Page page : cache.values()) {
+				if (page.dirty)
+					page.write();
+			}
+			if (root.dirty)
+				root.write();
+		}
+		finally {
+			file.close();
+			cache.clear();
+		}
 	}
 
 	public Iterator<byte[]> iterator() {
@@ -0,0 +1,174 @@
+package aQute.lib.io;
+
+import java.io.*;
+import java.nio.*;
+
+/**
+ * A DataInput over a ByteBuffer. The buffer can be a heap, direct or memory
+ * mapped buffer. Reads start at the current position of the buffer and advance
+ * it, the buffer is read in big endian order as required by DataInput.
+ * <p>
+ * Next to the DataInput methods, this class can decode a modified UTF-8 string
+ * at an absolute position without moving the position. This allows a parser to
+ * remember where a string is and only decode it when it is actually needed.
+ */
+public class ByteBufferDataInput implements DataInput {
+	final ByteBuffer	bb;
+
+	public ByteBufferDataInput(ByteBuffer bb) {
+		this.bb = bb.order(ByteOrder.BIG_ENDIAN);
+	}
+
+	public ByteBuffer getByteBuffer() {
+		return bb;
+	}
+
+	public int position() {
+		return bb.position();
+	}
+
+	public void readFully(byte[] b) throws IOException {
+		readFully(b, 0, b.length);
+	}
+
+	public void readFully(byte[] b, int off, int len) throws IOException {
+		check(len);
+		bb.get(b, off, len);
+	}
+
+	public int skipBytes(int n) throws IOException {
+		int skip = Math.min(n, bb.remaining());
+		bb.position(bb.position() + skip);
+		return skip;
+	}
+
+	public boolean readBoolean() throws IOException {
+		return readByte() != 0;
+	}
+
+	public byte readByte() throws IOException {
+		check(1);
+		return bb.get();
+	}
+
+	public int readUnsignedByte() throws IOException {
+		return readByte() & 0xFF;
+	}
+
+	public short readShort() throws IOException {
+		check(2);
+		return bb.getShort();
+	}
+
+	public int readUnsignedShort() throws IOException {
+		return readShort() & 0xFFFF;
+	}
+
+	public char readChar() throws IOException {
+		check(2);
+		return bb.getChar();
+	}
+
+	public int readInt() throws IOException {
+		check(4);
+		return bb.getInt();
+	}
+
+	public long readLong() throws IOException {
+		check(8);
+		return bb.getLong();
+	}
+
+	public float readFloat() throws IOException {
+		check(4);
+		return bb.getFloat();
+	}
+
+	public double readDouble() throws IOException {
+		check(8);
+		return bb.getDouble();
+	}
+
+	public String readLine() throws IOException {
+		if (!bb.hasRemaining())
+			return null;
+
+		StringBuilder sb = new StringBuilder();
+		while (bb.hasRemaining()) {
+			char c = (char) (bb.get() & 0xFF);
+			if (c == '\n')
+				break;
+			if (c == '\r') {
+				if (bb.hasRemaining() && bb.get(bb.position()) == '\n')
+					bb.get();
+				break;
+			}
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+
+	public String readUTF() throws IOException {
+		int length = readUnsignedShort();
+		check(length);
+		String s = decodeUTF(bb.position(), length);
+		bb.position(bb.position() + length);
+		return s;
+	}
+
+	/**
+	 * Decode the modified UTF-8 string at the given absolute position. The
+	 * position must point at the 2 byte length that precedes the string, as
+	 * written by {@link DataOutput#writeUTF(String)}. The position of the
+	 * buffer is not changed.
+	 *
+	 * @param position
+	 *            the absolute position of the length
+	 * @return the decoded string
+	 * @throws IOException
+	 */
+	public String readUTF(int position) throws IOException {
+		int length = ((bb.get(position) & 0xFF) << 8) + (bb.get(position + 1) & 0xFF);
+		if (position + 2 + length > bb.limit())
+			throw new EOFException();
+		return decodeUTF(position + 2, length);
+	}
+
+	private String decodeUTF(int start, int length) throws IOException {
+		char[] chars = new char[length];
+		int n = 0;
+		int i = start;
+		int end = start + length;
+		while (i < end) {
+			int c = bb.get(i) & 0xFF;
+			if (c < 0x80) {
+				chars[n++] = (char) c;
+				i++;
+			} else if ((c & 0xE0) == 0xC0) {
+				if (i + 1 >= end)
+					throw new UTFDataFormatException("Partial character at end of string at " + i);
+				int c2 = bb.get(i + 1);
+				if ((c2 & 0xC0) != 0x80)
+					throw new UTFDataFormatException("Malformed input around byte " + i);
+				chars[n++] = (char) (((c & 0x1F) << 6) | (c2 & 0x3F));
+				i += 2;
+			} else if ((c & 0xF0) == 0xE0) {
+				if (i + 2 >= end)
+					throw new UTFDataFormatException("Partial character at end of string at " + i);
+				int c2 = bb.get(i + 1);
+				int c3 = bb.get(i + 2);
+				if ((c2 & 0xC0) != 0x80 || (c3 & 0xC0) != 0x80)
+					throw new UTFDataFormatException("Malformed input around byte " + i);
+				chars[n++] = (char) (((c & 0x0F) << 12) | ((c2 & 0x3F) << 6) | (c3 & 0x3F));
+				i += 3;
+			} else
+				throw new UTFDataFormatException("Malformed input around byte " + i);
+		}
+		return new String(chars, 0, n);
+	}
+
+	private void check(int n) throws EOFException {
+		if (bb.remaining() < n)
+			throw new EOFException();
+	}
+}
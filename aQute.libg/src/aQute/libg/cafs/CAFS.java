@@ -3,6 +3,7 @@ package aQute.libg.cafs;
 import static aQute.lib.io.IO.*;
 
 import java.io.*;
+import java.nio.*;
 import java.nio.channels.*;
 import java.security.*;
 import java.util.*;
@@ -38,6 +39,7 @@ public class CAFS implements Closeable, Iterable<SHA1> {
 										;
 
 	final File			home;
+	final Object		writeLock		= new Object();
 	Index				index;
 	RandomAccessFile	store;
 	FileChannel			channel;
@@ -88,12 +90,70 @@ public class CAFS implements Closeable, Iterable<SHA1> {
 		store.seek(0);
 		if (!verifySignature(store, CAFS))
 			throw new IllegalArgumentException("Not a valid signature: CAFS at start of file");
+		repair();
+	}
+
+	/**
+	 * Remove what an interrupted write left at the end of the store. The
+	 * header of a record is written after its content, so the complete
+	 * records end at the first record without a valid header or with content
+	 * beyond the end of the store.
+	 */
+	private void repair() throws IOException {
+		synchronized (writeLock) {
+			long end = committed();
+			long position = 0x100;
+			while (position < end) {
+				long next = skip(position, end);
+				if (next < 0)
+					break;
+				position = next;
+			}
+			if (position >= end)
+				return;
 
+			FileLock lock = channel.lock(position, Long.MAX_VALUE - position, false);
+			try {
+				channel.truncate(position);
+				channel.force(true);
+			}
+			finally {
+				lock.release();
+			}
+		}
+	}
+
+	/**
+	 * Answer the position after the record at the given position or -1 when
+	 * there is no complete record before the end.
+	 */
+	private long skip(long position, long end) throws IOException {
+		if (end - position < HEADERLENGTH)
+			return -1;
+
+		DataInputStream header = new DataInputStream(new ChannelInputStream(channel, position, HEADERLENGTH));
+		if (!verifySignature(header, CAFE))
+			return -1;
+
+		int flags = header.readInt();
+		int compressedLength = header.readInt();
+		int totalLength = header.readInt();
+		byte[] sha1 = new byte[KEYLENGTH];
+		header.readFully(sha1);
+		short crc = header.readShort();
+		if (crc != checksum(flags, compressedLength, totalLength, sha1) || compressedLength < 0)
+			return -1;
+
+		long next = position + HEADERLENGTH + compressedLength;
+		return next > end ? -1 : next;
 	}
 
 	/**
 	 * Store an input stream in the CAFS while calculating and returning the
-	 * SHA-1 code.
+	 * SHA-1 code. The content is deflated straight to the end of the store,
+	 * it is not buffered in memory. Since the SHA-1 is only known at the end,
+	 * the record is removed again when the content was already stored.
+	 * Writers append one at a time, readers are not blocked.
 	 * 
 	 * @param in
 	 *            The input stream to store.
@@ -102,40 +162,22 @@ public class CAFS implements Closeable, Iterable<SHA1> {
 	 *             if anything goes wrong
 	 */
 	public SHA1 write(InputStream in) throws Exception {
-
-		Deflater deflater = new Deflater();
-		MessageDigest md = MessageDigest.getInstance(ALGORITHM);
-		DigestInputStream din = new DigestInputStream(in, md);
-		ByteArrayOutputStream bout = new ByteArrayOutputStream();
-		DeflaterOutputStream dout = new DeflaterOutputStream(bout, deflater);
-		copy(din, dout);
-
-		synchronized (store) {
-			// First check if it already exists
-			SHA1 sha1 = new SHA1(md.digest());
-
-			long search = index.search(sha1.digest());
-			if (search > 0)
-				return sha1;
-
-			byte[] compressed = bout.toByteArray();
-
+		synchronized (writeLock) {
 			// we need to append this file to our store,
 			// which requires a lock. However, we are in a race
 			// so others can get the lock between us getting
 			// the length and someone else getting the lock.
 			// So we must verify after we get the lock that the
-			// length was unchanged.
+			// length was unchanged. The length of the record is
+			// not known yet so we lock everything after the end.
 			FileLock lock = null;
 			try {
 				long insertPoint;
-				int recordLength = compressed.length + HEADERLENGTH;
-
 				while (true) {
-					insertPoint = store.length();
-					lock = channel.lock(insertPoint, recordLength, false);
+					insertPoint = channel.size();
+					lock = channel.lock(insertPoint, Long.MAX_VALUE - insertPoint, false);
 
-					if (store.length() == insertPoint)
+					if (channel.size() == insertPoint)
 						break;
 
 					// We got the wrong lock, someone else
@@ -143,11 +185,49 @@ public class CAFS implements Closeable, Iterable<SHA1> {
 					// and locking
 					lock.release();
 				}
-				int totalLength = deflater.getTotalIn();
-				store.seek(insertPoint);
-				update(sha1.digest(), compressed, totalLength);
-				index.insert(sha1.digest(), insertPoint);
-				return sha1;
+
+				// Until the record is in the index it is removed again on
+				// any failure
+				boolean keep = false;
+				try {
+					Deflater deflater = new Deflater();
+					MessageDigest md = MessageDigest.getInstance(ALGORITHM);
+					DigestInputStream din = new DigestInputStream(in, md);
+					ChannelOutputStream cout = new ChannelOutputStream(channel, insertPoint + HEADERLENGTH);
+					DeflaterOutputStream dout = new DeflaterOutputStream(new BufferedOutputStream(cout, 0x10000),
+							deflater);
+					int totalLength;
+					try {
+						copy(din, dout);
+						dout.finish();
+						dout.flush();
+						totalLength = deflater.getTotalIn();
+					}
+					finally {
+						deflater.end();
+					}
+
+					SHA1 sha1 = new SHA1(md.digest());
+					synchronized (store) {
+						// First check if it already exists
+						long search = index.search(sha1.digest());
+						if (search > 0)
+							return sha1;
+					}
+
+					int compressedLength = (int) (cout.position - insertPoint - HEADERLENGTH);
+					update(insertPoint, sha1.digest(), compressedLength, totalLength);
+
+					synchronized (store) {
+						index.insert(sha1.digest(), insertPoint);
+						keep = true;
+					}
+					return sha1;
+				}
+				finally {
+					if (!keep)
+						channel.truncate(insertPoint);
+				}
 			}
 			finally {
 				if (lock != null)
@@ -157,7 +237,8 @@ public class CAFS implements Closeable, Iterable<SHA1> {
 	}
 
 	/**
-	 * Read the contents of a sha 1 key.
+	 * Read the contents of a sha 1 key. The content is read from the store
+	 * with positional reads, so readers do not block each other.
 	 * 
 	 * @param sha1
 	 *            The key
@@ -165,48 +246,46 @@ public class CAFS implements Closeable, Iterable<SHA1> {
 	 * @throws Exception
 	 */
 	public InputStream read(final SHA1 sha1) throws Exception {
+		long offset;
 		synchronized (store) {
-			long offset = index.search(sha1.digest());
-			if (offset < 0)
-				return null;
-
-			byte[] readSha1;
-			byte[] buffer;
-			store.seek(offset);
-			if (!verifySignature(store, CAFE))
-				throw new IllegalArgumentException("No signature");
-
-			int flags = store.readInt();
-			int compressedLength = store.readInt();
-			int uncompressedLength = store.readInt();
-			readSha1 = new byte[KEYLENGTH];
-			store.read(readSha1);
-			SHA1 rsha1 = new SHA1(readSha1);
-
-			if (!sha1.equals(rsha1))
-				throw new IOException("SHA1 read and asked mismatch: " + sha1 + " " + rsha1);
-
-			short crc = store.readShort(); // Read CRC
-			if (crc != checksum(flags, compressedLength, uncompressedLength, readSha1))
-				throw new IllegalArgumentException("Invalid header checksum: " + sha1);
-
-			buffer = new byte[compressedLength];
-			store.readFully(buffer);
-			return getSha1Stream(sha1, buffer, uncompressedLength);
+			offset = index.search(sha1.digest());
 		}
+		if (offset < 0)
+			return null;
+
+		DataInputStream header = new DataInputStream(new ChannelInputStream(channel, offset, HEADERLENGTH));
+		if (!verifySignature(header, CAFE))
+			throw new IllegalArgumentException("No signature");
+
+		int flags = header.readInt();
+		int compressedLength = header.readInt();
+		int uncompressedLength = header.readInt();
+		byte[] readSha1 = new byte[KEYLENGTH];
+		header.readFully(readSha1);
+		SHA1 rsha1 = new SHA1(readSha1);
+
+		if (!sha1.equals(rsha1))
+			throw new IOException("SHA1 read and asked mismatch: " + sha1 + " " + rsha1);
+
+		short crc = header.readShort(); // Read CRC
+		if (crc != checksum(flags, compressedLength, uncompressedLength, readSha1))
+			throw new IllegalArgumentException("Invalid header checksum: " + sha1);
+
+		InputStream content = new BufferedInputStream(new ChannelInputStream(channel, offset + HEADERLENGTH,
+				compressedLength), 0x10000);
+		return getSha1Stream(sha1, content, uncompressedLength);
 	}
 
 	public boolean exists(byte[] sha1) throws Exception {
-		return index.search(sha1) >= 0;
+		synchronized (store) {
+			return index.search(sha1) >= 0;
+		}
 	}
 
 	public void reindex() throws Exception {
-		long length;
-		synchronized (store) {
-			length = store.length();
-			if (length < 0x100)
-				throw new IllegalArgumentException("Store file is too small, need to be at least 256 bytes: " + store);
-		}
+		long length = committed();
+		if (length < 0x100)
+			throw new IllegalArgumentException("Store file is too small, need to be at least 256 bytes: " + store);
 
 		RandomAccessFile in = new RandomAccessFile(new File(home, STOREFILE), "r");
 		try {
@@ -219,11 +298,31 @@ public class CAFS implements Closeable, Iterable<SHA1> {
 			File ixf = new File(home, "index.new");
 			Index index = new Index(ixf, KEYLENGTH);
 
+			// Sort the keys so the index can be built bottom up
+			SortedMap<byte[],Long> entries = new TreeMap<byte[],Long>(new Comparator<byte[]>() {
+				public int compare(byte[] a, byte[] b) {
+					for (int i = 0; i < KEYLENGTH; i++) {
+						int d = (a[i] & 0xFF) - (b[i] & 0xFF);
+						if (d != 0)
+							return d;
+					}
+					return 0;
+				}
+			});
 			while (in.getFilePointer() < length) {
 				long entry = in.getFilePointer();
 				SHA1 sha1 = verifyEntry(in);
-				index.insert(sha1.digest(), entry);
+				entries.put(sha1.digest(), entry);
+			}
+
+			byte[][] keys = new byte[entries.size()][];
+			long[] values = new long[entries.size()];
+			int n = 0;
+			for (Map.Entry<byte[],Long> e : entries.entrySet()) {
+				keys[n] = e.getKey();
+				values[n++] = e.getValue();
 			}
+			index.insertAll(keys, values);
 
 			synchronized (store) {
 				index.close();
@@ -238,12 +337,38 @@ public class CAFS implements Closeable, Iterable<SHA1> {
 	}
 
 	public void close() throws IOException {
-		synchronized (store) {
-			try {
-				store.close();
+		synchronized (writeLock) {
+			synchronized (store) {
+				try {
+					store.close();
+				}
+				finally {
+					index.close();
+				}
 			}
-			finally {
-				index.close();
+		}
+	}
+
+	/**
+	 * Answer the end of the complete records in the store. Other processes can
+	 * append to the store, a writer holds a lock from the end of the store
+	 * until its record is complete. So the size is only used when the region
+	 * after it can be locked.
+	 */
+	long committed() throws IOException {
+		// The locks of this process are held under the write lock, the
+		// file lock cannot overlap them
+		synchronized (writeLock) {
+			while (true) {
+				long size = channel.size();
+				FileLock lock = channel.lock(size, Long.MAX_VALUE - size, true);
+				try {
+					if (channel.size() == size)
+						return size;
+				}
+				finally {
+					lock.release();
+				}
 			}
 		}
 	}
@@ -254,17 +379,20 @@ public class CAFS implements Closeable, Iterable<SHA1> {
 		if (!Arrays.equals(CAFE, signature))
 			throw new IllegalArgumentException("File is corrupted: " + in);
 
-		/* int flags = */in.readInt();
+		int flags = in.readInt();
 		int compressedSize = in.readInt();
 		int uncompressedSize = in.readInt();
 		byte[] key = new byte[KEYLENGTH];
 		in.readFully(key);
 		SHA1 sha1 = new SHA1(key);
+		short crc = in.readShort();
+		if (crc != checksum(flags, compressedSize, uncompressedSize, key))
+			throw new IllegalArgumentException("Invalid header checksum: " + sha1);
 
 		byte[] buffer = new byte[compressedSize];
 		in.readFully(buffer);
 
-		InputStream xin = getSha1Stream(sha1, buffer, uncompressedSize);
+		InputStream xin = getSha1Stream(sha1, new ByteArrayInputStream(buffer), uncompressedSize);
 		xin.skip(uncompressedSize);
 		xin.close();
 		return sha1;
@@ -276,8 +404,7 @@ public class CAFS implements Closeable, Iterable<SHA1> {
 		return Arrays.equals(read, org);
 	}
 
-	private InputStream getSha1Stream(final SHA1 sha1, byte[] buffer, final int total) throws NoSuchAlgorithmException {
-		ByteArrayInputStream in = new ByteArrayInputStream(buffer);
+	private InputStream getSha1Stream(final SHA1 sha1, InputStream in, final int total) throws NoSuchAlgorithmException {
 		InflaterInputStream iin = new InflaterInputStream(in) {
 			int					count		= 0;
 			final MessageDigest	digestx		= MessageDigest.getInstance(ALGORITHM);
@@ -331,30 +458,105 @@ public class CAFS implements Closeable, Iterable<SHA1> {
 	}
 
 	/**
-	 * Update a record in the store, assuming the store is at the right
-	 * position.
+	 * Write the header of a record in the store. The content of the record
+	 * must already be written after the header.
 	 * 
+	 * @param position
+	 *            The position of the record
 	 * @param sha1
 	 *            The checksum
-	 * @param compressed
+	 * @param compressedLength
 	 *            The compressed length
 	 * @param totalLength
 	 *            The uncompressed length
 	 * @throws IOException
 	 *             The exception
 	 */
-	private void update(byte[] sha1, byte[] compressed, int totalLength) throws IOException {
-		// System.err.println("pos: " + store.getFilePointer());
-		store.write(CAFE); // 00-03 Signature
-		store.writeInt(0); // 04-07 Flags for the future
-		store.writeInt(compressed.length); // 08-11 Length deflated data
-		store.writeInt(totalLength); // 12-15 Length
-		store.write(sha1); // 16-35
-		store.writeShort(checksum(0, compressed.length, totalLength, sha1));
-		store.write(compressed);
+	private void update(long position, byte[] sha1, int compressedLength, int totalLength) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADERLENGTH);
+		header.put(CAFE); // 00-03 Signature
+		header.putInt(0); // 04-07 Flags for the future
+		header.putInt(compressedLength); // 08-11 Length deflated data
+		header.putInt(totalLength); // 12-15 Length
+		header.put(sha1); // 16-35
+		header.putShort(checksum(0, compressedLength, totalLength, sha1));
+		header.flip();
+		while (header.hasRemaining())
+			position += channel.write(header, position);
 		channel.force(false);
 	}
 
+	/**
+	 * Writes to a channel from a position onwards without changing the
+	 * position of the channel.
+	 */
+	static class ChannelOutputStream extends OutputStream {
+		final FileChannel	channel;
+		long				position;
+
+		ChannelOutputStream(FileChannel channel, long position) {
+			this.channel = channel;
+			this.position = position;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {
+				(byte) b
+			}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			ByteBuffer bb = ByteBuffer.wrap(b, off, len);
+			while (bb.hasRemaining())
+				position += channel.write(bb, position);
+		}
+	}
+
+	/**
+	 * Reads a region of a channel without changing the position of the
+	 * channel. Positional reads can be done concurrently.
+	 */
+	static class ChannelInputStream extends InputStream {
+		final FileChannel	channel;
+		long				position;
+		long				remaining;
+
+		ChannelInputStream(FileChannel channel, long position, long length) {
+			this.channel = channel;
+			this.position = position;
+			this.remaining = length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			int size = read(b, 0, 1);
+			return size < 0 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (remaining <= 0)
+				return -1;
+
+			ByteBuffer bb = ByteBuffer.wrap(b, off, (int) Math.min(len, remaining));
+			int size = channel.read(bb, position);
+			if (size < 0)
+				throw new EOFException("Record extends beyond the end of the store");
+
+			position += size;
+			remaining -= size;
+			return size;
+		}
+
+		@Override
+		public int available() {
+			return (int) Math.min(remaining, Integer.MAX_VALUE);
+		}
+	}
+
 	short checksum(int flags, int compressedLength, int totalLength, byte[] sha1) {
 		CRC32 crc = new CRC32();
 		crc.update(flags);
@@ -374,45 +576,44 @@ public class CAFS implements Closeable, Iterable<SHA1> {
 	}
 
 	public Iterator<SHA1> iterator() {
+		final long end;
+		try {
+			end = committed();
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
 
 		return new Iterator<SHA1>() {
 			long	position	= 0x100;
 
 			public boolean hasNext() {
-				synchronized (store) {
-					try {
-						return position < store.length();
-					}
-					catch (IOException e) {
-						throw new RuntimeException(e);
-					}
-				}
+				return position < end;
 			}
 
 			public SHA1 next() {
-				synchronized (store) {
-					try {
-						store.seek(position);
-						byte[] signature = new byte[4];
-						store.readFully(signature);
-						if (!Arrays.equals(CAFE, signature))
-							throw new IllegalArgumentException("No signature");
-
-						int flags = store.readInt();
-						int compressedLength = store.readInt();
-						int totalLength = store.readInt();
-						byte[] sha1 = new byte[KEYLENGTH];
-						store.readFully(sha1);
-						short crc = store.readShort();
-						if (crc != checksum(flags, compressedLength, totalLength, sha1))
-							throw new IllegalArgumentException("Header checksum fails");
-
-						position += HEADERLENGTH + compressedLength;
-						return new SHA1(sha1);
-					}
-					catch (IOException e) {
-						throw new RuntimeException(e);
-					}
+				try {
+					DataInputStream header = new DataInputStream(new ChannelInputStream(channel, position,
+							HEADERLENGTH));
+					byte[] signature = new byte[4];
+					header.readFully(signature);
+					if (!Arrays.equals(CAFE, signature))
+						throw new IllegalArgumentException("No signature");
+
+					int flags = header.readInt();
+					int compressedLength = header.readInt();
+					int totalLength = header.readInt();
+					byte[] sha1 = new byte[KEYLENGTH];
+					header.readFully(sha1);
+					short crc = header.readShort();
+					if (crc != checksum(flags, compressedLength, totalLength, sha1))
+						throw new IllegalArgumentException("Header checksum fails");
+
+					position += HEADERLENGTH + compressedLength;
+					return new SHA1(sha1);
+				}
+				catch (IOException e) {
+					throw new RuntimeException(e);
 				}
 			}
 
@@ -423,8 +624,6 @@ public class CAFS implements Closeable, Iterable<SHA1> {
 	}
 
 	public boolean isEmpty() throws IOException {
-		synchronized (store) {
-			return store.getFilePointer() <= 256;
-		}
+		return committed() <= 0x100;
 	}
 }
@@ -1,8 +1,13 @@
 package test;
 
 import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
 
 import junit.framework.*;
+import aQute.lib.io.*;
+import aQute.libg.cafs.*;
+import aQute.libg.cryptography.*;
 
 public class TestCAFS extends TestCase {
 	File	tmp;
@@ -15,6 +20,162 @@ public class TestCAFS extends TestCase {
 
 	public void testX() {}
 
+	static byte[] read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		IO.copy(in, out);
+		return out.toByteArray();
+	}
+
+	public void testConcurrentReads() throws Exception {
+		File dir = new File(tmp, getClass().getName() + System.currentTimeMillis());
+		try {
+			final CAFS cafs = new CAFS(dir, true);
+			assertTrue(cafs.isEmpty());
+
+			// A large content is streamed to the store
+			byte[] large = new byte[5000000];
+			new Random(1).nextBytes(large);
+			final Map<SHA1,byte[]> contents = new HashMap<SHA1,byte[]>();
+			contents.put(cafs.write(new ByteArrayInputStream(large)), large);
+			for (int i = 0; i < 20; i++) {
+				byte[] content = ("content " + i).getBytes("UTF-8");
+				SHA1 sha1 = cafs.write(new ByteArrayInputStream(content));
+				assertEquals(SHA1.digest(content), sha1);
+				contents.put(sha1, content);
+			}
+			assertFalse(cafs.isEmpty());
+
+			// Writing the same content again does not grow the store
+			long length = new File(dir, "store.cafs").length();
+			cafs.write(new ByteArrayInputStream(large));
+			assertEquals(length, new File(dir, "store.cafs").length());
+
+			ExecutorService pool = Executors.newFixedThreadPool(4);
+			try {
+				List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+				for (int i = 0; i < 8; i++) {
+					futures.add(pool.submit(new Callable<Boolean>() {
+						public Boolean call() throws Exception {
+							for (Map.Entry<SHA1,byte[]> entry : contents.entrySet()) {
+								InputStream in = cafs.read(entry.getKey());
+								if (!Arrays.equals(entry.getValue(), read(in)))
+									return false;
+							}
+							return true;
+						}
+					}));
+				}
+				for (Future<Boolean> future : futures)
+					assertTrue(future.get());
+			}
+			finally {
+				pool.shutdownNow();
+			}
+
+			int n = 0;
+			for (SHA1 key : cafs) {
+				assertTrue(contents.containsKey(key));
+				n++;
+			}
+			assertEquals(contents.size(), n);
+			cafs.close();
+
+			// Reopen the store
+			CAFS reopened = new CAFS(dir, false);
+			assertTrue(Arrays.equals(large, read(reopened.read(SHA1.digest(large)))));
+			reopened.close();
+		}
+		finally {
+			IO.delete(dir);
+		}
+	}
+
+	/**
+	 * Records appended by another instance must be seen, a failed write must
+	 * not leave anything behind.
+	 */
+	public void testSharedStore() throws Exception {
+		File dir = new File(tmp, getClass().getName() + System.currentTimeMillis());
+		try {
+			CAFS writer = new CAFS(dir, true);
+			CAFS other = new CAFS(dir, false);
+			assertTrue(other.isEmpty());
+
+			SHA1 sha1 = writer.write(new ByteArrayInputStream("shared".getBytes("UTF-8")));
+			assertFalse(other.isEmpty());
+			Iterator<SHA1> i = other.iterator();
+			assertTrue(i.hasNext());
+			assertEquals(sha1, i.next());
+			assertFalse(i.hasNext());
+
+			long length = new File(dir, "store.cafs").length();
+			try {
+				writer.write(new InputStream() {
+					int	n	= 100000;
+
+					@Override
+					public int read() throws IOException {
+						if (n-- == 0)
+							throw new IOException("failed");
+						return n & 0xFF;
+					}
+				});
+				fail();
+			}
+			catch (IOException e) {
+				// expected
+			}
+			assertEquals(length, new File(dir, "store.cafs").length());
+
+			writer.close();
+			other.close();
+		}
+		finally {
+			IO.delete(dir);
+		}
+	}
+
+	/**
+	 * A write that was interrupted before its header was written leaves
+	 * content without a header, it must be removed when the store is opened.
+	 */
+	public void testInterruptedWrite() throws Exception {
+		File dir = new File(tmp, getClass().getName() + System.currentTimeMillis());
+		try {
+			CAFS cafs = new CAFS(dir, true);
+			SHA1 first = cafs.write(new ByteArrayInputStream("first".getBytes("UTF-8")));
+			cafs.close();
+
+			File store = new File(dir, "store.cafs");
+			long length = store.length();
+			RandomAccessFile raf = new RandomAccessFile(store, "rw");
+			try {
+				// The content of a record follows its 38 byte header
+				raf.seek(length + 38);
+				raf.write(new byte[1000]);
+			}
+			finally {
+				raf.close();
+			}
+
+			cafs = new CAFS(dir, false);
+			assertEquals(length, store.length());
+			SHA1 second = cafs.write(new ByteArrayInputStream("second".getBytes("UTF-8")));
+
+			List<SHA1> keys = new ArrayList<SHA1>();
+			for (SHA1 key : cafs)
+				keys.add(key);
+			assertEquals(Arrays.asList(first, second), keys);
+
+			cafs.reindex();
+			assertEquals("second", IO.collect(cafs.read(second)));
+			cafs.close();
+		}
+		finally {
+			IO.delete(dir);
+		}
+	}
+
 	// public void testSimple() throws Exception {
 	// File dir = new File(tmp, getClass().getName() +
 	// System.currentTimeMillis());
@@ -1,6 +1,7 @@
 package test;
 
 import java.io.*;
+import java.util.*;
 
 import junit.framework.*;
 import aQute.lib.index.*;
@@ -81,6 +82,92 @@ public class TestIndex extends TestCase {
 		}), 12);
 	}
 
+	public void testBulkLoad() throws Exception {
+		File test = new File("tmp/test.tmp");
+		test.delete();
+		test.getParentFile().mkdirs();
+		byte[][] keys = keys(50000);
+		long[] values = new long[keys.length];
+		for (int i = 0; i < keys.length; i++)
+			values[i] = i + 1;
+
+		Index index = new Index(test, 20, 16);
+		index.insertAll(keys, values);
+		for (int i = 0; i < keys.length; i++)
+			assertEquals(i + 1, index.search(keys[i]));
+		index.close();
+
+		index = new Index(test, 20, 16);
+		int n = -1; // the zero key comes first
+		for (byte[] key : index)
+			if (n++ >= 0)
+				assertTrue(Arrays.equals(keys[n - 1], key));
+		assertEquals(keys.length, n);
+
+		// Inserts after a bulk load split the full pages
+		index.insert(new byte[] {
+			1, 2, 3
+		}, 42);
+		assertEquals(42, index.search(new byte[] {
+			1, 2, 3
+		}));
+		for (int i = 0; i < keys.length; i++)
+			assertEquals(i + 1, index.search(keys[i]));
+		index.close();
+		test.delete();
+	}
+
+	public void testBoundedCache() throws Exception {
+		File test = new File("tmp/test.tmp");
+		test.delete();
+		test.getParentFile().mkdirs();
+		byte[][] keys = keys(5000);
+		List<Integer> order = new ArrayList<Integer>();
+		for (int i = 0; i < keys.length; i++)
+			order.add(i);
+		Collections.shuffle(order, new Random(7));
+
+		Index index = new Index(test, 20, 2);
+		for (int i : order)
+			index.insert(keys[i], i + 1);
+		for (int i = 0; i < keys.length; i++)
+			assertEquals(i + 1, index.search(keys[i]));
+		index.close();
+
+		index = new Index(test, 20, 2);
+		for (int i = 0; i < keys.length; i++)
+			assertEquals(i + 1, index.search(keys[i]));
+		index.close();
+		test.delete();
+	}
+
+	/**
+	 * Create sorted unique keys that look like SHA-1 digests.
+	 */
+	static byte[][] keys(int n) {
+		Random random = new Random(n);
+		Set<String> seen = new HashSet<String>();
+		List<byte[]> keys = new ArrayList<byte[]>();
+		while (keys.size() < n) {
+			byte[] key = new byte[20];
+			random.nextBytes(key);
+			key[0] |= 0x10;
+			if (seen.add(Arrays.toString(key)))
+				keys.add(key);
+		}
+		Collections.sort(keys, new Comparator<byte[]>() {
+			public int compare(byte[] a, byte[] b) {
+				for (int i = 0; i < a.length; i++) {
+					int d = (a[i] & 0xFF) - (b[i] & 0xFF);
+					if (d != 0)
+						return d;
+				}
+				return 0;
+			}
+		});
+		return keys.toArray(new byte[n][]);
+	}
+
 	// public void testMany() throws Exception {
 	// File test = new File("tmp/test.tmp");
 	// test.delete();
@@ -656,6 +656,37 @@ public class bnd extends Processor {
 		project.build(opts.test());
 	}
 
+	@Description("Build all projects in the workspace, projects that do not depend on each other are built in parallel")
+	interface buildallOptions extends Options {
+		String project();
+
+		boolean test();
+
+		@Description("Nr of projects to build in parallel, a number or true for the nr of processors. Default is the -parallel setting of the workspace")
+		String jobs();
+	}
+
+	public void _buildall(buildallOptions opts) throws Exception {
+		Project project = getProject(opts.project());
+		if (project == null) {
+			messages.NoProject();
+			return;
+		}
+
+		Workspace ws = project.getWorkspace();
+		if (opts.jobs() != null)
+			ws.setProperty(Constants.PARALLEL, opts.jobs());
+
+		BuildScheduler scheduler = new BuildScheduler(ws);
+		boolean ok = scheduler.build(opts.test());
+		for (BuildScheduler.Report report : scheduler.getReports()) {
+			err.printf("%-40s %-8s %6d ms%n", report.project, report.status, report.duration);
+			getInfo(report.project, report.project + ": ");
+		}
+		if (!ok)
+			error("Workspace build failed");
+	}
+
 	interface testOptions extends Options {
 		String project();
 	}
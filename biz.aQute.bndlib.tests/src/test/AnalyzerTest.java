@@ -9,6 +9,7 @@ import aQute.bnd.header.*;
 import aQute.bnd.osgi.*;
 import aQute.bnd.osgi.Clazz.Def;
 import aQute.bnd.osgi.Descriptors.TypeRef;
+import aQute.bnd.service.*;
 import aQute.bnd.test.*;
 import aQute.lib.io.*;
 
@@ -46,6 +47,142 @@ public class AnalyzerTest extends BndTestCase {
 		assertEquals(5, xRef.size());
 	}
 
+	/**
+	 * Parsing the classes in parallel must give the same manifest as parsing
+	 * them serially.
+	 */
+
+	public static void testParallelAnalysis() throws Exception {
+		Manifest serial = analyzeBndlib(null, null);
+		Manifest parallel = analyzeBndlib("4", null);
+
+		Attributes s = serial.getMainAttributes();
+		Attributes p = parallel.getMainAttributes();
+		assertEquals(s.getValue(Constants.EXPORT_PACKAGE), p.getValue(Constants.EXPORT_PACKAGE));
+		assertEquals(s.getValue(Constants.IMPORT_PACKAGE), p.getValue(Constants.IMPORT_PACKAGE));
+		assertEquals(s.getValue(Constants.PROVIDE_CAPABILITY), p.getValue(Constants.PROVIDE_CAPABILITY));
+	}
+
+	/**
+	 * A second analysis with the class cache must restore all classes from the
+	 * cache and give the same manifest.
+	 */
+
+	public static void testClassCache() throws Exception {
+		File dir = new File("tmp-classcache");
+		IO.delete(dir);
+		try {
+			ClassCache cache = new ClassCache(dir);
+			Manifest serial = analyzeBndlib(null, null);
+			Manifest first = analyzeBndlib(null, cache);
+			assertEquals(0, cache.getHits());
+			assertTrue(cache.getMisses() > 0);
+
+			cache = new ClassCache(dir);
+			Manifest second = analyzeBndlib("4", cache);
+			assertEquals(0, cache.getMisses());
+			assertTrue(cache.getHits() > 0);
+
+			for (Manifest m : Arrays.asList(first, second)) {
+				Attributes s = serial.getMainAttributes();
+				Attributes p = m.getMainAttributes();
+				assertEquals(s.getValue(Constants.EXPORT_PACKAGE), p.getValue(Constants.EXPORT_PACKAGE));
+				assertEquals(s.getValue(Constants.IMPORT_PACKAGE), p.getValue(Constants.IMPORT_PACKAGE));
+				assertEquals(s.getValue(Constants.BUNDLE_REQUIREDEXECUTIONENVIRONMENT),
+						p.getValue(Constants.BUNDLE_REQUIREDEXECUTIONENVIRONMENT));
+			}
+		}
+		finally {
+			IO.delete(dir);
+		}
+	}
+
+	/**
+	 * Class parsers get their collectors back after a single pass over the
+	 * class space, the DS annotations are handled in the same pass.
+	 */
+
+	public static void testClassParsers() throws Exception {
+		class Names extends ClassDataCollector {
+			TypeRef	name;
+			int		methods;
+
+			@Override
+			public boolean classStart(int access, TypeRef className) {
+				name = className;
+				return true;
+			}
+
+			@Override
+			public void method(Clazz.MethodDef defined) {
+				methods++;
+			}
+		}
+		class Plugin implements ClassParser, AnalyzerPlugin {
+			int	parsed;
+			int	missing;
+
+			public ClassDataCollector getClassDataCollector(Analyzer analyzer, Clazz clazz) {
+				return new Names();
+			}
+
+			public boolean analyzeJar(Analyzer analyzer) throws Exception {
+				for (Clazz c : analyzer.getClassspace().values()) {
+					Names names = (Names) analyzer.getClassDataCollector(this, c);
+					if (names == null)
+						missing++;
+					else {
+						assertEquals(c.getClassName(), names.name);
+						assertTrue(names.methods > 0);
+						parsed++;
+					}
+				}
+				return false;
+			}
+		}
+
+		Plugin plugin = new Plugin();
+		Builder b = new Builder();
+		try {
+			b.addBasicPlugin(plugin);
+			b.setProperty("-dsannotations", "test.component.*_basic");
+			b.setProperty("Private-Package", "test.component");
+			b.addClasspath(IO.getFile(cwd, "bin"));
+			Jar jar = b.build();
+			assertTrue(b.check());
+
+			assertEquals(0, plugin.missing);
+			assertEquals(b.getClassspace().size(), plugin.parsed);
+			assertNotNull(jar.getResource("OSGI-INF/test.component.DSAnnotationTest$Defaults_basic.xml"));
+
+			// The collectors are released after the plugins have run
+			Clazz c = b.getClassspace().values().iterator().next();
+			assertNull(b.getClassDataCollector(plugin, c));
+		}
+		finally {
+			b.close();
+		}
+	}
+
+	private static Manifest analyzeBndlib(String parallel, ClassCache cache) throws Exception {
+		Builder b = new Builder();
+		try {
+			if (cache != null)
+				b.setClassCache(cache);
+			b.addClasspath(IO.getFile(cwd, "../aQute.libg/bin"));
+			b.addClasspath(IO.getFile(cwd, "../biz.aQute.bndlib/bin"));
+			b.setExportPackage("aQute.*");
+			if (parallel != null)
+				b.setProperty(Constants.PARALLEL, parallel);
+			b.build();
+			assertTrue(b.check());
+			return b.getJar().getManifest();
+		}
+		finally {
+			b.close();
+		}
+	}
+
 	/**
 	 * The -removeheaders header can be used as a whitelist.
 	 */
@@ -261,6 +398,66 @@ public class AnalyzerTest extends BndTestCase {
 						"org.osgi.service.http.HttpService")), r);
 	}
 
+	/**
+	 * The class space index must answer the same as asking each class.
+	 */
+	public static void testClassQueryIndex() throws Exception {
+		Analyzer a = new Analyzer();
+		try {
+			a.setJar(new File("bin"));
+			a.analyze();
+
+			String[][] queries = {
+					{
+							"implements", "junit.framework.Test"
+					}, {
+							"extends", "test.T0"
+					}, {
+							"extends", "junit.framework.*"
+					}, {
+							"importing", "junit.framework"
+					}, {
+							"annotated", "aQute.bnd.annotation.component.*"
+					}, {
+							"implements", "!junit.framework.Test"
+					}, {
+							"named", "*T?"
+					}
+			};
+
+			for (String[] query : queries) {
+				Instruction instr = new Instruction(query[1]);
+				Clazz.QUERY type = Clazz.QUERY.valueOf(query[0].equals("importing") ? "IMPORTS" : query[0]
+						.toUpperCase());
+				Set<Clazz> expected = new HashSet<Clazz>();
+				for (Clazz c : a.getClassspace().values())
+					if (c.is(type, instr, a))
+						expected.add(c);
+
+				assertEquals(query[0] + " " + query[1], expected,
+						new HashSet<Clazz>(a.getClasses("", query[0], query[1])));
+			}
+
+			Collection<Clazz> c = a.getClasses("", "extends", "test.T0", "concrete", "named", "*T?");
+			assertTrue(c.contains(a.findClass(a.getTypeRef("test/T2"))));
+			assertTrue(c.contains(a.findClass(a.getTypeRef("test/T3"))));
+			assertEquals(a.getClassspace().size(), a.getClasses("").size());
+
+			// Replacing a class does not change the size of the class space
+			Clazz t2 = a.findClass(a.getTypeRef("test/T2"));
+			Clazz t0 = a.findClass(a.getTypeRef("test/T0"));
+			a.getClassspace().put(a.getTypeRef("test/T2"), t0);
+			assertFalse(a.getClasses("", "extends", "test.T0").contains(t2));
+			for (Map.Entry<TypeRef,Clazz> entry : a.getClassspace().entrySet())
+				if (entry.getKey().equals(a.getTypeRef("test/T2")))
+					entry.setValue(t2);
+			assertTrue(a.getClasses("", "extends", "test.T0").contains(t2));
+		}
+		finally {
+			a.close();
+		}
+	}
+
 	/**
 	 * Use a private activator, check it is not imported.
 	 * 
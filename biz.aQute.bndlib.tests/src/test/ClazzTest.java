@@ -54,6 +54,94 @@ public class ClazzTest extends TestCase {
 		System.out.println(referred);
 	}
 
+	/**
+	 * Parsing from a buffer must give the same result as parsing from a
+	 * stream, the buffer parser only decodes the UTF-8 constants lazily.
+	 */
+
+	public static void testBufferedParsing() throws Exception {
+		File f = new File("jar/AstNodeToScriptVisitor.jclass");
+
+		Analyzer a = new Analyzer();
+		Clazz stream = new Clazz(a, "", new FileResource(f));
+		List<String> streamEvents = new ArrayList<String>();
+		stream.parseClassFileWithCollector(new Recorder(streamEvents));
+
+		Analyzer b = new Analyzer();
+		b.setBufferedClassParsing(true);
+		Clazz buffer = new Clazz(b, "", new FileResource(f));
+		List<String> bufferEvents = new ArrayList<String>();
+		buffer.parseClassFileWithCollector(new Recorder(bufferEvents));
+
+		assertTrue(streamEvents.size() > 100);
+		assertEquals(streamEvents, bufferEvents);
+		assertEquals(new TreeSet<String>(toString(stream.getReferred())),
+				new TreeSet<String>(toString(buffer.getReferred())));
+		assertEquals(stream.getClassName().getFQN(), buffer.getClassName().getFQN());
+	}
+
+	/**
+	 * A subclass that looks at the constant pool must see it decoded when the
+	 * buffer parser is used, other subclasses parse lazily.
+	 */
+
+	public static void testBufferedParsingPoolDecoded() throws Exception {
+		final List<Object> constants = new ArrayList<Object>();
+		Analyzer a = new Analyzer();
+		a.setBufferedClassParsing(true);
+		Clazz c = new Clazz(a, "", new FileResource(new File("jar/AstNodeToScriptVisitor.jclass"))) {
+			@Override
+			protected void pool(Object[] pool, int[] intPool) {
+				constants.addAll(Arrays.asList(pool));
+			}
+		};
+		c.parseClassFile();
+
+		assertTrue(constants.contains("org/codehaus/groovy/ast/GroovyCodeVisitor"));
+		for (Object o : constants)
+			assertTrue(o == null || o.getClass() != Object.class);
+
+		// A subclass that does not look at the pool parses the same
+		Clazz plain = new Clazz(a, "", new FileResource(new File("jar/AstNodeToScriptVisitor.jclass"))) {};
+		plain.parseClassFile();
+		assertEquals(c.getClassName(), plain.getClassName());
+	}
+
+	static Collection<String> toString(Collection< ? > c) {
+		List<String> result = new ArrayList<String>();
+		for (Object o : c)
+			result.add(o.toString());
+		return result;
+	}
+
+	static class Recorder extends ClassDataCollector {
+		final List<String>	events;
+
+		Recorder(List<String> events) {
+			this.events = events;
+		}
+
+		@Override
+		public void method(Clazz.MethodDef defined) {
+			events.add("method " + defined.getName() + defined.getDescriptor());
+		}
+
+		@Override
+		public void field(Clazz.FieldDef defined) {
+			events.add("field " + defined.getName() + defined.getDescriptor());
+		}
+
+		@Override
+		public void referenceMethod(int access, Descriptors.TypeRef className, String method, String descriptor) {
+			events.add("ref " + className + "." + method + descriptor);
+		}
+
+		@Override
+		public void constant(Object object) {
+			events.add("constant " + object);
+		}
+	}
+
 	/**
 	 * Test the uncamel
 	 */
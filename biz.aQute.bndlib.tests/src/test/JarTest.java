@@ -1,11 +1,13 @@
 package test;
 
 import java.io.*;
+import java.util.*;
 import java.util.jar.*;
 import java.util.zip.*;
 
 import junit.framework.*;
 import aQute.bnd.osgi.*;
+import aQute.lib.io.*;
 
 public class JarTest extends TestCase {
 
@@ -65,4 +67,176 @@ public class JarTest extends TestCase {
 		jar.putResource("asm", new FileResource(file));
 		assertEquals(file.lastModified(), jar.lastModified());
 	}
+
+	/**
+	 * Digests must be calculated while writing, each resource must only be
+	 * written once and the digests must match the content.
+	 */
+	public static void testDigestsWrittenOnce() throws Exception {
+		final int[] count = new int[1];
+		Jar jar = new Jar("dot");
+		Manifest manifest = new Manifest();
+		Attributes section = new Attributes();
+		section.putValue("X", "1");
+		manifest.getEntries().put("a/b", section);
+		jar.setManifest(manifest);
+		jar.putResource("a/b", new FileResource(new File("test/bnd.jar")));
+		jar.putResource("a/c", new EmbeddedResource("hello".getBytes(), 0) {
+			@Override
+			public void write(OutputStream out) throws IOException {
+				count[0]++;
+				super.write(out);
+			}
+		});
+		jar.setDigestAlgorithms(new String[] {
+			"SHA"
+		});
+
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		jar.write(bout);
+		assertEquals(1, count[0]);
+		assertNull(jar.getManifest().getAttributes("a/c"));
+		assertNull(section.getValue("SHA-Digest"));
+
+		JarInputStream jin = new JarInputStream(new ByteArrayInputStream(bout.toByteArray()));
+		Manifest m = jin.getManifest();
+		assertNotNull(m);
+		assertEquals("1", m.getAttributes("a/b").getValue("X"));
+		jin.close();
+
+		Jar expected = new Jar("expected", new ByteArrayInputStream(bout.toByteArray()));
+		expected.calcChecksums(null);
+		for (String path : new String[] {
+				"a/b", "a/c"
+		}) {
+			Attributes actual = m.getAttributes(path);
+			assertNotNull(actual);
+			assertEquals(expected.getManifest().getAttributes(path).getValue("SHA-Digest"), actual.getValue("SHA-Digest"));
+			assertEquals(expected.getManifest().getAttributes(path).getValue("MD5-Digest"), actual.getValue("MD5-Digest"));
+		}
+		expected.close();
+	}
+
+	/**
+	 * Resources that do not fit in memory while staging share one file, their
+	 * content and digests must survive.
+	 */
+	public static void testDigestsStagedToFile() throws Exception {
+		Jar jar = new Jar("dot");
+		jar.setManifest(new Manifest());
+		byte[][] contents = new byte[4][];
+		for (int i = 0; i < contents.length; i++) {
+			contents[i] = new byte[12 * 1024 * 1024 + i];
+			Arrays.fill(contents[i], (byte) i);
+			jar.putResource("a/" + i, new EmbeddedResource(contents[i], 0));
+		}
+		jar.putResource("a/small", new EmbeddedResource("hello".getBytes(), 0));
+		jar.setDigestAlgorithms(new String[] {
+			"SHA"
+		});
+
+		File tmp = File.createTempFile("staged", ".jar");
+		try {
+			jar.write(tmp);
+
+			Jar actual = new Jar(tmp);
+			Jar expected = new Jar(tmp);
+			expected.calcChecksums(null);
+			Manifest m = actual.getManifest();
+			for (int i = 0; i < contents.length; i++) {
+				String path = "a/" + i;
+				assertTrue(Arrays.equals(contents[i], read(actual.getResource(path))));
+				assertEquals(expected.getManifest().getAttributes(path).getValue("SHA-Digest"), m
+						.getAttributes(path).getValue("SHA-Digest"));
+			}
+			assertEquals("hello", IO.collect(actual.getResource("a/small").openInputStream()));
+			actual.close();
+			expected.close();
+		}
+		finally {
+			tmp.delete();
+		}
+	}
+
+	/**
+	 * Parallel compression must produce a valid and deterministic ZIP.
+	 */
+	public static void testParallelCompression() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		Random random = new Random(42);
+		while (sb.length() < 1000000)
+			sb.append(random.nextInt(1000)).append(' ');
+		byte[] large = sb.toString().getBytes("UTF-8");
+
+		Jar jar = new Jar("dot");
+		jar.setManifest(new Manifest());
+		jar.putResource("a/b", new FileResource(new File("test/bnd.jar")));
+		jar.putResource("a/large", new EmbeddedResource(large, 0));
+		jar.putResource("a/empty", new EmbeddedResource(new byte[0], 0));
+		jar.putResource("b/c/d", new EmbeddedResource("hello".getBytes(), 0));
+		jar.setCompression(Jar.Compression.PARALLEL);
+		jar.setParallelism(2);
+
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		jar.write(bout);
+		ByteArrayOutputStream again = new ByteArrayOutputStream();
+		jar.write(again);
+		assertEquals(entries(bout.toByteArray()), entries(again.toByteArray()));
+
+		jar.setCompression(Jar.Compression.DEFLATE);
+		ByteArrayOutputStream serial = new ByteArrayOutputStream();
+		jar.write(serial);
+		assertTrue(bout.size() < serial.size() * 1.05);
+
+		JarInputStream jin = new JarInputStream(new ByteArrayInputStream(bout.toByteArray()));
+		assertNotNull(jin.getManifest());
+		jin.close();
+
+		File f = File.createTempFile("parallel", ".jar");
+		try {
+			IO.copy(new ByteArrayInputStream(bout.toByteArray()), f);
+			Jar other = new Jar(f);
+			assertTrue(other.getResources().keySet().containsAll(jar.getResources().keySet()));
+			for (String path : jar.getResources().keySet())
+				assertTrue(path, Arrays.equals(read(jar.getResource(path)), read(other.getResource(path))));
+			assertTrue(other.getDirectories().containsKey("b/c"));
+			other.close();
+		}
+		finally {
+			f.delete();
+		}
+	}
+
+	/**
+	 * Describe the entries of a ZIP without their time, the manifest and
+	 * directories are stamped with the current time.
+	 */
+	static List<String> entries(byte[] zip) throws Exception {
+		List<String> entries = new ArrayList<String>();
+		File f = File.createTempFile("entries", ".zip");
+		try {
+			IO.copy(new ByteArrayInputStream(zip), f);
+			ZipFile zf = new ZipFile(f);
+			try {
+				for (Enumeration< ? extends ZipEntry> e = zf.entries(); e.hasMoreElements();) {
+					ZipEntry entry = e.nextElement();
+					entries.add(entry.getName() + " " + entry.getMethod() + " " + entry.getCrc() + " "
+							+ entry.getSize() + " " + entry.getCompressedSize());
+				}
+			}
+			finally {
+				zf.close();
+			}
+		}
+		finally {
+			f.delete();
+		}
+		return entries;
+	}
+
+	static byte[] read(Resource r) throws Exception {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		IO.copy(r.openInputStream(), bout);
+		return bout.toByteArray();
+	}
 }
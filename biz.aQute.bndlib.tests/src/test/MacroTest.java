@@ -167,6 +167,55 @@ public class MacroTest extends TestCase {
 		assertTrue(macro.process("${system;wc;Hello World}").matches("\\s*[0-9]+\\s+[0-9]+\\s+[0-9]+\\s*"));
 	}
 
+	public static class Target {
+		int	calls;
+
+		public String _hello_world(String[] args) {
+			calls++;
+			return "hello " + args[1];
+		}
+	}
+
+	/**
+	 * Commands are looked up in the domain chain and then in the targets, a
+	 * dash in the name maps to an underscore in the method name.
+	 */
+	public static void testTargetCommands() throws Exception {
+		Target target = new Target();
+		Processor p = new Processor(new Processor());
+		Macro macro = new Macro(p, target);
+
+		assertEquals("hello world", macro.process("${hello-world;world}"));
+		assertEquals("hello world", macro.process("${hello_world;world}"));
+		assertEquals("a,b,c", macro.process("${join;a,b;c}"));
+		assertEquals("${no-such-command;x}", macro.process("${no-such-command;x}"));
+		assertEquals(2, target.calls);
+	}
+
+	/**
+	 * The compiled templates must give the same results as scanning the line
+	 * and must follow changes of the properties.
+	 */
+	public static void testTemplates() throws Exception {
+		Processor p = new Processor();
+		p.setProperty("k", "a");
+		p.setProperty("a", "${b}");
+		p.setProperty("b", "x");
+		Macro macro = p.getReplacer();
+
+		assertEquals("x", p.getProperty("a"));
+		assertEquals("[x]", macro.process("[${${k}}]"));
+		assertEquals("${a}", macro.process("\\${a}"));
+		assertEquals("foo", macro.process("${foo"));
+		assertEquals("x(y)", macro.process("${b}(y)"));
+		assertEquals(p.getBase().getAbsolutePath() + "/x", macro.process("./${b}"));
+
+		p.setProperty("b", "y");
+		assertEquals("y", p.getProperty("a"));
+		p.setProperty("a", "${b}${b}");
+		assertEquals("yy", p.getProperty("a"));
+	}
+
 	public static void testSystemFail() throws Exception {
 		Processor p = new Processor();
 		Macro macro = new Macro(p);
@@ -222,6 +222,58 @@ public class MavenTest extends TestCase {
 		assertEquals("com.springsource.org.apache.commons.beanutils-1.6.1.jar", file.getName());
 	}
 
+	/**
+	 * Test that a pom in the local repository is parsed once and then read
+	 * from its binary form
+	 */
+
+	public static void testPomCache() throws Exception {
+		File m2 = new File("tmp/m2");
+		IO.delete(m2);
+		try {
+			URI repo = IO.getFile(cwd, "test/ws/maven1/m2").toURI();
+			Maven maven = new Maven(null);
+			maven.setM2(m2);
+			CachedPom pom = maven.getPom("org.apache.commons", "com.springsource.org.apache.commons.beanutils",
+					"1.6.1", repo);
+			assertEquals("[org.apache.commons+com.springsource.org.apache.commons.collections-2.1.1, "
+					+ "org.apache.commons+com.springsource.org.apache.commons.logging-1.0.4]", coordinates(pom));
+			assertTrue(pom.getArtifact().isFile());
+
+			File parsed = new File(pom.getPomFile().getParentFile(), pom.getPomFile().getName() + ".parsed");
+			assertTrue(parsed.isFile());
+			parsed.setLastModified(1000);
+
+			maven = new Maven(null);
+			maven.setM2(m2);
+			pom = maven.getPom("org.apache.commons", "com.springsource.org.apache.commons.beanutils", "1.6.1", repo);
+			assertEquals("1.6.1", pom.getVersion());
+			assertEquals("[org.apache.commons+com.springsource.org.apache.commons.collections-2.1.1, "
+					+ "org.apache.commons+com.springsource.org.apache.commons.logging-1.0.4]", coordinates(pom));
+			assertEquals(1000, parsed.lastModified());
+
+			// A changed pom is parsed again
+			String content = IO.collect(pom.getPomFile());
+			IO.store(content.replace("<version>2.1.1</version>", "<version>2.1.2</version>"), pom.getPomFile());
+			maven = new Maven(null);
+			maven.setM2(m2);
+			pom = maven.getPom("org.apache.commons", "com.springsource.org.apache.commons.beanutils", "1.6.1", repo);
+			assertEquals("[org.apache.commons+com.springsource.org.apache.commons.collections-2.1.2, "
+					+ "org.apache.commons+com.springsource.org.apache.commons.logging-1.0.4]", coordinates(pom));
+			assertTrue(parsed.lastModified() != 1000);
+		}
+		finally {
+			IO.delete(m2);
+		}
+	}
+
+	static String coordinates(Pom pom) throws Exception {
+		List<String> result = new ArrayList<String>();
+		for (Dependency d : pom.getDependencies())
+			result.add(d.getGroupId() + "+" + d.getArtifactId() + "-" + d.getVersion());
+		return result.toString();
+	}
+
 	public static void testMavenx() throws Exception {
 		Maven maven = new Maven(null);
 		CachedPom pom = maven.getPom("javax.xml.bind", "com.springsource.javax.xml.bind", "2.2.0", new URI(
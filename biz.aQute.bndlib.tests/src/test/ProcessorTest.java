@@ -1,5 +1,7 @@
 package test;
 
+import java.util.*;
+
 import junit.framework.*;
 import aQute.bnd.osgi.*;
 
@@ -29,6 +31,76 @@ public class ProcessorTest extends TestCase {
 		assertEquals("", Processor.removeDuplicateMarker("~~~~~~~~~~~~~~"));
 	}
 
+	/**
+	 * Properties are looked up in the parents and follow changes anywhere in
+	 * the chain, also for wildcard keys.
+	 */
+	public static void testInheritedProperties() {
+		Processor top = new Processor();
+		Processor middle = new Processor(top);
+		Processor bottom = new Processor(middle);
+
+		top.setProperty("a.1", "top");
+		top.setProperty("a.2", "top");
+		middle.setProperty("a.2", "middle");
+		bottom.setProperty("b", "${a.2}");
+		assertEquals("top", bottom.getProperty("a.1"));
+		assertEquals("middle", bottom.getProperty("b"));
+		assertEquals("top,middle", bottom.getProperty("a.*"));
+		assertEquals("top,middle", bottom.getProperty("a*"));
+		assertEquals("x", bottom.getProperty("c*", "x"));
+
+		top.setProperty("a.0", "zero");
+		middle.getProperties().remove("a.2");
+		assertEquals("zero,top,top", bottom.getProperty("a.*"));
+		assertEquals("top", bottom.getProperty("b"));
+
+		bottom.setProperty("c.1", "c");
+		assertEquals("c", bottom.getProperty("c*", "x"));
+		assertEquals("zero,top,top,c", bottom.getProperty("a.*|c.*"));
+		assertNull(middle.getProperty("c.1"));
+	}
+
+	/**
+	 * A bulk change of the properties after a read must be visible
+	 */
+	public static void testSetPropertiesAfterRead() {
+		Processor top = new Processor();
+		Processor bottom = new Processor(top);
+		bottom.setProperty("a", "1");
+		assertEquals("1", bottom.getProperty("a"));
+		assertNull(bottom.getProperty("b"));
+
+		Properties p = new Properties();
+		p.setProperty("a", "2");
+		p.setProperty("b", "3");
+		bottom.setProperties(p);
+		assertEquals("2", bottom.getProperty("a"));
+		assertEquals("3", bottom.getProperty("b"));
+
+		Properties q = new Properties();
+		q.setProperty("c", "4");
+		top.setProperties(q);
+		assertEquals("4", bottom.getProperty("c"));
+	}
+
+	/**
+	 * A thread that is marked serial must not start pools of its own
+	 */
+	public static void testSerialThread() {
+		Processor p = new Processor();
+		p.setProperty(Constants.PARALLEL, "4");
+		assertEquals(4, p.getParallelism());
+		Processor.setSerial(true);
+		try {
+			assertEquals(1, p.getParallelism());
+		}
+		finally {
+			Processor.setSerial(false);
+		}
+		assertEquals(4, p.getParallelism());
+	}
+
 	public static void appendPathTest() throws Exception {
 		assertEquals("a/b/c", Processor.appendPath("", "a/b/c/"));
 		assertEquals("a/b/c", Processor.appendPath("", "/a/b/c"));
@@ -66,6 +66,31 @@ public class ProjectTest extends TestCase {
 		assertEquals(2, runbundles.size());
 	}
 
+	/**
+	 * Resolve the run bundles concurrently, the order must be the order of the
+	 * clauses
+	 */
+
+	public static void testParallelRunBundles() throws Exception {
+		Workspace ws = new Workspace(new File("test/ws"));
+		Project top = ws.getProject("p1");
+		String runbundles = "org.apache.felix.ipojo,org.apache.felix.configadmin;version='[1.1.0,1.1.0]',p2;version=project,org.apache.felix.configadmin;version='[1.0.1,1.0.1]',org.apache.felix.ipojo.arch,osgi.core;version=4.0";
+		top.setProperty("-runbundles", runbundles);
+		List<Container> serial = new ArrayList<Container>(top.getRunbundles());
+		assertTrue(top.check());
+		assertEquals(6, serial.size());
+
+		top.setProperty("-parallel", "4");
+		List<Container> parallel = new ArrayList<Container>(top.getRunbundles());
+		assertTrue(top.check());
+		assertEquals(serial.size(), parallel.size());
+		for (int i = 0; i < serial.size(); i++) {
+			assertEquals(serial.get(i).getBundleSymbolicName(), parallel.get(i).getBundleSymbolicName());
+			assertEquals(serial.get(i).getFile(), parallel.get(i).getFile());
+		}
+		assertEquals(Container.TYPE.PROJECT, parallel.get(2).getType());
+	}
+
 	/**
 	 * Duplicates in runbundles gave a bad error, should be ignored
 	 */
@@ -94,6 +119,8 @@ public class ProjectTest extends TestCase {
 		Project bottom = ws.getProject("p-stale-dep");
 		assertNotNull(bottom);
 		bottom.build();
+		noFingerprint(top);
+		noFingerprint(bottom);
 
 		long lastModified = bottom.lastModified();
 		top.getPropertiesFile().setLastModified(lastModified + 1000);
@@ -120,6 +147,156 @@ public class ProjectTest extends TestCase {
 		// assertFalse(bottom.isStale());
 	}
 
+	/**
+	 * Check the reasons of the staleness check, the outcome must follow the
+	 * time stamps of the build files.
+	 */
+
+	public static void testStaleReasons() throws Exception {
+		Workspace ws = Workspace.getWorkspace(new File("test/ws"));
+		ws.setOffline(false);
+		Project top = ws.getProject("p-stale");
+		top.build();
+		Project bottom = ws.getProject("p-stale-dep");
+		bottom.build();
+		noFingerprint(top);
+		noFingerprint(bottom);
+
+		stale(top, false);
+		stale(bottom, true);
+		assertTrue(bottom.getStaleReason().contains("older than the project properties"));
+		assertEquals("dependency p-stale-dep is stale", top.getStaleReason());
+
+		stale(bottom, false);
+		File bottomFile = bottom.getBuildFiles(false)[0];
+		top.getBuildFiles(false)[0].setLastModified(bottomFile.lastModified() + 1000);
+		assertNull(bottom.getStaleReason());
+		assertNull(top.getStaleReason());
+
+		bottomFile.setLastModified(bottomFile.lastModified() + 2000);
+		assertNull(bottom.getStaleReason());
+		assertTrue(top.getStaleReason().contains("of dependency p-stale-dep is newer"));
+
+		Map<Project,String> reasons = ws.getStaleness().getReasons(Arrays.asList(bottom, top));
+		assertTrue(reasons.containsKey(top));
+		assertFalse(reasons.containsKey(bottom));
+	}
+
+	/**
+	 * Check that a build is only stale when its fingerprint changes, not when
+	 * the files are touched.
+	 */
+
+	public static void testFingerprint() throws Exception {
+		Workspace ws = Workspace.getWorkspace(new File("test/ws"));
+		ws.setOffline(false);
+		Project top = ws.getProject("p-stale");
+		Project bottom = ws.getProject("p-stale-dep");
+		bottom.buildLocal(false);
+		top.buildLocal(false);
+		assertTrue(new File(top.getTarget(), Constants.BUILDFINGERPRINT).isFile());
+		assertTrue(new File(bottom.getTarget(), Constants.BUILDFINGERPRINT).isFile());
+		assertFalse(top.isStale());
+
+		// Touching the files does not make it stale
+		stale(top, true);
+		stale(bottom, true);
+		assertFalse(bottom.isStale());
+		assertFalse(top.isStale());
+
+		// Changing the output of the dependency does
+		File bin = bottom.getOutput();
+		bin.mkdirs();
+		File extra = new File(bin, "fingerprint.txt");
+		IO.store("changed", extra);
+		try {
+			assertEquals("the build inputs have changed", bottom.getStaleReason());
+			assertEquals("dependency p-stale-dep is stale", top.getStaleReason());
+		}
+		finally {
+			extra.delete();
+		}
+		assertNull(bottom.getStaleReason());
+		assertNull(top.getStaleReason());
+
+		// Changing a property does too
+		top.setProperty("fingerprint", "changed");
+		try {
+			assertTrue(top.isStale());
+		}
+		finally {
+			top.unsetProperty("fingerprint");
+		}
+		assertFalse(top.isStale());
+	}
+
+	/**
+	 * Check that the fingerprint covers the -sub files and the sources of the
+	 * included resources, and that it is absent when a resource is generated
+	 * by a command.
+	 */
+
+	public static void testFingerprintSubAndResources() throws Exception {
+		Workspace ws = Workspace.getWorkspace(new File("test/ws"));
+		Project top = ws.getProject("p-stale");
+		Staleness staleness = ws.getStaleness();
+		File sub = new File(top.getBase(), "fingerprint.bnd");
+		File resource = new File(top.getBase(), "fingerprint.txt");
+		try {
+			IO.store("Bundle-Version: 1", sub);
+			IO.store("a", resource);
+			top.setProperty(Constants.SUB, "fingerprint.bnd");
+			top.setProperty(Constants.INCLUDERESOURCE, "fingerprint.txt");
+			String first = staleness.getFingerprint(top);
+			assertNotNull(first);
+			assertEquals(first, staleness.getFingerprint(top));
+
+			IO.store("bb", resource);
+			String second = staleness.getFingerprint(top);
+			assertFalse(first.equals(second));
+
+			IO.store("Bundle-Version: 2", sub);
+			assertFalse(second.equals(staleness.getFingerprint(top)));
+
+			top.setProperty(Constants.INCLUDERESOURCE, "fingerprint.txt;cmd='echo a'");
+			assertNull(staleness.getFingerprint(top));
+		}
+		finally {
+			top.unsetProperty(Constants.SUB);
+			top.unsetProperty(Constants.INCLUDERESOURCE);
+			sub.delete();
+			resource.delete();
+		}
+	}
+
+	private static void noFingerprint(Project project) throws Exception {
+		new File(project.getTarget(), Constants.BUILDFINGERPRINT).delete();
+	}
+
+	/**
+	 * Build a project and its dependencies with the scheduler
+	 */
+
+	public static void testBuildScheduler() throws Exception {
+		Workspace ws = Workspace.getWorkspace(new File("test/ws"));
+		Project top = ws.getProject("p-stale");
+		Project bottom = ws.getProject("p-stale-dep");
+		BuildScheduler scheduler = new BuildScheduler(ws, 2);
+		assertTrue(scheduler.build(Arrays.asList(top), false));
+
+		List<BuildScheduler.Report> reports = new ArrayList<BuildScheduler.Report>(scheduler.getReports());
+		assertEquals(2, reports.size());
+		assertEquals(bottom, reports.get(0).project);
+		assertEquals(top, reports.get(1).project);
+		for (BuildScheduler.Report report : reports) {
+			assertEquals(BuildScheduler.Status.OK, report.status);
+			File file = new File(report.project.getTarget(), Constants.BUILDREPORT);
+			assertTrue(file.isFile());
+			assertTrue(IO.collect(file).startsWith("status: OK"));
+		}
+		assertNotNull(bottom.getFiles());
+	}
+
 	private static void stale(Project project, boolean b) throws Exception {
 		File file = project.getBuildFiles(false)[0];
 		if (b)
@@ -235,12 +412,20 @@ public class ProjectTest extends TestCase {
 
 			Thread.sleep(2000);
 
+			// Touching alone does not rebuild since the fingerprint is the
+			// same
 			project.updateModified(System.currentTimeMillis(), "Testing");
 			files = project.build();
 			assertEquals(1, files.length);
+			assertTrue(files[0].lastModified() == lastTime);
+
+			project.setProperty("Testing", "changed");
+			files = project.build();
+			assertEquals(1, files.length);
 			assertTrue("Must have newer files now", files[0].lastModified() > lastTime);
 		}
 		finally {
+			project.unsetProperty("Testing");
 			project.clean();
 		}
 	}
@@ -138,6 +138,49 @@ public class FileRepoTest extends TestCase {
 		}
 	}
 
+	public static void testIndex() throws Exception {
+		File tmp = new File("tmp");
+		delete(tmp);
+		try {
+			FileRepo repo = new FileRepo("tmp", tmp, true);
+			repo.put(IO.stream(new File("test/test.jar")), null);
+			assertEquals(Arrays.asList("test"), repo.list(null));
+			assertEquals(Arrays.asList(new Version("0")), new ArrayList<Version>(repo.versions("test")));
+
+			// A put updates the index
+			repo.put(IO.stream(getFile("jar/osgi.jar")), null);
+			assertEquals(Arrays.asList("osgi", "test"), repo.list(null));
+			assertEquals(Arrays.asList(new Version("4.0.0")), new ArrayList<Version>(repo.versions("osgi")));
+
+			// The index is served from memory while the directories have not
+			// changed
+			File dir = new File(tmp, "test");
+			long past = System.currentTimeMillis() - 100000;
+			dir.setLastModified(past);
+			tmp.setLastModified(past);
+			assertEquals(1, repo.versions("test").size());
+			copy(new File("test/test.jar"), new File(dir, "test-1.0.0.jar"));
+			dir.setLastModified(past);
+			assertEquals(1, repo.versions("test").size());
+
+			// A changed directory is listed again
+			dir.setLastModified(past + 1000);
+			assertEquals(2, repo.versions("test").size());
+
+			// A refresh forgets the index
+			copy(new File("test/test.jar"), new File(dir, "test-2.0.0.jar"));
+			dir.setLastModified(past + 1000);
+			assertEquals(2, repo.versions("test").size());
+			repo.refresh();
+			assertEquals(3, repo.versions("test").size());
+
+			assertEquals(0, repo.versions("XXXXXXXXXXXXXXXXX").size());
+		}
+		finally {
+			IO.delete(tmp);
+		}
+	}
+
 	public static void testDeployToNonexistentRepoFails() throws Exception {
 
 		if(System.getProperty("os.name").toLowerCase().indexOf("win") >= 0 ) {
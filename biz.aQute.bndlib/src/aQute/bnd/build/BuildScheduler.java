@@ -0,0 +1,243 @@
+package aQute.bnd.build;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import aQute.bnd.osgi.*;
+import aQute.lib.io.*;
+
+/**
+ * Builds a set of projects and their dependencies, projects that do not depend
+ * on each other are built concurrently. The dependency graph is taken from
+ * {@link Project#getDependson()}, a project is only started when all the
+ * projects it depends on are built successfully. After the first failure no
+ * new projects are started, the projects that are being built are finished.
+ * <p>
+ * For each project a report is written to the {@link Constants#BUILDREPORT}
+ * file in its target directory.
+ * <p>
+ * Projects are the unit of parallelism. A project is only built by one thread
+ * at a time, and the builds run with {@link Processor#setSerial(boolean)} so
+ * they do not start pools of their own. The projects share the workspace,
+ * which is used as follows:
+ * <ul>
+ * <li>The plugins and repositories of the workspace are created before the
+ * builds start. The plugin list is guarded by the workspace and the
+ * repositories are called concurrently.</li>
+ * <li>The properties are a Hashtable. The flattened view on them is immutable
+ * and is made while holding their lock. The macro templates are kept in a
+ * concurrent map.</li>
+ * <li>The error and warning lists of every processor are synchronized.</li>
+ * </ul>
+ * Changing the workspace, for example by building the cnf project or by
+ * editing build.bnd during the build, is not supported while a build runs.
+ */
+public class BuildScheduler {
+	public enum Status {
+		OK, FAILED, SKIPPED
+	}
+
+	/**
+	 * The outcome of building a project
+	 */
+	public static class Report {
+		public final Project	project;
+		public Status			status	= Status.SKIPPED;
+		public File[]			files;
+		public long				duration;
+		public List<String>		errors	= new ArrayList<String>();
+		public List<String>		warnings	= new ArrayList<String>();
+
+		Report(Project project) {
+			this.project = project;
+		}
+
+		@Override
+		public String toString() {
+			return project + " " + status;
+		}
+	}
+
+	final Workspace					workspace;
+	final int						threads;
+	final Map<Project,Report>		reports	= new LinkedHashMap<Project,Report>();
+
+	/**
+	 * Create a scheduler that uses at most the given nr of threads.
+	 */
+	public BuildScheduler(Workspace workspace, int threads) {
+		this.workspace = workspace;
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Create a scheduler with the nr of threads set by the
+	 * {@link Constants#PARALLEL} option of the workspace.
+	 */
+	public BuildScheduler(Workspace workspace) {
+		this(workspace, workspace.getParallelism());
+	}
+
+	/**
+	 * Build all the projects in the workspace.
+	 *
+	 * @param underTest
+	 *            build for testing
+	 * @return true if all projects were built without errors
+	 */
+	public boolean build(boolean underTest) throws Exception {
+		return build(workspace.getAllProjects(), underTest);
+	}
+
+	/**
+	 * Build the given projects and the projects they depend on.
+	 *
+	 * @param projects
+	 *            the projects to build
+	 * @param underTest
+	 *            build for testing
+	 * @return true if all projects were built without errors
+	 */
+	public boolean build(Collection<Project> projects, boolean underTest) throws Exception {
+		reports.clear();
+
+		// Calculate the graph serially, this prepares the projects so
+		// that the builds only read the prepared state.
+		Map<Project,Set<Project>> waitingFor = new LinkedHashMap<Project,Set<Project>>();
+		Map<Project,List<Project>> dependents = new HashMap<Project,List<Project>>();
+		for (Project project : projects)
+			addProject(project, waitingFor, dependents);
+
+		for (Project project : waitingFor.keySet())
+			reports.put(project, new Report(project));
+
+		// Create the shared plugins before the builds use them
+		workspace.getRepositories();
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		CompletionService<Report> completion = new ExecutorCompletionService<Report>(pool);
+		try {
+			int running = 0;
+			for (Map.Entry<Project,Set<Project>> entry : waitingFor.entrySet()) {
+				if (entry.getValue().isEmpty()) {
+					submit(completion, reports.get(entry.getKey()), underTest);
+					running++;
+				}
+			}
+
+			boolean failed = false;
+			while (running > 0) {
+				Report report = completion.take().get();
+				running--;
+				writeReport(report);
+
+				if (report.status != Status.OK) {
+					failed = true;
+					continue;
+				}
+				if (failed)
+					continue;
+
+				List<Project> waiting = dependents.get(report.project);
+				if (waiting == null)
+					continue;
+
+				for (Project dependent : waiting) {
+					Set<Project> deps = waitingFor.get(dependent);
+					deps.remove(report.project);
+					if (deps.isEmpty()) {
+						submit(completion, reports.get(dependent), underTest);
+						running++;
+					}
+				}
+			}
+
+			for (Report report : reports.values())
+				if (report.status == Status.SKIPPED)
+					writeReport(report);
+
+			return !failed;
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Answer the reports of the last build in the order the projects were
+	 * found.
+	 */
+	public Collection<Report> getReports() {
+		return reports.values();
+	}
+
+	private void addProject(Project project, Map<Project,Set<Project>> waitingFor,
+			Map<Project,List<Project>> dependents) throws Exception {
+		if (waitingFor.containsKey(project))
+			return;
+
+		Set<Project> deps = new LinkedHashSet<Project>(project.getDependson());
+		deps.remove(project);
+		for (Project dep : deps)
+			addProject(dep, waitingFor, dependents);
+
+		waitingFor.put(project, deps);
+		for (Project dep : deps) {
+			List<Project> list = dependents.get(dep);
+			if (list == null) {
+				list = new ArrayList<Project>();
+				dependents.put(dep, list);
+			}
+			list.add(project);
+		}
+	}
+
+	private void submit(CompletionService<Report> completion, final Report report, final boolean underTest) {
+		completion.submit(new Callable<Report>() {
+			public Report call() {
+				long start = System.currentTimeMillis();
+				Project project = report.project;
+				Processor.setSerial(true);
+				try {
+					report.files = project.build(underTest);
+				}
+				catch (Exception e) {
+					project.error("Building %s failed: %s", e, project, e);
+				}
+				finally {
+					Processor.setSerial(false);
+				}
+				report.duration = System.currentTimeMillis() - start;
+				report.errors.addAll(project.getErrors());
+				report.warnings.addAll(project.getWarnings());
+				report.status = report.errors.isEmpty() ? Status.OK : Status.FAILED;
+				return report;
+			}
+		});
+	}
+
+	private void writeReport(Report report) {
+		try {
+			File file = new File(report.project.getTarget(), Constants.BUILDREPORT);
+			Writer w = IO.writer(file);
+			try {
+				w.append("status: ").append(report.status.toString()).append("\n");
+				w.append("duration: ").append(Long.toString(report.duration)).append("\n");
+				if (report.files != null)
+					for (File f : report.files)
+						w.append("file: ").append(f.getAbsolutePath()).append("\n");
+				for (String error : report.errors)
+					w.append("error: ").append(error).append("\n");
+				for (String warning : report.warnings)
+					w.append("warning: ").append(warning).append("\n");
+			}
+			finally {
+				w.close();
+			}
+		}
+		catch (Exception e) {
+			workspace.warning("Cannot write build report for %s: %s", report.project, e);
+		}
+	}
+}
@@ -5,6 +5,7 @@ import java.lang.reflect.*;
 import java.net.*;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.*;
 import java.util.concurrent.locks.*;
 import java.util.jar.*;
 import java.util.regex.*;
@@ -22,9 +23,17 @@ import aQute.lib.io.*;
 import aQute.libg.generics.*;
 import aQute.libg.reporter.*;
 import aQute.libg.sed.*;
+import aQute.service.reporter.*;
 
 /**
- * This class is NOT threadsafe
+ * This class is NOT threadsafe, except for what is needed to build projects
+ * concurrently with the {@link BuildScheduler}. {@link #prepare()},
+ * {@link #build(boolean)}, {@link #buildLocal(boolean)},
+ * {@link #getBuildFiles(boolean)} and {@link #getFiles()} synchronize on the
+ * project, so a project can read the build files of a dependency that is built
+ * on another thread, and {@link #isStale()} uses the shared {@link Staleness}
+ * of the workspace. Changing the properties or paths of a project while it is
+ * built is not safe.
  */
 
 public class Project extends Processor {
@@ -403,6 +412,7 @@ public class Project extends Processor {
 		Parameters bundles = new Parameters(spec);
 
 		try {
+			Map<String,Future<RepositoryLookup>> pending = getBundlesAsync(strategyx, bundles);
 			for (Iterator<Entry<String,Attrs>> i = bundles.entrySet().iterator(); i.hasNext();) {
 				Entry<String,Attrs> entry = i.next();
 				String bsn = removeDuplicateMarker(entry.getKey());
@@ -438,7 +448,11 @@ public class Project extends Processor {
 							found = new Container(this, bsn, "file", Container.TYPE.EXTERNAL, f, error, attrs, null);
 						}
 					} else {
-						found = getBundle(bsn, versionRange, strategyx, attrs);
+						Future<RepositoryLookup> future = pending.get(entry.getKey());
+						if (future != null)
+							found = toContainer(getResolved(future));
+						else
+							found = getBundle(bsn, versionRange, strategyx, attrs);
 					}
 				}
 
@@ -471,6 +485,74 @@ public class Project extends Processor {
 		return result;
 	}
 
+	/**
+	 * Start the repository lookups of the clauses that are only resolved from
+	 * the repositories. The lookups run concurrently, bounded by the
+	 * {@link Constants#PARALLEL} option, so the round trips to remote
+	 * repositories overlap instead of adding up. Only the repositories are
+	 * called on the pool, the project turns the outcome into containers and
+	 * reports on the calling thread. Clauses that refer to projects or files
+	 * are resolved in order by the caller.
+	 * 
+	 * @return the pending lookups by clause key, empty when the lookups are
+	 *         not done in parallel
+	 */
+	private Map<String,Future<RepositoryLookup>> getBundlesAsync(Strategy strategy, Parameters bundles)
+			throws Exception {
+		Map<String,Future<RepositoryLookup>> pending = new HashMap<String,Future<RepositoryLookup>>();
+		int threads = getParallelism();
+		if (threads <= 1)
+			return pending;
+
+		List<RepositoryLookup> lookups = new ArrayList<RepositoryLookup>();
+		List<String> keys = new ArrayList<String>();
+		List<RepositoryPlugin> plugins = null;
+		for (Entry<String,Attrs> entry : bundles.entrySet()) {
+			Attrs attrs = entry.getValue();
+			String range = attrs.get("version");
+			if (range == null)
+				range = "0";
+			else if (range.equals("latest") || range.equals("snapshot") || range.equals("project")
+					|| range.equals("file"))
+				continue;
+
+			Strategy useStrategy = overrideStrategy(attrs, strategy);
+			if (useStrategy == Strategy.EXACT && !Verifier.isVersion(range))
+				continue;
+
+			if (plugins == null)
+				plugins = workspace.getRepositories();
+
+			keys.add(entry.getKey());
+			lookups.add(new RepositoryLookup(removeDuplicateMarker(entry.getKey()), range, useStrategy, attrs,
+					plugins, this));
+		}
+		if (lookups.size() < 2)
+			return pending;
+
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, lookups.size()));
+		try {
+			for (int i = 0; i < lookups.size(); i++)
+				pending.put(keys.get(i), pool.submit(lookups.get(i)));
+		}
+		finally {
+			// The submitted lookups still run
+			pool.shutdown();
+		}
+		return pending;
+	}
+
+	private RepositoryLookup getResolved(Future<RepositoryLookup> future) throws Exception {
+		try {
+			return future.get();
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw e;
+		}
+	}
+
 	/**
 	 * Just calls a new method with a default parm.
 	 * 
@@ -810,29 +892,63 @@ public class Project extends Processor {
 
 		List<RepositoryPlugin> plugins = workspace.getRepositories();
 
-		if (useStrategy == Strategy.EXACT) {
-			if (!Verifier.isVersion(range))
-				return new Container(this, bsn, range, Container.TYPE.ERROR, null, bsn + ";version=" + range
-						+ " Invalid version", null, null);
+		if (useStrategy == Strategy.EXACT && !Verifier.isVersion(range))
+			return new Container(this, bsn, range, Container.TYPE.ERROR, null, bsn + ";version=" + range
+					+ " Invalid version", null, null);
 
-			// For an exact range we just iterate over the repos
-			// and return the first we find.
-			Version version = new Version(range);
-			for (RepositoryPlugin plugin : plugins) {
-				DownloadBlocker blocker = new DownloadBlocker(this);
-				File result = plugin.get(bsn, version, attrs, blocker);
-				if (result != null)
-					return toContainer(bsn, range, attrs, result, blocker);
+		return toContainer(new RepositoryLookup(bsn, range, useStrategy, attrs, plugins, this).call());
+	}
+
+	/**
+	 * The repository part of finding a bundle. It only calls the repositories
+	 * so it can run on any thread, the outcome is turned into a container by
+	 * {@link Project#toContainer(RepositoryLookup)}. If an exact version is
+	 * required the first repository that has it is used, otherwise the
+	 * versions of all repositories are gathered and the strategy picks one.
+	 */
+	static class RepositoryLookup implements Callable<RepositoryLookup> {
+		final String					bsn;
+		final String					range;
+		final Strategy					strategy;
+		final Map<String,String>		attrs;
+		final List<RepositoryPlugin>	plugins;
+		final Reporter					reporter;
+
+		SortedMap<Version,RepositoryPlugin>	versions;
+		boolean							noProvider;
+		String							version;
+		File							file;
+		DownloadBlocker					blocker;
+
+		RepositoryLookup(String bsn, String range, Strategy strategy, Map<String,String> attrs,
+				List<RepositoryPlugin> plugins, Reporter reporter) {
+			this.bsn = bsn;
+			this.range = range;
+			this.strategy = strategy;
+			this.attrs = attrs;
+			this.plugins = plugins;
+			this.reporter = reporter;
+		}
+
+		public RepositoryLookup call() throws Exception {
+			if (strategy == Strategy.EXACT) {
+				// For an exact range we just iterate over the repos
+				// and return the first we find.
+				Version v = new Version(range);
+				for (RepositoryPlugin plugin : plugins) {
+					if (get(plugin, v, range))
+						return this;
+				}
+				return this;
 			}
-		} else {
+
 			VersionRange versionRange = "latest".equals(range) ? new VersionRange("0") : new VersionRange(range);
 
 			// We have a range search. Gather all the versions in all the repos
 			// and make a decision on that choice. If the same version is found
-			// in
-			// multiple repos we take the first
+			// in multiple repos we take the first
 
-			SortedMap<Version,RepositoryPlugin> versions = new TreeMap<Version,RepositoryPlugin>();
+			versions = new TreeMap<Version,RepositoryPlugin>();
 			for (RepositoryPlugin plugin : plugins) {
 				try {
 					SortedSet<Version> vs = plugin.versions(bsn);
@@ -849,15 +965,8 @@ public class Project extends Processor {
 					// The main reaosn for this code was the Maven Remote
 					// Repository
 					// To query, we must have a real version
-					if (!versions.isEmpty() && Verifier.isVersion(range)) {
-						Version version = new Version(range);
-						DownloadBlocker blocker = new DownloadBlocker(this);
-						File file = plugin.get(bsn, version, attrs, blocker);
-						// and the entry must exist
-						// if it does, return this as a result
-						if (file != null)
-							return toContainer(bsn, range, attrs, file, blocker);
-					}
+					if (!versions.isEmpty() && Verifier.isVersion(range) && get(plugin, new Version(range), range))
+						return this;
 				}
 			}
 
@@ -867,7 +976,7 @@ public class Project extends Processor {
 			if (!versions.isEmpty()) {
 				Version provider = null;
 
-				switch (useStrategy) {
+				switch (strategy) {
 					case HIGHEST :
 						provider = versions.lastKey();
 						break;
@@ -879,24 +988,43 @@ public class Project extends Processor {
 						// TODO need to handle exact better
 						break;
 				}
-				if (provider != null) {
-					RepositoryPlugin repo = versions.get(provider);
-					String version = provider.toString();
-					DownloadBlocker blocker = new DownloadBlocker(this);
-					File result = repo.get(bsn, provider, attrs, blocker);
-					if (result != null)
-						return toContainer(bsn, version, attrs, result, blocker);
-				} else
-					msgs.FoundVersions_ForStrategy_ButNoProvider(versions, useStrategy);
+				if (provider != null)
+					get(versions.get(provider), provider, provider.toString());
+				else
+					noProvider = true;
 			}
+			return this;
 		}
 
+		private boolean get(RepositoryPlugin plugin, Version v, String version) throws Exception {
+			DownloadBlocker blocker = new DownloadBlocker(reporter);
+			File result = plugin.get(bsn, v, attrs, blocker);
+			if (result == null)
+				return false;
+
+			this.file = result;
+			this.version = version;
+			this.blocker = blocker;
+			return true;
+		}
+	}
+
+	/**
+	 * Turn the outcome of a repository lookup into a container, reporting on
+	 * this project.
+	 */
+	Container toContainer(RepositoryLookup lookup) {
+		if (lookup.file != null)
+			return toContainer(lookup.bsn, lookup.version, lookup.attrs, lookup.file, lookup.blocker);
+
+		if (lookup.noProvider)
+			msgs.FoundVersions_ForStrategy_ButNoProvider(lookup.versions, lookup.strategy);
+
 		//
 		// If we get this far we ran into an error somewhere
 
-		return new Container(this, bsn, range, Container.TYPE.ERROR, null, bsn + ";version=" + range + " Not found in "
-				+ plugins, null, null);
-
+		return new Container(this, lookup.bsn, lookup.range, Container.TYPE.ERROR, null, lookup.bsn + ";version="
+				+ lookup.range + " Not found in " + lookup.plugins, null, null);
 	}
 
 	/**
@@ -1119,7 +1247,7 @@ public class Project extends Processor {
 	 * @return
 	 * @throws Exception
 	 */
-	public File[] build(boolean underTest) throws Exception {
+	public synchronized File[] build(boolean underTest) throws Exception {
 		if (isNoBundles())
 			return null;
 
@@ -1129,7 +1257,7 @@ public class Project extends Processor {
 		}
 
 		if (isStale()) {
-			trace("building " + this);
+			trace("building %s: %s", this, getStaleReason());
 			files = buildLocal(underTest);
 		}
 
@@ -1140,12 +1268,12 @@ public class Project extends Processor {
 	 * Return the files
 	 */
 
-	public File[] getFiles() {
+	public synchronized File[] getFiles() {
 		return files;
 	}
 
 	/**
-	 * Check if this project needs building. This is defined as:
+	 * Check if this project needs building, see {@link Staleness}.
 	 */
 	public boolean isStale() throws Exception {
 		if (workspace.isOffline()) {
@@ -1153,54 +1281,19 @@ public class Project extends Processor {
 			return true;
 		}
 
-		Set<Project> visited = new HashSet<Project>();
-		return isStale(visited);
+		return workspace.getStaleness().isStale(this);
 	}
 
-	boolean isStale(Set<Project> visited) throws Exception {
-		// When we do not generate anything ...
-		if (isNoBundles())
-			return false;
-
-		if (visited.contains(this)) {
-			msgs.CircularDependencyContext_Message_(this.getName(), visited.toString());
-			return false;
-		}
-
-		visited.add(this);
-
-		long buildTime = 0;
-
-		files = getBuildFiles(false);
-		if (files == null)
-			return true;
-
-		for (File f : files) {
-			if (f.lastModified() < lastModified())
-				return true;
-
-			if (buildTime < f.lastModified())
-				buildTime = f.lastModified();
-		}
-
-		for (Project dependency : getDependson()) {
-			if (dependency == this)
-				continue;
-
-			if (dependency.isStale())
-				return true;
-
-			if (dependency.isNoBundles())
-				continue;
-
-			File[] deps = dependency.getBuildFiles();
-			for (File f : deps) {
-				if (f.lastModified() >= buildTime)
-					return true;
-			}
-		}
+	/**
+	 * Answer why this project needs building.
+	 * 
+	 * @return the reason or null if the project is up to date
+	 */
+	public String getStaleReason() throws Exception {
+		if (workspace.isOffline())
+			return "working offline";
 
-		return false;
+		return workspace.getStaleness().getReason(this);
 	}
 
 	/**
@@ -1216,7 +1309,7 @@ public class Project extends Processor {
 		return getBuildFiles(true);
 	}
 
-	public File[] getBuildFiles(boolean buildIfAbsent) throws Exception {
+	public synchronized File[] getBuildFiles(boolean buildIfAbsent) throws Exception {
 		if (files != null)
 			return files;
 
@@ -1259,7 +1352,7 @@ public class Project extends Processor {
 	 * @return
 	 * @throws Exception
 	 */
-	public File[] buildLocal(boolean underTest) throws Exception {
+	public synchronized File[] buildLocal(boolean underTest) throws Exception {
 		if (isNoBundles())
 			return null;
 
@@ -1267,6 +1360,10 @@ public class Project extends Processor {
 		bfs.delete();
 
 		files = null;
+
+		// The inputs must be fingerprinted before the build changes them
+		Staleness staleness = workspace.getStaleness();
+		String fingerprint = staleness.getFingerprint(this);
 		ProjectBuilder builder = getBuilder(null);
 		try {
 			if (underTest)
@@ -1297,8 +1394,11 @@ public class Project extends Processor {
 					fw.close();
 				}
 				getWorkspace().changedFile(bfs);
+
+				staleness.saveFingerprint(this, fingerprint);
 				return files;
 			}
+			staleness.saveFingerprint(this, null);
 			return null;
 		}
 		finally {
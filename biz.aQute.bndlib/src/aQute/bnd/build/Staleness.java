@@ -0,0 +1,467 @@
+package aQute.bnd.build;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import aQute.bnd.header.*;
+import aQute.bnd.osgi.*;
+import aQute.lib.io.*;
+import aQute.libg.cryptography.*;
+
+/**
+ * Decides for the projects of a workspace if they need to be built. A project
+ * is stale when it has no build files, when a build file is older than the
+ * project's properties, when a project it depends on is stale or when a build
+ * file of a project it depends on is newer than its own build files.
+ * <p>
+ * When the last build left a fingerprint of its inputs in the
+ * {@link Constants#BUILDFINGERPRINT} file, the fingerprint replaces the time
+ * stamps. The project is then only stale when a project it depends on is
+ * stale or when the fingerprint has changed. This makes sure that touching the
+ * files, for example with a checkout, does not cause a rebuild.
+ * <p>
+ * Each check visits a project at most once. The outcome is remembered with
+ * the time stamps of the files it was based on, the next check only looks at
+ * these time stamps and the outcome of the dependencies instead of evaluating
+ * the project again. For a fingerprint these are all the files that went into
+ * it, the properties are compared by their digest since they can be changed
+ * without touching a file.
+ */
+public class Staleness {
+	final Map<Project,Entry>	entries	= new ConcurrentHashMap<Project,Entry>();
+	final Map<File,FileDigest>	digests	= new ConcurrentHashMap<File,FileDigest>();
+
+	/**
+	 * The digest of a file, valid as long as the file is not modified
+	 */
+	static class FileDigest {
+		final long		length;
+		final long		lastModified;
+		final String	digest;
+
+		FileDigest(File file) throws Exception {
+			this.length = file.length();
+			this.lastModified = file.lastModified();
+			this.digest = SHA1.digest(file).asHex();
+		}
+
+		boolean isValid(File file) {
+			return file.length() == length && file.lastModified() == lastModified;
+		}
+	}
+
+	/**
+	 * The outcome for a project and the files it depends on
+	 */
+	static class Entry {
+		final long					lastModified;
+		final File[]				files;
+		final long[]				modified;
+		final Map<Project,Boolean>	dependencies	= new LinkedHashMap<Project,Boolean>();
+		final List<File>			inputs			= new ArrayList<File>();
+		final List<Long>			timestamps		= new ArrayList<Long>();
+		final List<Long>			lengths			= new ArrayList<Long>();
+		String						reason;
+		String						properties;
+		String						fingerprint;
+
+		Entry(Project project, File[] files) {
+			this.lastModified = project.lastModified();
+			this.files = files;
+			this.modified = new long[files == null ? 0 : files.length];
+			for (int i = 0; i < modified.length; i++)
+				modified[i] = files[i].lastModified();
+		}
+
+		boolean isStale() {
+			return reason != null;
+		}
+
+		void input(File f) {
+			inputs.add(f);
+			timestamps.add(f.lastModified());
+			lengths.add(f.length());
+		}
+
+		/**
+		 * Answer true if the properties and the files this entry is based on
+		 * have not changed.
+		 */
+		boolean isCurrent(Project project) throws Exception {
+			if (lastModified != project.lastModified())
+				return false;
+
+			if (properties != null && !properties.equals(getProperties(project)))
+				return false;
+
+			for (int i = 0; i < inputs.size(); i++) {
+				File f = inputs.get(i);
+				if (f.lastModified() != timestamps.get(i) || f.length() != lengths.get(i))
+					return false;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * The state of a single check, it makes sure a project is only visited
+	 * once.
+	 */
+	class Check {
+		final Map<Project,Entry>	done		= new HashMap<Project,Entry>();
+		final Set<Project>			visiting	= new LinkedHashSet<Project>();
+
+		Entry check(Project project) throws Exception {
+			Entry entry = done.get(project);
+			if (entry != null)
+				return entry;
+
+			if (visiting.contains(project)) {
+				project.msgs.CircularDependencyContext_Message_(project.getName(), visiting.toString());
+				return null;
+			}
+
+			visiting.add(project);
+			try {
+				entry = entries.get(project);
+				if (entry == null || !isValid(project, entry))
+					entry = evaluate(project);
+
+				entries.put(project, entry);
+				done.put(project, entry);
+				return entry;
+			}
+			finally {
+				visiting.remove(project);
+			}
+		}
+
+		private boolean isValid(Project project, Entry entry) throws Exception {
+			if (!entry.isCurrent(project))
+				return false;
+
+			File[] files = project.getBuildFiles(false);
+			if (!Arrays.equals(files, entry.files))
+				return false;
+
+			for (int i = 0; i < entry.modified.length; i++)
+				if (entry.files[i].lastModified() != entry.modified[i])
+					return false;
+
+			for (Map.Entry<Project,Boolean> dependency : entry.dependencies.entrySet()) {
+				Entry e = check(dependency.getKey());
+				if (e == null || e.isStale() != dependency.getValue())
+					return false;
+			}
+			return true;
+		}
+
+		private Entry evaluate(Project project) throws Exception {
+			// When we do not generate anything ...
+			if (project.isNoBundles())
+				return new Entry(project, null);
+
+			File[] files = project.getBuildFiles(false);
+			Entry entry = new Entry(project, files);
+			if (files == null) {
+				entry.reason = "no build files";
+				return entry;
+			}
+
+			File fingerprint = new File(project.getTarget(), Constants.BUILDFINGERPRINT);
+			entry.input(fingerprint);
+			if (fingerprint.isFile())
+				return evaluate(project, entry, IO.collect(fingerprint).trim());
+
+			long buildTime = 0;
+			for (File f : files) {
+				if (f.lastModified() < project.lastModified()) {
+					entry.reason = String.format("%s is older than the project properties", f.getName());
+					return entry;
+				}
+
+				if (buildTime < f.lastModified())
+					buildTime = f.lastModified();
+			}
+
+			for (Project dependency : project.getDependson()) {
+				if (dependency == project)
+					continue;
+
+				Entry d = check(dependency);
+				boolean stale = d != null && d.isStale();
+				entry.dependencies.put(dependency, stale);
+				if (stale) {
+					entry.reason = String.format("dependency %s is stale", dependency);
+					return entry;
+				}
+
+				if (dependency.isNoBundles())
+					continue;
+
+				File[] deps = dependency.getBuildFiles();
+				for (File f : deps) {
+					entry.input(f);
+					if (f.lastModified() >= buildTime) {
+						entry.reason = String.format("%s of dependency %s is newer than the build", f.getName(),
+								dependency);
+						return entry;
+					}
+				}
+			}
+			return entry;
+		}
+
+		private Entry evaluate(Project project, Entry entry, String fingerprint) throws Exception {
+			for (Project dependency : project.getDependson()) {
+				if (dependency == project)
+					continue;
+
+				Entry d = check(dependency);
+				boolean stale = d != null && d.isStale();
+				entry.dependencies.put(dependency, stale);
+				if (stale) {
+					entry.reason = String.format("dependency %s is stale", dependency);
+					return entry;
+				}
+			}
+
+			entry.fingerprint = fingerprint(project, entry);
+			if (!fingerprint.equals(entry.fingerprint))
+				entry.reason = "the build inputs have changed";
+			return entry;
+		}
+	}
+
+	/**
+	 * Answer the fingerprint of the inputs of a build of the project. It
+	 * covers the properties of the project and its -sub files, the files on
+	 * the build path, the sources of the included resources and the files in
+	 * the output directory. The properties are not expanded since macros like
+	 * ${tstamp} would make every fingerprint different.
+	 * <p>
+	 * The fingerprint calculated by the last check is used as long as its
+	 * inputs have not changed.
+	 * 
+	 * @return the fingerprint or null when the inputs cannot be fingerprinted,
+	 *         for example when a resource is the output of a command
+	 */
+	public String getFingerprint(Project project) throws Exception {
+		Entry entry = entries.get(project);
+		if (entry != null && entry.fingerprint != null && entry.isCurrent(project))
+			return entry.fingerprint;
+
+		return fingerprint(project, new Entry(project, null));
+	}
+
+	/**
+	 * Calculate the fingerprint, the files it is based on are added to the
+	 * inputs of the entry.
+	 */
+	private String fingerprint(Project project, Entry entry) throws Exception {
+		Digester<SHA1> digester = SHA1.getDigester();
+		PrintWriter pw = new PrintWriter(new OutputStreamWriter(digester, "UTF-8"));
+
+		entry.properties = getProperties(project);
+		pw.printf("properties %s%n", entry.properties);
+
+		ProjectBuilder builder = project.getBuilder(null);
+		try {
+			for (Builder sub : builder.getSubBuilders()) {
+				if (sub != builder) {
+					entry.input(sub.getPropertiesFile());
+					pw.printf("sub %s%n", sub.getPropertiesFile().getName());
+					for (String key : new TreeSet<String>(sub.getPropertyKeys(false)))
+						pw.printf("property %s=%s%n", key, sub.getUnprocessedProperty(key, ""));
+				}
+				if (!fingerprint(pw, entry, sub))
+					return null;
+			}
+		}
+		finally {
+			builder.close();
+		}
+
+		for (Container c : project.getBuildpath())
+			fingerprint(pw, entry, project, c);
+
+		File output = project.getOutput();
+		fingerprint(pw, entry, "output", output, output.getAbsolutePath().length());
+
+		pw.close();
+		return digester.digest().asHex();
+	}
+
+	/**
+	 * Answer the digest of the unexpanded properties of the project.
+	 */
+	static String getProperties(Project project) throws Exception {
+		Digester<SHA1> digester = SHA1.getDigester();
+		PrintWriter pw = new PrintWriter(new OutputStreamWriter(digester, "UTF-8"));
+		for (String key : new TreeSet<String>(project.getPropertyKeys(true)))
+			pw.printf("property %s=%s%n", key, project.getUnprocessedProperty(key, ""));
+		pw.close();
+		return digester.digest().asHex();
+	}
+
+	/**
+	 * Add the sources of the included resources of a builder, the clauses are
+	 * interpreted like the builder does.
+	 * 
+	 * @return false if a clause has a source that cannot be fingerprinted
+	 */
+	private boolean fingerprint(PrintWriter pw, Entry entry, Builder builder) throws Exception {
+		String includes = builder.getProperty("Bundle-Includes");
+		if (includes == null) {
+			includes = builder.getProperty(Constants.INCLUDERESOURCE);
+			if (includes == null || includes.length() == 0)
+				includes = builder.getProperty(Constants.INCLUDE_RESOURCE);
+		}
+		if (includes == null)
+			return true;
+
+		for (Map.Entry<String,Attrs> clause : builder.parseHeader(includes).entrySet()) {
+			if (clause.getValue().containsKey("cmd"))
+				return false;
+			if (clause.getValue().containsKey(Constants.LITERAL_ATTRIBUTE))
+				continue;
+
+			String name = Processor.removeDuplicateMarker(clause.getKey());
+			if (name.startsWith("{") && name.endsWith("}"))
+				name = name.substring(1, name.length() - 1).trim();
+
+			String parts[] = name.split("\\s*=\\s*");
+			String source = parts.length == 2 ? parts[1] : parts[0];
+			if (source.startsWith("-"))
+				source = source.substring(1);
+			if (source.startsWith("@")) {
+				source = source.substring(1);
+				int n = source.indexOf("!/");
+				if (n >= 0)
+					source = source.substring(0, n);
+			}
+
+			File f = builder.getFile(source);
+			if (f.exists())
+				fingerprint(pw, entry, "resource", f, 0);
+			else {
+				entry.input(f);
+				pw.printf("resource %s absent%n", f.getAbsolutePath());
+			}
+		}
+		return true;
+	}
+
+	private void fingerprint(PrintWriter pw, Entry entry, Project project, Container c) throws Exception {
+		switch (c.getType()) {
+			case PROJECT :
+				// Our own output directory is added below, the build files
+				// are what we are about to build
+				if (c.getProject() == project)
+					break;
+
+				entry.input(new File(c.getProject().getTarget(), Constants.BUILDFILES));
+				File[] files = c.getProject().getBuildFiles(false);
+				if (files == null)
+					pw.printf("project %s absent%n", c.getProject());
+				else
+					for (File f : files) {
+						entry.input(f);
+						pw.printf("project %s %s%n", f.getName(), digest(f));
+					}
+				break;
+
+			case LIBRARY :
+				for (Container member : c.getMembers())
+					fingerprint(pw, entry, project, member);
+				break;
+
+			default :
+				File f = c.getFile();
+				entry.input(f);
+				pw.printf("container %s %s%n", f.getAbsolutePath(), f.isFile() ? digest(f) : "absent");
+				break;
+		}
+	}
+
+	private void fingerprint(PrintWriter pw, Entry entry, String kind, File file, int prefix) throws Exception {
+		// The time stamp of a directory changes when files are added or removed
+		entry.input(file);
+		if (file.isDirectory()) {
+			String[] names = file.list();
+			if (names == null)
+				return;
+			Arrays.sort(names);
+			for (String name : names)
+				fingerprint(pw, entry, kind, new File(file, name), prefix);
+		} else if (file.isFile())
+			pw.printf("%s %s %s%n", kind, file.getAbsolutePath().substring(prefix), digest(file));
+	}
+
+	/**
+	 * Digest a file, the digest is only calculated again when the file has
+	 * changed in length or time stamp.
+	 */
+	private String digest(File f) throws Exception {
+		FileDigest d = digests.get(f);
+		if (d == null || !d.isValid(f)) {
+			d = new FileDigest(f);
+			digests.put(f, d);
+		}
+		return d.digest;
+	}
+
+	/**
+	 * Remember the fingerprint of the inputs for the next build. The
+	 * fingerprint must be calculated before the build.
+	 */
+	void saveFingerprint(Project project, String fingerprint) throws Exception {
+		File file = new File(project.getTarget(), Constants.BUILDFINGERPRINT);
+		if (fingerprint == null)
+			file.delete();
+		else
+			IO.store(fingerprint, file);
+		entries.remove(project);
+	}
+
+	/**
+	 * Answer true if the project needs to be built.
+	 */
+	public boolean isStale(Project project) throws Exception {
+		Entry entry = new Check().check(project);
+		return entry != null && entry.isStale();
+	}
+
+	/**
+	 * Answer why the project needs to be built.
+	 *
+	 * @return the reason or null if the project is up to date
+	 */
+	public String getReason(Project project) throws Exception {
+		Entry entry = new Check().check(project);
+		return entry == null ? null : entry.reason;
+	}
+
+	/**
+	 * Answer the reasons to build for all the stale projects in the
+	 * workspace, in build order. All projects are checked in a single pass.
+	 */
+	public Map<Project,String> getReasons(Collection<Project> projects) throws Exception {
+		Map<Project,String> reasons = new LinkedHashMap<Project,String>();
+		Check check = new Check();
+		for (Project project : projects) {
+			Entry entry = check.check(project);
+			if (entry != null && entry.isStale())
+				reasons.put(project, entry.reason);
+		}
+		return reasons;
+	}
+
+	/**
+	 * Forget the outcome for all projects.
+	 */
+	public void clear() {
+		entries.clear();
+	}
+}
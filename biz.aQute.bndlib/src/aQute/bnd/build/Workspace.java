@@ -33,6 +33,7 @@ public class Workspace extends Processor {
 	final Maven									maven		= new Maven(Processor.getExecutor());
 	private boolean								offline		= true;
 	Settings									settings	= new Settings();
+	final Staleness								staleness	= new Staleness();
 
 	/**
 	 * This static method finds the workspace and creates a project (or returns
@@ -132,6 +133,7 @@ public class Workspace extends Processor {
 	@Override
 	public boolean refresh() {
 		if (super.refresh()) {
+			staleness.clear();
 			for (Project project : getCurrentProjects()) {
 				project.propertiesChanged();
 			}
@@ -371,11 +373,21 @@ public class Workspace extends Processor {
 		return maven;
 	}
 
+	/**
+	 * Answer the staleness check of the projects in this workspace, it
+	 * remembers the outcome for the projects across builds.
+	 */
+	public Staleness getStaleness() {
+		return staleness;
+	}
+
 	@Override
 	protected void setTypeSpecificPlugins(Set<Object> list) {
 		super.setTypeSpecificPlugins(list);
 		list.add(maven);
 		list.add(new CachedFileRepo());
+		if (isTrue(getProperty(CLASSCACHE)))
+			list.add(new ClassCache(getFile(buildDir, CACHEDIR + "/classes")));
 	}
 
 	/**
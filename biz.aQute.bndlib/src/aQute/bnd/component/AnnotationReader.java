@@ -60,13 +60,27 @@ public class AnnotationReader extends ClassDataCollector {
 	}
 
 	public static ComponentDef getDefinition(Clazz c, Analyzer analyzer) throws Exception {
+		AnnotationReader r = create(c, analyzer);
+		c.parseClassFileWithCollector(r);
+		return r.finish();
+	}
+
+	/**
+	 * Create a reader for the class. The reader must be given the events of
+	 * the class before {@link #finish()} is called.
+	 */
+	static AnnotationReader create(Clazz c, Analyzer analyzer) {
 		boolean inherit = Processor.isTrue(analyzer.getProperty("-dsannotations-inherit"));
-		AnnotationReader r = new AnnotationReader(analyzer, c, inherit);
-		return r.getDef();
+		return new AnnotationReader(analyzer, c, inherit);
 	}
 
-	private ComponentDef getDef() throws Exception {
-		clazz.parseClassFileWithCollector(this);
+	/**
+	 * Complete the definition after the class has been parsed, this parses
+	 * the super classes when inheritance is enabled.
+	 * 
+	 * @return the definition or null if the class is not a component
+	 */
+	ComponentDef finish() throws Exception {
 		if (component.implementation == null)
 			return null;
 
@@ -8,8 +8,45 @@ import aQute.bnd.service.*;
 
 /**
  * Analyze the class space for any classes that have an OSGi annotation for DS.
+ * The classes are parsed in the single pass of the analyzer over the class
+ * space, see {@link ClassParser}.
  */
-public class DSAnnotations implements AnalyzerPlugin {
+public class DSAnnotations implements AnalyzerPlugin, ClassParser {
+
+	/*
+	 * This plugin is shared between analyzers, it only caches the parsed
+	 * instructions of the last header.
+	 */
+	private volatile Selection	last;
+
+	static class Selection {
+		final String		header;
+		final Instructions	instructions;
+
+		Selection(String header) {
+			this.header = header;
+			this.instructions = new Instructions(OSGiHeader.parseHeader(header));
+		}
+	}
+
+	public ClassDataCollector getClassDataCollector(Analyzer analyzer, Clazz clazz) {
+		String header = analyzer.getProperty(Constants.DSANNOTATIONS);
+		if (header == null || header.trim().length() == 0)
+			return null;
+
+		Selection selection = last;
+		if (selection == null || !selection.header.equals(header))
+			last = selection = new Selection(header);
+
+		for (Instruction instruction : selection.instructions.keySet()) {
+			if (instruction.matches(clazz.getFQN())) {
+				if (instruction.isNegated())
+					return null;
+				return AnnotationReader.create(clazz, analyzer);
+			}
+		}
+		return null;
+	}
 
 	public boolean analyzeJar(Analyzer analyzer) throws Exception {
 		Parameters header = OSGiHeader.parseHeader(analyzer.getProperty(Constants.DSANNOTATIONS));
@@ -24,12 +61,18 @@ public class DSAnnotations implements AnalyzerPlugin {
 			names.add(sc);
 
 		for (Clazz c: list) {
+			AnnotationReader reader = (AnnotationReader) analyzer.getClassDataCollector(this, c);
 			for (Instruction instruction : instructions.keySet()) {
 
 				if (instruction.matches(c.getFQN())) {
 					if (instruction.isNegated())
 						break;
-					ComponentDef definition = AnnotationReader.getDefinition(c, analyzer);
+					ComponentDef definition;
+					if (reader != null) {
+						definition = reader.finish();
+						reader = null;
+					} else
+						definition = AnnotationReader.getDefinition(c, analyzer);
 					if (definition != null) {
 						definition.sortReferences();
 						definition.prepare(analyzer);
@@ -20,11 +20,28 @@ import aQute.lib.tag.*;
  * not, the header is copied to the output, if it does, an XML file is created
  * and added to the JAR and the header is modified appropriately.
  */
-public class ServiceComponent implements AnalyzerPlugin {
+public class ServiceComponent implements AnalyzerPlugin, ClassParser {
+	final static Instruction	COMPONENT	= new Instruction(Component.class.getName());
+
+	/**
+	 * Collect the bnd component annotations of the annotated classes in the
+	 * single pass over the class space, only when there is a
+	 * Service-Component header.
+	 */
+	public ClassDataCollector getClassDataCollector(Analyzer analyzer, Clazz clazz) throws Exception {
+		String header = analyzer.getProperty(Constants.SERVICE_COMPONENT);
+		if (header == null || header.trim().length() == 0)
+			return null;
+
+		if (!clazz.is(QUERY.ANNOTATED, COMPONENT, analyzer))
+			return null;
+
+		return new ComponentAnnotationReader(clazz);
+	}
 
 	public boolean analyzeJar(Analyzer analyzer) throws Exception {
 
-		ComponentMaker m = new ComponentMaker(analyzer);
+		ComponentMaker m = new ComponentMaker(analyzer, this);
 
 		Map<String,Map<String,String>> l = m.doServiceComponent();
 
@@ -37,11 +54,14 @@ public class ServiceComponent implements AnalyzerPlugin {
 	}
 
 	private static class ComponentMaker extends Processor {
-		Analyzer	analyzer;
+		Analyzer							analyzer;
+		ClassParser							parser;
+		Set<ComponentAnnotationReader>		collected	= new HashSet<ComponentAnnotationReader>();
 
-		ComponentMaker(Analyzer analyzer) {
+		ComponentMaker(Analyzer analyzer, ClassParser parser) {
 			super(analyzer);
 			this.analyzer = analyzer;
+			this.parser = parser;
 		}
 
 		/**
@@ -189,8 +209,16 @@ public class ServiceComponent implements AnalyzerPlugin {
 
 		void annotated(Map<String,Map<String,String>> components, Clazz c, Map<String,String> info) throws Exception {
 			// Get the component definition
-			// from the annotations
-			Map<String,String> map = ComponentAnnotationReader.getDefinition(c, this);
+			// from the annotations, the reader from the single pass over the
+			// class space can only be used once
+			Map<String,String> map;
+			ComponentAnnotationReader r = (ComponentAnnotationReader) analyzer.getClassDataCollector(parser, c);
+			if (r != null && collected.add(r)) {
+				r.finish();
+				getInfo(r.getReporter());
+				map = r.map;
+			} else
+				map = ComponentAnnotationReader.getDefinition(c, this);
 
 			// Pick the name, the annotation can override
 			// the name.
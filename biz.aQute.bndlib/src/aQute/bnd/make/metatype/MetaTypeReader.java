@@ -27,6 +27,7 @@ public class MetaTypeReader extends WriteResource {
 
 	// One time init
 	boolean					finished;
+	boolean					collecting;
 
 	// Designate
 	boolean					override;
@@ -208,8 +209,22 @@ public class MetaTypeReader extends WriteResource {
 			return Meta.Type.String;
 	}
 
+	/**
+	 * Answer a collector that gathers the meta type annotations of the class
+	 * so the class does not have to be parsed again when the resource is
+	 * written. The collector must receive all the events of the class.
+	 */
+	ClassDataCollector getCollector() {
+		collecting = true;
+		return new Find();
+	}
+
 	class Find extends ClassDataCollector {
 
+		MetaTypeReader getReader() {
+			return MetaTypeReader.this;
+		}
+
 		@Override
 		public void method(MethodDef mdef) {
 			method = mdef;
@@ -254,7 +269,8 @@ public class MetaTypeReader extends WriteResource {
 	void finish() throws Exception {
 		if (!finished) {
 			finished = true;
-			clazz.parseClassFileWithCollector(new Find());
+			if (!collecting)
+				clazz.parseClassFileWithCollector(new Find());
 			Meta.OCD ocd = null;
 			if (this.ocdAnnotation != null)
 				ocd = this.ocdAnnotation.getAnnotation(Meta.OCD.class);
@@ -13,7 +13,19 @@ import aQute.bnd.service.*;
  * 
  * @author aqute
  */
-public class MetatypePlugin implements AnalyzerPlugin {
+public class MetatypePlugin implements AnalyzerPlugin, ClassParser {
+	final static Instruction	OCD	= new Instruction(Meta.OCD.class.getName());
+
+	public ClassDataCollector getClassDataCollector(Analyzer analyzer, Clazz clazz) throws Exception {
+		String header = analyzer.getProperty(Constants.METATYPE);
+		if (header == null || header.trim().length() == 0)
+			return null;
+
+		if (!clazz.is(QUERY.ANNOTATED, OCD, analyzer))
+			return null;
+
+		return new MetaTypeReader(clazz, analyzer).getCollector();
+	}
 
 	public boolean analyzeJar(Analyzer analyzer) throws Exception {
 
@@ -25,7 +37,13 @@ public class MetatypePlugin implements AnalyzerPlugin {
 					QUERY.NAMED.toString(), name //
 					);
 			for (Clazz c : metatypes) {
-				jar.putResource("OSGI-INF/metatype/" + c.getFQN() + ".xml", new MetaTypeReader(c, analyzer));
+				MetaTypeReader reader;
+				ClassDataCollector cd = analyzer.getClassDataCollector(this, c);
+				if (cd instanceof MetaTypeReader.Find)
+					reader = ((MetaTypeReader.Find) cd).getReader();
+				else
+					reader = new MetaTypeReader(c, analyzer);
+				jar.putResource("OSGI-INF/metatype/" + c.getFQN() + ".xml", reader);
 			}
 		}
 		return false;
@@ -4,18 +4,16 @@ import java.net.*;
 import java.util.*;
 
 import javax.xml.parsers.*;
-import javax.xml.xpath.*;
 
-import org.w3c.dom.*;
+import org.xml.sax.*;
+import org.xml.sax.helpers.*;
 
 public class MavenDependencyGraph {
-	final static DocumentBuilderFactory	docFactory		= DocumentBuilderFactory.newInstance();
-	final static XPathFactory			xpathFactory	= XPathFactory.newInstance();
-	final List<Artifact>				dependencies	= new ArrayList<Artifact>();
-	final List<URL>						repositories	= new ArrayList<URL>();
-	final XPath							xpath			= xpathFactory.newXPath();
-	final Map<URI,Artifact>				cache			= new HashMap<URI,Artifact>();
-	Artifact							root;
+	final static SAXParserFactory	parserFactory	= SAXParserFactory.newInstance();
+	final List<Artifact>			dependencies	= new ArrayList<Artifact>();
+	final List<URL>					repositories	= new ArrayList<URL>();
+	final Map<URI,Artifact>			cache			= new HashMap<URI,Artifact>();
+	Artifact						root;
 
 	enum Scope {
 		COMPILE, RUNTIME, TEST, PROVIDED, SYSTEM, IMPORT,
@@ -35,25 +33,21 @@ public class MavenDependencyGraph {
 		public Artifact(URL url) throws Exception {
 			if (url != null) {
 				this.url = url;
-				DocumentBuilder db = docFactory.newDocumentBuilder();
-				Document doc = db.parse(url.toString());
-				Node node = (Node) xpath.evaluate("/project", doc, XPathConstants.NODE);
-
-				groupId = xpath.evaluate("groupId", node);
-				artifactId = xpath.evaluate("artifactId", node);
-				version = xpath.evaluate("version", node);
-				type = xpath.evaluate("type", node);
-				optional = (Boolean) xpath.evaluate("optinal", node, XPathConstants.BOOLEAN);
-				String scope = xpath.evaluate("scope", node);
+				PomHandler pom = new PomHandler();
+				parserFactory.newSAXParser().parse(url.toString(), pom);
+
+				groupId = pom.get("groupId");
+				artifactId = pom.get("artifactId");
+				version = pom.get("version");
+				type = pom.get("type");
+				optional = pom.get("optional").trim().equalsIgnoreCase("true");
+				String scope = pom.get("scope");
 				if (scope != null && scope.length() > 0) {
 					this.scope = Scope.valueOf(scope.toUpperCase());
 				}
-				NodeList evaluate = (NodeList) xpath.evaluate("//dependencies/dependency", doc, XPathConstants.NODESET);
 
-				for (int i = 0; i < evaluate.getLength(); i++) {
-					Node childNode = evaluate.item(i);
-					Artifact artifact = getArtifact(xpath.evaluate("groupId", childNode),
-							xpath.evaluate("artifactId", childNode), xpath.evaluate("version", childNode));
+				for (String[] d : pom.dependencies) {
+					Artifact artifact = getArtifact(d[0], d[1], d[2]);
 					add(artifact);
 				}
 			}
@@ -74,6 +68,65 @@ public class MavenDependencyGraph {
 
 	}
 
+	/**
+	 * Collects the elements of the project and the coordinates of every
+	 * dependency in a single pass over the pom.
+	 */
+	static class PomHandler extends DefaultHandler {
+		final LinkedList<String>	path			= new LinkedList<String>();
+		final StringBuilder			text			= new StringBuilder();
+		final Map<String,String>	project			= new HashMap<String,String>();
+		final List<String[]>		dependencies	= new ArrayList<String[]>();
+		String[]					dependency;
+
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes attributes) {
+			if (qName.equals("dependency") && "dependencies".equals(last()))
+				dependency = new String[] {
+						"", "", ""
+				};
+			path.add(qName);
+			text.setLength(0);
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length) {
+			text.append(ch, start, length);
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName) {
+			path.removeLast();
+			String parent = last();
+			if (path.size() == 1 && parent.equals("project")) {
+				if (!project.containsKey(qName))
+					project.put(qName, text.toString());
+			} else if (dependency != null && "dependency".equals(parent)) {
+				if (qName.equals("groupId"))
+					dependency[0] = text.toString();
+				else if (qName.equals("artifactId"))
+					dependency[1] = text.toString();
+				else if (qName.equals("version"))
+					dependency[2] = text.toString();
+			} else if (dependency != null && qName.equals("dependency")) {
+				dependencies.add(dependency);
+				dependency = null;
+			}
+			text.setLength(0);
+		}
+
+		String last() {
+			return path.isEmpty() ? null : path.getLast();
+		}
+
+		String get(String name) {
+			String value = project.get(name);
+			if (value == null)
+				return "";
+			return value;
+		}
+	}
+
 	public void addRepository(URL repository) {
 		repositories.add(repository);
 	}
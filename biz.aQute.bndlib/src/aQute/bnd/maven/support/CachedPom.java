@@ -11,6 +11,15 @@ public class CachedPom extends Pom {
 		this.maven = mavenEntry;
 	}
 
+	/**
+	 * Poms in the local repository do not change, so their parsed form is kept
+	 * next to them.
+	 */
+	@Override
+	PomReader read() throws Exception {
+		return PomReader.cached(this, getPomFile());
+	}
+
 	@Override
 	public File getArtifact() throws Exception {
 		return maven.getArtifact();
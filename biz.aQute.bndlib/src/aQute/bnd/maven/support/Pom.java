@@ -4,21 +4,9 @@ import java.io.*;
 import java.net.*;
 import java.util.*;
 
-import javax.xml.parsers.*;
-import javax.xml.xpath.*;
-
-import org.w3c.dom.*;
-
 import aQute.lib.io.*;
 
 public abstract class Pom {
-	static DocumentBuilderFactory	dbf	= DocumentBuilderFactory.newInstance();
-	static XPathFactory				xpf	= XPathFactory.newInstance();
-
-	static {
-		dbf.setNamespaceAware(false);
-	}
-
 	public enum Scope {
 		compile, runtime, system, import_, provided, test, ;
 
@@ -118,54 +106,36 @@ public abstract class Pom {
 	}
 
 	void parse() throws Exception {
-		DocumentBuilder db = dbf.newDocumentBuilder();
 		System.err.println("Parsing " + pomFile.getAbsolutePath());
-		Document doc = db.parse(pomFile);
-		XPath xp = xpf.newXPath();
-		parse(doc, xp);
+		parse(read());
 	}
 
-	protected void parse(Document doc, XPath xp) throws XPathExpressionException, Exception {
+	/**
+	 * Read the pom file, subclasses can answer a cached form.
+	 */
+	PomReader read() throws Exception {
+		return PomReader.parse(this, pomFile);
+	}
+
+	void parse(PomReader reader) throws Exception {
 
-		this.artifactId = replace(xp.evaluate("project/artifactId", doc).trim(), this.artifactId);
-		this.groupId = replace(xp.evaluate("project/groupId", doc).trim(), this.groupId);
-		this.version = replace(xp.evaluate("project/version", doc).trim(), this.version);
+		this.artifactId = replace(reader.get("project/artifactId"), this.artifactId);
+		this.groupId = replace(reader.get("project/groupId"), this.groupId);
+		this.version = replace(reader.get("project/version"), this.version);
 
-		String nextDescription = xp.evaluate("project/description", doc).trim();
+		String nextDescription = reader.get("project/description");
 		if (this.description.length() != 0 && nextDescription.length() != 0)
 			this.description += "\n";
 		this.description += replace(nextDescription);
 
-		this.name = replace(xp.evaluate("project/name", doc).trim(), this.name);
-
-		NodeList list = (NodeList) xp.evaluate("project/dependencies/dependency", doc, XPathConstants.NODESET);
-		for (int i = 0; i < list.getLength(); i++) {
-			Node node = list.item(i);
-			Dependency dep = new Dependency();
-			String scope = xp.evaluate("scope", node).trim();
-			if (scope.length() == 0)
-				dep.scope = Scope.compile;
-			else
-				dep.scope = Scope.valueOf(scope);
-			dep.type = xp.evaluate("type", node).trim();
-
-			String opt = xp.evaluate("optional", node).trim();
-			dep.optional = opt != null && opt.equalsIgnoreCase("true");
-			dep.groupId = replace(xp.evaluate("groupId", node));
-			dep.artifactId = replace(xp.evaluate("artifactId", node).trim());
-
-			dep.version = replace(xp.evaluate("version", node).trim());
-			dependencies.add(dep);
+		this.name = replace(reader.get("project/name"), this.name);
 
-			NodeList exclusions = (NodeList) xp.evaluate("exclusions", node, XPathConstants.NODESET);
-			for (int e = 0; e < exclusions.getLength(); e++) {
-				Node exc = exclusions.item(e);
-				String exclGroupId = xp.evaluate("groupId", exc).trim();
-				String exclArtifactId = xp.evaluate("artifactId", exc).trim();
-				dep.exclusions.add(exclGroupId + "+" + exclArtifactId);
-			}
+		for (Dependency dep : reader.dependencies) {
+			dep.groupId = replace(dep.groupId);
+			dep.artifactId = replace(dep.artifactId);
+			dep.version = replace(dep.version);
+			dependencies.add(dep);
 		}
-
 	}
 
 	private String replace(String key, String dflt) {
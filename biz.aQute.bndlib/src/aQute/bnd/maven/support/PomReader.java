@@ -0,0 +1,255 @@
+package aQute.bnd.maven.support;
+
+import java.io.*;
+import java.util.*;
+
+import javax.xml.parsers.*;
+
+import org.xml.sax.*;
+import org.xml.sax.helpers.*;
+
+import aQute.bnd.maven.support.Pom.Dependency;
+import aQute.bnd.maven.support.Pom.Scope;
+import aQute.libg.cryptography.*;
+
+/**
+ * Reads the parts of a pom that bnd uses in a single pass with a SAX parser,
+ * the dependencies are created directly. The values are kept as they are in
+ * the pom, the macros are replaced by the {@link Pom}.
+ * <p>
+ * The result can be stored in a compact binary form next to the pom. The
+ * stored form holds the SHA-1 of the pom and is only used while it matches.
+ */
+class PomReader extends DefaultHandler {
+	final static SAXParserFactory	spf				= SAXParserFactory.newInstance();
+	final static int				MAGIC			= 0x504F4D31;
+	final static String				EXTENSION		= ".parsed";
+
+	final static Set<String>		VALUES			= new HashSet<String>(Arrays.asList("project/groupId",
+															"project/artifactId", "project/version",
+															"project/name", "project/description",
+															"project/packaging", "project/url",
+															"project/parent/groupId",
+															"project/parent/artifactId",
+															"project/parent/version",
+															"project/parent/relativePath"));
+
+	final Pom						pom;
+	final Map<String,String>		values			= new HashMap<String,String>();
+	final Map<String,String>		properties		= new LinkedHashMap<String,String>();
+	final List<String>				repositories	= new ArrayList<String>();
+	final List<Dependency>			dependencies	= new ArrayList<Dependency>();
+	boolean							parent;
+
+	final LinkedList<String>		path			= new LinkedList<String>();
+	final StringBuilder				text			= new StringBuilder();
+	Dependency						dependency;
+	String							exclusionGroupId;
+	String							exclusionArtifactId;
+
+	static {
+		spf.setNamespaceAware(false);
+	}
+
+	PomReader(Pom pom) {
+		this.pom = pom;
+	}
+
+	/**
+	 * Parse the pom file.
+	 */
+	static PomReader parse(Pom pom, File file) throws Exception {
+		PomReader reader = new PomReader(pom);
+		InputStream in = new FileInputStream(file);
+		try {
+			spf.newSAXParser().parse(new BufferedInputStream(in), reader);
+		}
+		finally {
+			in.close();
+		}
+		return reader;
+	}
+
+	/**
+	 * Answer the content of the pom file from the binary form when it is still
+	 * valid, otherwise parse the pom and store the binary form. Failing to
+	 * store it is not an error, it only means the pom is parsed again.
+	 */
+	static PomReader cached(Pom pom, File file) throws Exception {
+		byte[] digest = SHA1.digest(file).digest();
+		File cache = new File(file.getParentFile(), file.getName() + EXTENSION);
+
+		if (cache.isFile()) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cache)));
+			try {
+				PomReader reader = new PomReader(pom);
+				if (reader.read(in, digest))
+					return reader;
+			}
+			catch (Exception e) {
+				// corrupt, parse again
+			}
+			finally {
+				in.close();
+			}
+		}
+
+		PomReader reader = parse(pom, file);
+
+		File tmp = new File(cache.getParentFile(), cache.getName() + ".tmp");
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				reader.write(out, digest);
+			}
+			finally {
+				out.close();
+			}
+			cache.delete();
+			if (!tmp.renameTo(cache))
+				tmp.delete();
+		}
+		catch (IOException e) {
+			tmp.delete();
+		}
+		return reader;
+	}
+
+	@Override
+	public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+		String name = path.isEmpty() ? qName : path.getLast() + "/" + qName;
+		path.add(name);
+		text.setLength(0);
+
+		if (name.equals("project/parent"))
+			parent = true;
+		else if (name.equals("project/dependencies/dependency")) {
+			dependency = pom.new Dependency();
+			dependency.scope = Scope.compile;
+			dependency.type = "";
+			dependency.groupId = "";
+			dependency.artifactId = "";
+			dependency.version = "";
+		} else if (name.equals("project/dependencies/dependency/exclusions/exclusion")) {
+			exclusionGroupId = "";
+			exclusionArtifactId = "";
+		}
+	}
+
+	@Override
+	public void characters(char[] ch, int start, int length) throws SAXException {
+		text.append(ch, start, length);
+	}
+
+	@Override
+	public void endElement(String uri, String localName, String qName) throws SAXException {
+		String name = path.removeLast();
+		String value = text.toString();
+		text.setLength(0);
+
+		if (VALUES.contains(name)) {
+			if (!values.containsKey(name))
+				values.put(name, value.trim());
+		} else if (name.startsWith("project/properties/") && name.indexOf('/', 19) < 0) {
+			properties.put(qName, value);
+		} else if (name.equals("project/repositories/repository/url")) {
+			repositories.add(value.trim());
+		} else if (name.startsWith("project/dependencies/dependency/")) {
+			String field = name.substring(32);
+			if (field.equals("scope")) {
+				if (value.trim().length() != 0)
+					dependency.scope = Scope.valueOf(value.trim());
+			} else if (field.equals("type"))
+				dependency.type = value.trim();
+			else if (field.equals("optional"))
+				dependency.optional = value.trim().equalsIgnoreCase("true");
+			else if (field.equals("groupId"))
+				dependency.groupId = value;
+			else if (field.equals("artifactId"))
+				dependency.artifactId = value.trim();
+			else if (field.equals("version"))
+				dependency.version = value.trim();
+			else if (field.equals("exclusions/exclusion/groupId"))
+				exclusionGroupId = value.trim();
+			else if (field.equals("exclusions/exclusion/artifactId"))
+				exclusionArtifactId = value.trim();
+			else if (field.equals("exclusions/exclusion"))
+				dependency.exclusions.add(exclusionGroupId + "+" + exclusionArtifactId);
+		} else if (name.equals("project/dependencies/dependency")) {
+			dependencies.add(dependency);
+			dependency = null;
+		}
+	}
+
+	String get(String name) {
+		String value = values.get(name);
+		if (value == null)
+			return "";
+		return value;
+	}
+
+	void write(DataOutputStream out, byte[] digest) throws IOException {
+		out.writeInt(MAGIC);
+		out.write(digest);
+		out.writeBoolean(parent);
+		write(out, values);
+		write(out, properties);
+		out.writeInt(repositories.size());
+		for (String repository : repositories)
+			out.writeUTF(repository);
+		out.writeInt(dependencies.size());
+		for (Dependency d : dependencies) {
+			out.writeUTF(d.scope.name());
+			out.writeUTF(d.type);
+			out.writeBoolean(d.optional);
+			out.writeUTF(d.groupId);
+			out.writeUTF(d.artifactId);
+			out.writeUTF(d.version);
+			out.writeInt(d.exclusions.size());
+			for (String exclusion : d.exclusions)
+				out.writeUTF(exclusion);
+		}
+	}
+
+	boolean read(DataInputStream in, byte[] digest) throws IOException {
+		if (in.readInt() != MAGIC)
+			return false;
+
+		byte[] stored = new byte[digest.length];
+		in.readFully(stored);
+		if (!Arrays.equals(digest, stored))
+			return false;
+
+		parent = in.readBoolean();
+		read(in, values);
+		read(in, properties);
+		for (int i = in.readInt(); i > 0; i--)
+			repositories.add(in.readUTF());
+		for (int i = in.readInt(); i > 0; i--) {
+			Dependency d = pom.new Dependency();
+			d.scope = Scope.valueOf(in.readUTF());
+			d.type = in.readUTF();
+			d.optional = in.readBoolean();
+			d.groupId = in.readUTF();
+			d.artifactId = in.readUTF();
+			d.version = in.readUTF();
+			for (int e = in.readInt(); e > 0; e--)
+				d.exclusions.add(in.readUTF());
+			dependencies.add(d);
+		}
+		return true;
+	}
+
+	private void write(DataOutputStream out, Map<String,String> map) throws IOException {
+		out.writeInt(map.size());
+		for (Map.Entry<String,String> e : map.entrySet()) {
+			out.writeUTF(e.getKey());
+			out.writeUTF(e.getValue());
+		}
+	}
+
+	private void read(DataInputStream in, Map<String,String> map) throws IOException {
+		for (int i = in.readInt(); i > 0; i--)
+			map.put(in.readUTF(), in.readUTF());
+	}
+}
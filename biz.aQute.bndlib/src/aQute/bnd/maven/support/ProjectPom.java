@@ -5,10 +5,6 @@ import java.net.*;
 import java.util.*;
 import java.util.regex.*;
 
-import javax.xml.xpath.*;
-
-import org.w3c.dom.*;
-
 import aQute.lib.io.*;
 
 public class ProjectPom extends Pom {
@@ -23,19 +19,18 @@ public class ProjectPom extends Pom {
 	}
 
 	@Override
-	protected void parse(Document doc, XPath xp) throws Exception {
+	void parse(PomReader reader) throws Exception {
 
-		packaging = xp.evaluate("project/packaging", doc);
-		url = xp.evaluate("project/url", doc);
+		packaging = reader.get("project/packaging");
+		url = reader.get("project/url");
 
-		Node parent = (Node) xp.evaluate("project/parent", doc, XPathConstants.NODE);
-		if (parent != null && parent.hasChildNodes()) {
+		if (reader.parent) {
 			File parentFile = IO.getFile(getPomFile().getParentFile(), "../pom.xml");
 
-			String parentGroupId = xp.evaluate("groupId", parent).trim();
-			String parentArtifactId = xp.evaluate("artifactId", parent).trim();
-			String parentVersion = xp.evaluate("version", parent).trim();
-			String parentPath = xp.evaluate("relativePath", parent).trim();
+			String parentGroupId = reader.get("project/parent/groupId");
+			String parentArtifactId = reader.get("project/parent/artifactId");
+			String parentVersion = reader.get("project/parent/version");
+			String parentPath = reader.get("project/parent/relativePath");
 			if (parentPath != null && parentPath.length() != 0) {
 				parentFile = IO.getFile(getPomFile().getParentFile(), parentPath);
 			}
@@ -59,11 +54,9 @@ public class ProjectPom extends Pom {
 			}
 		}
 
-		NodeList propNodes = (NodeList) xp.evaluate("project/properties/*", doc, XPathConstants.NODESET);
-		for (int i = 0; i < propNodes.getLength(); i++) {
-			Node node = propNodes.item(i);
-			String key = node.getNodeName();
-			String value = node.getTextContent();
+		for (Map.Entry<String,String> e : reader.properties.entrySet()) {
+			String key = e.getKey();
+			String value = e.getValue();
 			if (key == null || key.length() == 0)
 				throw new IllegalArgumentException("Pom has an empty or null key");
 			if (value == null || value.length() == 0)
@@ -71,17 +64,14 @@ public class ProjectPom extends Pom {
 			properties.setProperty(key, value.trim());
 		}
 
-		NodeList repos = (NodeList) xp.evaluate("project/repositories/repository/url", doc, XPathConstants.NODESET);
-		for (int i = 0; i < repos.getLength(); i++) {
-			Node node = repos.item(i);
-			String URIString = node.getTextContent().trim();
+		for (String URIString : reader.repositories) {
 			URI uri = new URI(URIString);
 			if (uri.getScheme() == null)
 				uri = IO.getFile(pomFile.getParentFile(), URIString).toURI();
 			repositories.add(uri);
 		}
 
-		super.parse(doc, xp);
+		super.parse(reader);
 	}
 
 	// private void print(Node node, String indent) {
@@ -26,6 +26,7 @@ import java.net.*;
 import java.text.*;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.*;
 import java.util.jar.*;
 import java.util.jar.Attributes.Name;
 import java.util.regex.*;
@@ -68,11 +69,16 @@ public class Analyzer extends Processor {
 	private final Packages							classpathExports		= new Packages();
 	private final Descriptors						descriptors				= new Descriptors();
 	private final List<Jar>							classpath				= list();
-	private final Map<TypeRef,Clazz>				classspace				= map();
+	private final ClassSpace						classspace				= new ClassSpace();
 	private final Map<TypeRef,Clazz>				importedClassesCache	= map();
 	private boolean									analyzed				= false;
 	private boolean									diagnostics				= false;
 	private boolean									inited					= false;
+	private Boolean									bufferedClassParsing;
+	private ClassCache								classCache;
+	private boolean									classCacheInited;
+	private final Map<Clazz,Map<ClassParser,ClassDataCollector>>	collected				= map();
+	private ClassIndex								classIndex;
 	final protected AnalyzerMessages				msgs					= ReporterMessages.base(this,
 																					AnalyzerMessages.class);
 
@@ -305,22 +311,80 @@ public class Analyzer extends Processor {
 	 * 
 	 */
 	void doPlugins() {
-		for (AnalyzerPlugin plugin : getPlugins(AnalyzerPlugin.class)) {
+		try {
+			List<ClassParser> parsers = getPlugins(ClassParser.class);
+			collectClassData(parsers);
+			for (AnalyzerPlugin plugin : getPlugins(AnalyzerPlugin.class)) {
+				try {
+					Processor previous = beginHandleErrors(plugin.toString());
+					boolean reanalyze = plugin.analyzeJar(this);
+					endHandleErrors(previous);
+					if (reanalyze) {
+						classspace.clear();
+						analyzeBundleClasspath();
+						collectClassData(parsers);
+					}
+				}
+				catch (Exception e) {
+					error("Analyzer Plugin %s failed %s", plugin, e);
+				}
+			}
+		}
+		finally {
+			collected.clear();
+		}
+	}
+
+	/**
+	 * Parse each class in the class space once for all the class parsers that
+	 * are interested in it. The collectors are kept until the analyzer plugins
+	 * have run, see {@link #getClassDataCollector(ClassParser, Clazz)}.
+	 */
+	void collectClassData(List<ClassParser> parsers) {
+		collected.clear();
+		if (parsers.isEmpty())
+			return;
+
+		for (Clazz c : classspace.values()) {
+			Map<ClassParser,ClassDataCollector> collectors = new HashMap<ClassParser,ClassDataCollector>();
 			try {
-				Processor previous = beginHandleErrors(plugin.toString());
-				boolean reanalyze = plugin.analyzeJar(this);
-				endHandleErrors(previous);
-				if (reanalyze) {
-					classspace.clear();
-					analyzeBundleClasspath();
+				for (ClassParser parser : parsers) {
+					ClassDataCollector cd = parser.getClassDataCollector(this, c);
+					if (cd != null)
+						collectors.put(parser, cd);
 				}
+				if (collectors.isEmpty())
+					continue;
+
+				new ClassDataCollectors(collectors.values()).parse(c);
+				collected.put(c, collectors);
 			}
 			catch (Exception e) {
-				error("Analyzer Plugin %s failed %s", plugin, e);
+				// The plugins parse the class themselves and report the error
+				trace("Failed to collect class data for %s: %s", c, e);
 			}
 		}
 	}
 
+	/**
+	 * Answer the collector that a class parser returned for a class during the
+	 * single pass over the class space. The collector has received all the
+	 * events of the class. This is only available while the analyzer plugins
+	 * run.
+	 * 
+	 * @param parser
+	 *            the class parser
+	 * @param clazz
+	 *            the class
+	 * @return the collector or null if the class was not parsed for the parser
+	 */
+	public ClassDataCollector getClassDataCollector(ClassParser parser, Clazz clazz) {
+		Map<ClassParser,ClassDataCollector> collectors = collected.get(clazz);
+		if (collectors == null)
+			return null;
+		return collectors.get(parser);
+	}
+
 	/**
 	 * @return
 	 */
@@ -1372,8 +1436,9 @@ public class Analyzer extends Processor {
 
 			// Only do a uses on exported or imported packages
 			// and uses should also not contain our own package
-			// name
-			Set<PackageRef> sharedPackages = new HashSet<PackageRef>();
+			// name. The set is sorted so the directive does not depend on
+			// the (identity) hash order of the package references
+			Set<PackageRef> sharedPackages = new TreeSet<PackageRef>();
 			sharedPackages.addAll(imports.keySet());
 			sharedPackages.addAll(exports.keySet());
 			sharedPackages.retainAll(usedPackages);
@@ -1705,6 +1770,99 @@ public class Analyzer extends Processor {
 	 * @throws IOException
 	 */
 	private boolean analyzeJar(Jar jar, String prefix, boolean okToIncludeDirs) throws Exception {
+		int threads = getParallelism();
+		if (threads <= 1)
+			return analyzeJar(jar, prefix, okToIncludeDirs, null);
+
+		// Decide on the parser before the classes are parsed concurrently,
+		// the properties are not thread safe
+		isBufferedClassParsing();
+		getClassCache();
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			return analyzeJar(jar, prefix, okToIncludeDirs, parseClasses(pool, jar, prefix));
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Answer if classes are parsed from a buffer instead of a stream. A buffer
+	 * parse does not decode the UTF-8 constants that are not used. This is
+	 * set with the {@link Constants#CLASSPARSER} option, the value
+	 * {@code buffer} selects the buffer parser.
+	 */
+	public boolean isBufferedClassParsing() {
+		if (bufferedClassParsing == null)
+			bufferedClassParsing = "buffer".equalsIgnoreCase(getProperty(CLASSPARSER, "stream").trim());
+		return bufferedClassParsing;
+	}
+
+	public void setBufferedClassParsing(boolean buffered) {
+		bufferedClassParsing = buffered;
+	}
+
+	/**
+	 * Answer the cache for the analysis of class files or null if there is
+	 * none. The cache is set with {@link #setClassCache(ClassCache)} or found
+	 * as a plugin.
+	 */
+	public ClassCache getClassCache() {
+		if (!classCacheInited) {
+			classCache = getPlugin(ClassCache.class);
+			classCacheInited = true;
+		}
+		return classCache;
+	}
+
+	public void setClassCache(ClassCache classCache) {
+		this.classCache = classCache;
+		this.classCacheInited = true;
+	}
+
+	@Override
+	public void propertiesChanged() {
+		super.propertiesChanged();
+		bufferedClassParsing = null;
+	}
+
+	/**
+	 * Submit the class files in the jar to the given executor for parsing. The
+	 * package-info classes are not submitted since they are processed with the
+	 * macro processor, they are parsed during the merge in
+	 * {@link #analyzeJar(Jar, String, boolean, Map)}.
+	 * 
+	 * @return a map from path to the pending parse result
+	 */
+	private Map<String,Future<Clazz>> parseClasses(ExecutorService pool, Jar jar, String prefix) {
+		Map<String,Future<Clazz>> parsed = new HashMap<String,Future<Clazz>>();
+		for (Map.Entry<String,Resource> entry : jar.getResources().entrySet()) {
+			final String path = entry.getKey();
+			final Resource resource = entry.getValue();
+			if (path.startsWith(prefix) && path.endsWith(".class") && !path.endsWith("/package-info.class")) {
+				parsed.put(path, pool.submit(new Callable<Clazz>() {
+					public Clazz call() throws Exception {
+						Clazz clazz = new Clazz(Analyzer.this, path, resource);
+						clazz.parseClassFile();
+						return clazz;
+					}
+				}));
+			}
+		}
+		return parsed;
+	}
+
+	/**
+	 * Traverse the classes in the jar in the order of the jar and merge them
+	 * in the class space. If parsed is not null, it holds the classes that
+	 * were already (being) parsed concurrently. Since the merge is always done
+	 * in the jar's order on the current thread the result, including the
+	 * reported errors, is independent of the parallelism.
+	 */
+	private boolean analyzeJar(Jar jar, String prefix, boolean okToIncludeDirs, Map<String,Future<Clazz>> parsed)
+			throws Exception {
 		Map<String,Clazz> mismatched = new HashMap<String,Clazz>();
 
 		next: for (String path : jar.getResources().keySet()) {
@@ -1740,21 +1898,32 @@ public class Analyzer extends Processor {
 					Attrs info = null;
 
 					try {
-						InputStream in = resource.openInputStream();
-						clazz = new Clazz(this, path, resource);
-						try {
-							// Check if we have a package-info
-							if (relativePath.endsWith("/package-info.class")) {
-								// package-info can contain an Export annotation
-								info = new Attrs();
-								parsePackageInfoClass(clazz, info);
-							} else {
-								// Otherwise we just parse it simply
-								clazz.parseClassFile();
+						Future<Clazz> future = parsed == null ? null : parsed.get(path);
+						if (future != null) {
+							try {
+								clazz = future.get();
+							}
+							catch (ExecutionException e) {
+								throw e.getCause();
+							}
+						} else {
+							InputStream in = resource.openInputStream();
+							clazz = new Clazz(this, path, resource);
+							try {
+								// Check if we have a package-info
+								if (relativePath.endsWith("/package-info.class")) {
+									// package-info can contain an Export
+									// annotation
+									info = new Attrs();
+									parsePackageInfoClass(clazz, info);
+								} else {
+									// Otherwise we just parse it simply
+									clazz.parseClassFile();
+								}
+							}
+							finally {
+								in.close();
 							}
-						}
-						finally {
-							in.close();
 						}
 					}
 					catch (Throwable e) {
@@ -2034,7 +2203,8 @@ public class Analyzer extends Processor {
 
 	public Collection<Clazz> getClasses(String... args) throws Exception {
 
-		Set<Clazz> matched = new HashSet<Clazz>(classspace.values());
+		ClassIndex index = getClassIndex();
+		Set<Clazz> matched = null;
 		for (int i = 1; i < args.length; i++) {
 			if (args.length < i + 1)
 				throw new IllegalArgumentException("${classes} macro must have odd number of arguments. "
@@ -2060,16 +2230,26 @@ public class Analyzer extends Processor {
 				String s = args[++i];
 				instr = new Instruction(s);
 			}
-			for (Iterator<Clazz> c = matched.iterator(); c.hasNext();) {
-				Clazz clazz = c.next();
-				if (!clazz.is(type, instr, this)) {
-					c.remove();
-				}
-			}
+			if (matched == null)
+				matched = index.select(type, instr, this);
+			else
+				index.retain(matched, type, instr, this);
 		}
+		if (matched == null)
+			matched = new HashSet<Clazz>(index.all);
 		return matched;
 	}
 
+	/**
+	 * Answer the index over the class space, it is rebuilt when the class
+	 * space has changed.
+	 */
+	private ClassIndex getClassIndex() throws Exception {
+		if (classIndex == null || !classIndex.isValid())
+			classIndex = new ClassIndex(classspace);
+		return classIndex;
+	}
+
 	/**
 	 * Get the exporter of a package ...
 	 */
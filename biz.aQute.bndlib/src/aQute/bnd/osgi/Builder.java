@@ -116,7 +116,12 @@ public class Builder extends Analyzer {
 		dot.setName(getBsn());
 
 		doDigests(dot);
-		
+		int parallelism = getParallelism();
+		if (parallelism > 1 && dot.hasCompression() == Jar.Compression.DEFLATE) {
+			dot.setCompression(Jar.Compression.PARALLEL);
+			dot.setParallelism(parallelism);
+		}
+
 		sign(dot);
 		doSaveManifest(dot);
 
@@ -0,0 +1,222 @@
+package aQute.bnd.osgi;
+
+import java.io.*;
+import java.nio.*;
+import java.security.*;
+import java.util.*;
+
+import aQute.bnd.osgi.Descriptors.PackageRef;
+import aQute.bnd.osgi.Descriptors.TypeRef;
+import aQute.lib.hex.*;
+import aQute.lib.io.*;
+
+/**
+ * A persistent cache of the analysis of class files. The cache is keyed by the
+ * SHA-1 of the class bytes so it is valid as long as the bytes are the same,
+ * regardless of the file or JAR they come from. For each class it stores the
+ * information that the {@link Analyzer} needs from a parse without a
+ * {@link ClassDataCollector}: the class name, super class, interfaces, access
+ * flags, class file version, referred packages, API uses, annotations and the
+ * referred types.
+ * <p>
+ * Classes that are parsed with a collector are always parsed since the
+ * collector needs to see the events.
+ * <p>
+ * The cache is added as a plugin by the workspace when the
+ * {@link Constants#CLASSCACHE} option is set, the entries are stored in the
+ * workspace cache directory.
+ */
+public class ClassCache {
+	final static int	VERSION	= 1;
+	final File			dir;
+	int					hits;
+	int					misses;
+
+	public ClassCache(File dir) {
+		this.dir = dir;
+	}
+
+	/**
+	 * Parse the class without a collector, restore the analysis from the cache
+	 * when the class bytes were seen before.
+	 *
+	 * @param clazz
+	 *            the class to parse
+	 * @return the referred types
+	 * @throws Exception
+	 */
+	public Set<TypeRef> parse(Clazz clazz) throws Exception {
+		ByteBuffer bb = Clazz.buffer(clazz.resource);
+		MessageDigest md = MessageDigest.getInstance("SHA1");
+		md.update(bb.duplicate());
+		String sha = Hex.toHexString(md.digest());
+		File file = new File(dir, sha.substring(0, 2) + "/" + sha.substring(2));
+
+		if (file.isFile()) {
+			try {
+				DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+				try {
+					Set<TypeRef> xref = read(clazz, in);
+					if (xref != null) {
+						synchronized (this) {
+							hits++;
+						}
+						return xref;
+					}
+				}
+				finally {
+					in.close();
+				}
+			}
+			catch (IOException e) {
+				// corrupt entry, we just parse the class again
+			}
+		}
+
+		synchronized (this) {
+			misses++;
+		}
+		Set<TypeRef> xref = clazz.parseClassFile(bb, null);
+		if (xref != null)
+			write(clazz, xref, file);
+		return xref;
+	}
+
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	public File getRoot() {
+		return dir;
+	}
+
+	private Set<TypeRef> read(Clazz clazz, DataInputStream in) throws IOException {
+		if (in.readInt() != VERSION)
+			return null;
+
+		Analyzer analyzer = clazz.analyzer;
+		clazz.className = analyzer.getTypeRef(in.readUTF());
+		String zuper = in.readUTF();
+		clazz.zuper = zuper.length() == 0 ? null : analyzer.getTypeRef(zuper);
+		int n = in.readInt();
+		if (n > 0) {
+			clazz.interfaces = new TypeRef[n];
+			for (int i = 0; i < n; i++)
+				clazz.interfaces[i] = analyzer.getTypeRef(in.readUTF());
+		}
+		clazz.accessx = in.readInt();
+		clazz.major = in.readInt();
+		clazz.minor = in.readInt();
+		clazz.sourceFile = in.readBoolean() ? in.readUTF() : null;
+		clazz.hasRuntimeAnnotations = in.readBoolean();
+		clazz.hasClassAnnotations = in.readBoolean();
+
+		clazz.imports.addAll(readPackages(analyzer, in));
+		Set<PackageRef> api = readPackages(analyzer, in);
+		if (api != null) {
+			if (clazz.api == null)
+				clazz.api = new HashSet<PackageRef>();
+			clazz.api.addAll(api);
+		}
+		Set<TypeRef> annotations = readTypes(analyzer, in);
+		if (annotations != null) {
+			if (clazz.annotations == null)
+				clazz.annotations = new HashSet<TypeRef>();
+			clazz.annotations.addAll(annotations);
+		}
+		return readTypes(analyzer, in);
+	}
+
+	private void write(Clazz clazz, Set<TypeRef> xref, File file) throws IOException {
+		File parent = file.getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory())
+			return;
+
+		// Write to a temporary file and rename so a concurrent reader never
+		// sees a partial entry
+		File tmp = IO.createTempFile(parent, file.getName(), ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			out.writeInt(VERSION);
+			out.writeUTF(clazz.className.getBinary());
+			out.writeUTF(clazz.zuper == null ? "" : clazz.zuper.getBinary());
+			if (clazz.interfaces == null)
+				out.writeInt(0);
+			else {
+				out.writeInt(clazz.interfaces.length);
+				for (TypeRef ref : clazz.interfaces)
+					out.writeUTF(ref.getBinary());
+			}
+			out.writeInt(clazz.accessx);
+			out.writeInt(clazz.major);
+			out.writeInt(clazz.minor);
+			out.writeBoolean(clazz.sourceFile != null);
+			if (clazz.sourceFile != null)
+				out.writeUTF(clazz.sourceFile);
+			out.writeBoolean(clazz.hasRuntimeAnnotations);
+			out.writeBoolean(clazz.hasClassAnnotations);
+			writePackages(clazz.imports, out);
+			writePackages(clazz.api, out);
+			writeTypes(clazz.annotations, out);
+			writeTypes(xref, out);
+		}
+		finally {
+			out.close();
+		}
+		if (!tmp.renameTo(file)) {
+			// another thread or process was faster
+			IO.delete(tmp);
+		}
+	}
+
+	private static Set<PackageRef> readPackages(Analyzer analyzer, DataInputStream in) throws IOException {
+		int n = in.readInt();
+		if (n < 0)
+			return null;
+
+		Set<PackageRef> set = new HashSet<PackageRef>();
+		for (int i = 0; i < n; i++)
+			set.add(analyzer.getPackageRef(in.readUTF()));
+		return set;
+	}
+
+	private static Set<TypeRef> readTypes(Analyzer analyzer, DataInputStream in) throws IOException {
+		int n = in.readInt();
+		if (n < 0)
+			return null;
+
+		Set<TypeRef> set = new HashSet<TypeRef>();
+		for (int i = 0; i < n; i++)
+			set.add(analyzer.getTypeRef(in.readUTF()));
+		return set;
+	}
+
+	private static void writePackages(Collection<PackageRef> refs, DataOutputStream out) throws IOException {
+		if (refs == null) {
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(refs.size());
+		for (PackageRef ref : refs)
+			out.writeUTF(ref.getBinary());
+	}
+
+	private static void writeTypes(Collection<TypeRef> refs, DataOutputStream out) throws IOException {
+		if (refs == null) {
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(refs.size());
+		for (TypeRef ref : refs)
+			out.writeUTF(ref.getBinary());
+	}
+
+	@Override
+	public String toString() {
+		return "ClassCache[" + dir + "]";
+	}
+}
@@ -0,0 +1,163 @@
+package aQute.bnd.osgi;
+
+import java.util.*;
+
+import aQute.bnd.osgi.Clazz.FieldDef;
+import aQute.bnd.osgi.Clazz.MethodDef;
+import aQute.bnd.osgi.Descriptors.TypeRef;
+
+/**
+ * A collector that dispatches the events of a single parse of a class file to
+ * a number of collectors. This allows several plugins to look at the same class
+ * while its bytes are only walked once. A collector that answers false from
+ * {@link ClassDataCollector#classStart(int, TypeRef)} receives no further
+ * events for that class, the parse continues as long as one collector is
+ * interested.
+ */
+public class ClassDataCollectors extends ClassDataCollector {
+	final List<ClassDataCollector>	collectors	= new ArrayList<ClassDataCollector>();
+	final List<ClassDataCollector>	active		= new ArrayList<ClassDataCollector>();
+
+	public ClassDataCollectors() {}
+
+	public ClassDataCollectors(Collection< ? extends ClassDataCollector> collectors) {
+		this.collectors.addAll(collectors);
+	}
+
+	public void add(ClassDataCollector cd) {
+		collectors.add(cd);
+	}
+
+	public boolean isEmpty() {
+		return collectors.isEmpty();
+	}
+
+	/**
+	 * Parse the class once and send the events to all collectors.
+	 */
+	public void parse(Clazz clazz) throws Exception {
+		if (collectors.isEmpty())
+			return;
+
+		if (collectors.size() == 1) {
+			clazz.parseClassFileWithCollector(collectors.get(0));
+			return;
+		}
+
+		active.clear();
+		active.addAll(collectors);
+		clazz.parseClassFileWithCollector(this);
+	}
+
+	@Override
+	public void version(int minor, int major) {
+		for (ClassDataCollector cd : active)
+			cd.version(minor, major);
+	}
+
+	@Override
+	public boolean classStart(int access, TypeRef className) {
+		for (Iterator<ClassDataCollector> i = active.iterator(); i.hasNext();) {
+			if (!i.next().classStart(access, className))
+				i.remove();
+		}
+		return !active.isEmpty();
+	}
+
+	@Override
+	public void extendsClass(TypeRef zuper) throws Exception {
+		for (ClassDataCollector cd : active)
+			cd.extendsClass(zuper);
+	}
+
+	@Override
+	public void implementsInterfaces(TypeRef[] interfaces) throws Exception {
+		for (ClassDataCollector cd : active)
+			cd.implementsInterfaces(interfaces);
+	}
+
+	@Override
+	public void addReference(TypeRef ref) {
+		for (ClassDataCollector cd : active)
+			cd.addReference(ref);
+	}
+
+	@Override
+	public void annotation(Annotation annotation) {
+		for (ClassDataCollector cd : active)
+			cd.annotation(annotation);
+	}
+
+	@Override
+	public void parameter(int p) {
+		for (ClassDataCollector cd : active)
+			cd.parameter(p);
+	}
+
+	@Override
+	public void method(MethodDef defined) {
+		for (ClassDataCollector cd : active)
+			cd.method(defined);
+	}
+
+	@Override
+	public void field(FieldDef defined) {
+		for (ClassDataCollector cd : active)
+			cd.field(defined);
+	}
+
+	@Override
+	public void classEnd() throws Exception {
+		for (ClassDataCollector cd : active)
+			cd.classEnd();
+	}
+
+	@Override
+	public void deprecated() throws Exception {
+		for (ClassDataCollector cd : active)
+			cd.deprecated();
+	}
+
+	@Override
+	public void enclosingMethod(TypeRef cName, String mName, String mDescriptor) {
+		for (ClassDataCollector cd : active)
+			cd.enclosingMethod(cName, mName, mDescriptor);
+	}
+
+	@Override
+	public void innerClass(TypeRef innerClass, TypeRef outerClass, String innerName, int innerClassAccessFlags)
+			throws Exception {
+		for (ClassDataCollector cd : active)
+			cd.innerClass(innerClass, outerClass, innerName, innerClassAccessFlags);
+	}
+
+	@Override
+	public void signature(String signature) {
+		for (ClassDataCollector cd : active)
+			cd.signature(signature);
+	}
+
+	@Override
+	public void constant(Object object) {
+		for (ClassDataCollector cd : active)
+			cd.constant(object);
+	}
+
+	@Override
+	public void memberEnd() {
+		for (ClassDataCollector cd : active)
+			cd.memberEnd();
+	}
+
+	@Override
+	public void referenceMethod(int access, TypeRef className, String method, String descriptor) {
+		for (ClassDataCollector cd : active)
+			cd.referenceMethod(access, className, method, descriptor);
+	}
+
+	@Override
+	public void referTo(TypeRef typeRef, int modifiers) {
+		for (ClassDataCollector cd : active)
+			cd.referTo(typeRef, modifiers);
+	}
+}
@@ -0,0 +1,149 @@
+package aQute.bnd.osgi;
+
+import java.util.*;
+
+import aQute.bnd.osgi.Clazz.QUERY;
+import aQute.bnd.osgi.Descriptors.PackageRef;
+import aQute.bnd.osgi.Descriptors.TypeRef;
+
+/**
+ * An inverted index over the class space for the queries of
+ * {@link Analyzer#getClasses(String...)}. The queries that look at names
+ * (annotations, interfaces, super classes and imports) are answered by
+ * matching the instruction against the distinct names instead of against
+ * every class. Like {@link Clazz#is(QUERY, Instruction, Analyzer)}, the
+ * interfaces, super classes and imports are inherited from the super classes,
+ * annotations are not. The inherited names are only collected on the first
+ * query that needs them since the super classes must be found and parsed.
+ */
+class ClassIndex {
+	final static EnumSet<QUERY>		INDEXED			= EnumSet.of(QUERY.ANNOTATED, QUERY.IMPLEMENTS, QUERY.EXTENDS,
+															QUERY.IMPORTS);
+
+	final ClassSpace				classspace;
+	final int						generation;
+	final Set<Clazz>				all;
+	final Map<String,Set<Clazz>>	annotated		= new HashMap<String,Set<Clazz>>();
+	final Map<String,Set<Clazz>>	implementing	= new HashMap<String,Set<Clazz>>();
+	final Map<String,Set<Clazz>>	extending		= new HashMap<String,Set<Clazz>>();
+	final Map<String,Set<Clazz>>	importing		= new HashMap<String,Set<Clazz>>();
+	boolean							inherited;
+
+	ClassIndex(ClassSpace classspace) {
+		this.classspace = classspace;
+		this.generation = classspace.generation;
+		this.all = new HashSet<Clazz>(classspace.values());
+
+		for (Clazz c : all) {
+			if (c.annotations != null)
+				for (TypeRef annotation : c.annotations)
+					add(annotated, annotation.getFQN(), c);
+		}
+	}
+
+	/**
+	 * Answer true if the class space has not changed since this index was
+	 * made.
+	 */
+	boolean isValid() {
+		return classspace.generation == generation;
+	}
+
+	/**
+	 * Index the interfaces, super classes and imports, including the ones
+	 * inherited from the super classes.
+	 */
+	private void inherit(Analyzer analyzer) throws Exception {
+		if (inherited)
+			return;
+
+		for (Clazz c : all) {
+			// Walk the super classes the same way Clazz.is does, the super
+			// class name is also indexed when its class cannot be found
+			Set<Clazz> visited = new HashSet<Clazz>();
+			Clazz current = c;
+			while (current != null && visited.add(current)) {
+				if (current.interfaces != null)
+					for (TypeRef ref : current.interfaces)
+						add(implementing, ref.getDottedOnly(), c);
+
+				for (PackageRef imp : current.imports)
+					add(importing, imp.getFQN(), c);
+
+				if (current.zuper == null)
+					break;
+
+				add(extending, current.zuper.getDottedOnly(), c);
+				current = analyzer.findClass(current.zuper);
+			}
+		}
+		inherited = true;
+	}
+
+	/**
+	 * Answer the classes in the class space that match the query.
+	 */
+	Set<Clazz> select(QUERY type, Instruction instr, Analyzer analyzer) throws Exception {
+		Map<String,Set<Clazz>> index = getIndex(type);
+		if (index == null) {
+			Set<Clazz> matched = new HashSet<Clazz>();
+			for (Clazz c : all) {
+				if (c.is(type, instr, analyzer))
+					matched.add(c);
+			}
+			return matched;
+		}
+
+		// A negated instruction never selects a class, see Clazz.is
+		Set<Clazz> matched = new HashSet<Clazz>();
+		if (instr.isNegated())
+			return matched;
+
+		if (type != QUERY.ANNOTATED)
+			inherit(analyzer);
+
+		for (Map.Entry<String,Set<Clazz>> entry : index.entrySet()) {
+			if (instr.matches(entry.getKey()))
+				matched.addAll(entry.getValue());
+		}
+		return matched;
+	}
+
+	/**
+	 * Remove the classes from the given set that do not match the query.
+	 */
+	void retain(Set<Clazz> matched, QUERY type, Instruction instr, Analyzer analyzer) throws Exception {
+		if (!INDEXED.contains(type)) {
+			for (Iterator<Clazz> c = matched.iterator(); c.hasNext();) {
+				if (!c.next().is(type, instr, analyzer))
+					c.remove();
+			}
+			return;
+		}
+		matched.retainAll(select(type, instr, analyzer));
+	}
+
+	private Map<String,Set<Clazz>> getIndex(QUERY type) {
+		switch (type) {
+			case ANNOTATED :
+				return annotated;
+			case IMPLEMENTS :
+				return implementing;
+			case EXTENDS :
+				return extending;
+			case IMPORTS :
+				return importing;
+			default :
+				return null;
+		}
+	}
+
+	private static void add(Map<String,Set<Clazz>> index, String key, Clazz c) {
+		Set<Clazz> set = index.get(key);
+		if (set == null) {
+			set = new HashSet<Clazz>();
+			index.put(key, set);
+		}
+		set.add(c);
+	}
+}
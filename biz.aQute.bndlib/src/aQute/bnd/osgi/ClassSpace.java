@@ -0,0 +1,102 @@
+package aQute.bnd.osgi;
+
+import java.util.*;
+
+import aQute.bnd.osgi.Descriptors.TypeRef;
+
+/**
+ * The class space of an analyzer. It counts its changes in a generation, also
+ * the changes made through its views, so the {@link ClassIndex} knows when it
+ * must be rebuilt. Plugins get this map from
+ * {@link Analyzer#getClassspace()} and can change it.
+ */
+class ClassSpace extends AbstractMap<TypeRef,Clazz> {
+	final Map<TypeRef,Clazz>	map	= new LinkedHashMap<TypeRef,Clazz>();
+	int							generation;
+
+	@Override
+	public Clazz get(Object key) {
+		return map.get(key);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return map.containsKey(key);
+	}
+
+	@Override
+	public int size() {
+		return map.size();
+	}
+
+	@Override
+	public Clazz put(TypeRef key, Clazz value) {
+		generation++;
+		return map.put(key, value);
+	}
+
+	@Override
+	public Clazz remove(Object key) {
+		generation++;
+		return map.remove(key);
+	}
+
+	@Override
+	public void clear() {
+		generation++;
+		map.clear();
+	}
+
+	@Override
+	public Set<Map.Entry<TypeRef,Clazz>> entrySet() {
+		return new AbstractSet<Map.Entry<TypeRef,Clazz>>() {
+			@Override
+			public int size() {
+				return map.size();
+			}
+
+			@Override
+			public Iterator<Map.Entry<TypeRef,Clazz>> iterator() {
+				final Iterator<Map.Entry<TypeRef,Clazz>> i = map.entrySet().iterator();
+				return new Iterator<Map.Entry<TypeRef,Clazz>>() {
+					public boolean hasNext() {
+						return i.hasNext();
+					}
+
+					public Map.Entry<TypeRef,Clazz> next() {
+						final Map.Entry<TypeRef,Clazz> entry = i.next();
+						return new Map.Entry<TypeRef,Clazz>() {
+							public TypeRef getKey() {
+								return entry.getKey();
+							}
+
+							public Clazz getValue() {
+								return entry.getValue();
+							}
+
+							public Clazz setValue(Clazz value) {
+								generation++;
+								return entry.setValue(value);
+							}
+
+							@Override
+							public boolean equals(Object o) {
+								return entry.equals(o);
+							}
+
+							@Override
+							public int hashCode() {
+								return entry.hashCode();
+							}
+						};
+					}
+
+					public void remove() {
+						generation++;
+						i.remove();
+					}
+				};
+			}
+		};
+	}
+}
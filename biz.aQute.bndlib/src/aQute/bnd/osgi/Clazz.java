@@ -4,17 +4,26 @@ import java.io.*;
 import java.lang.annotation.*;
 import java.lang.reflect.*;
 import java.nio.*;
+import java.nio.channels.*;
 import java.util.*;
 import java.util.regex.*;
 
 import aQute.bnd.osgi.Descriptors.Descriptor;
 import aQute.bnd.osgi.Descriptors.PackageRef;
 import aQute.bnd.osgi.Descriptors.TypeRef;
+import aQute.lib.io.*;
 import aQute.libg.generics.*;
 
 public class Clazz {
 
-	static Pattern	METHOD_DESCRIPTOR	= Pattern.compile("\\((.*)\\)(.+)");
+	static Pattern		METHOD_DESCRIPTOR	= Pattern.compile("\\((.*)\\)(.+)");
+	static Object		LAZY_UTF8			= new Object();
+
+	// Smaller class files are read, mapping them costs more than it saves
+	static final int	MAP_THRESHOLD		= 128 * 1024;
+
+	static final Map<Class< ? >,Boolean>	poolOverrides	= Collections
+															.synchronizedMap(new WeakHashMap<Class< ? >,Boolean>());
 
 	public class ClassConstant {
 		int	cname;
@@ -24,7 +33,7 @@ public class Clazz {
 		}
 
 		public String getName() {
-			return (String) pool[cname];
+			return utf8(cname);
 		}
 	}
 
@@ -388,6 +397,7 @@ public class Clazz {
 	TypeRef				className;
 	Object				pool[];
 	int					intPool[];
+	ByteBufferDataInput	lazy;
 	Set<PackageRef>		imports		= Create.set();
 	String				path;
 	int					minor		= 0;
@@ -423,6 +433,15 @@ public class Clazz {
 	}
 
 	public Set<TypeRef> parseClassFileWithCollector(ClassDataCollector cd) throws Exception {
+		if (cd == null && analyzer != null) {
+			ClassCache cache = analyzer.getClassCache();
+			if (cache != null)
+				return cache.parse(this);
+		}
+
+		if (analyzer != null && analyzer.isBufferedClassParsing())
+			return parseClassFile(buffer(resource), cd);
+
 		InputStream in = resource.openInputStream();
 		try {
 			return parseClassFile(in, cd);
@@ -436,7 +455,7 @@ public class Clazz {
 		DataInputStream din = new DataInputStream(in);
 		try {
 			this.cd = cd;
-			return parseClassFile(din);
+			return parseClassFile((DataInput) din);
 		}
 		finally {
 			cd = null;
@@ -444,7 +463,33 @@ public class Clazz {
 		}
 	}
 
-	Set<TypeRef> parseClassFile(DataInputStream in) throws Exception {
+	/**
+	 * Parse the class file from a buffer. The buffer's position must be at the
+	 * start of the class file. The UTF-8 constants in the constant pool are not
+	 * decoded during parsing, they are only decoded when they are used. The
+	 * buffer must therefore not be modified during the parse.
+	 * 
+	 * @param bb
+	 *            the buffer (heap, direct or memory mapped)
+	 * @param cd
+	 *            the collector or null
+	 * @return the referred types
+	 * @throws Exception
+	 */
+	public Set<TypeRef> parseClassFile(ByteBuffer bb, ClassDataCollector cd) throws Exception {
+		ByteBufferDataInput din = new ByteBufferDataInput(bb);
+		try {
+			this.cd = cd;
+			this.lazy = din;
+			return parseClassFile(din);
+		}
+		finally {
+			cd = null;
+			lazy = null;
+		}
+	}
+
+	Set<TypeRef> parseClassFile(DataInput in) throws Exception {
 		xref = new HashSet<TypeRef>();
 
 		boolean crawl = cd != null; // Crawl the byte code if we have a
@@ -520,6 +565,10 @@ public class Clazz {
 			}
 		}
 
+		// A subclass that looks at the pool gets to see it decoded, the buffer
+		// is gone when the parse is done
+		if (overridesPool(getClass()))
+			decodePool();
 		pool(pool, intPool);
 
 		// All name& type and class constant records contain descriptors we must
@@ -533,7 +582,7 @@ public class Clazz {
 			if (o instanceof Assoc && ((Assoc) o).tag == 12) {
 				referTo(((Assoc) o).b, 0); // Descriptor
 			} else if (o instanceof ClassConstant) {
-				String binaryClassName = (String) pool[((ClassConstant) o).cname];
+				String binaryClassName = utf8(((ClassConstant) o).cname);
 				TypeRef typeRef = analyzer.getTypeRef(binaryClassName);
 				referTo(typeRef, 0);
 			}
@@ -549,7 +598,7 @@ public class Clazz {
 			api = new HashSet<PackageRef>();
 
 		int this_class = in.readUnsignedShort();
-		className = analyzer.getTypeRef((String) pool[intPool[this_class]]);
+		className = analyzer.getTypeRef(utf8(intPool[this_class]));
 		referTo(className, Modifier.PUBLIC);
 
 		try {
@@ -560,7 +609,7 @@ public class Clazz {
 			}
 
 			int super_class = in.readUnsignedShort();
-			String superName = (String) pool[intPool[super_class]];
+			String superName = utf8(intPool[super_class]);
 			if (superName != null) {
 				zuper = analyzer.getTypeRef(superName);
 			}
@@ -575,7 +624,7 @@ public class Clazz {
 			if (interfacesCount > 0) {
 				interfaces = new TypeRef[interfacesCount];
 				for (int i = 0; i < interfacesCount; i++) {
-					interfaces[i] = analyzer.getTypeRef((String) pool[intPool[in.readUnsignedShort()]]);
+					interfaces[i] = analyzer.getTypeRef(utf8(intPool[in.readUnsignedShort()]));
 					referTo(interfaces[i], accessx);
 				}
 				if (cd != null)
@@ -598,12 +647,12 @@ public class Clazz {
 				// class name for the field type, so bnd
 				// would not see a reference. We detect
 				// this case and add an artificial descriptor
-				String name = pool[name_index].toString(); // name_index
+				String name = constant(name_index).toString(); // name_index
 				if (name.startsWith("class$")) {
 					crawl = true;
 				}
 				if (cd != null)
-					cd.field(last = new FieldDef(access_flags, name, pool[descriptor_index].toString()));
+					cd.field(last = new FieldDef(access_flags, name, constant(descriptor_index).toString()));
 
 				referTo(descriptor_index, access_flags);
 				doAttributes(in, ElementType.FIELD, false, access_flags);
@@ -641,8 +690,8 @@ public class Clazz {
 				int access_flags = in.readUnsignedShort();
 				int name_index = in.readUnsignedShort();
 				int descriptor_index = in.readUnsignedShort();
-				String name = pool[name_index].toString();
-				String descriptor = pool[descriptor_index].toString();
+				String name = constant(name_index).toString();
+				String descriptor = constant(descriptor_index).toString();
 				if (cd != null) {
 					MethodDef mdef = new MethodDef(access_flags, name, descriptor);
 					last = mdef;
@@ -675,14 +724,14 @@ public class Clazz {
 		}
 	}
 
-	private void constantFloat(DataInputStream in, int poolIndex) throws IOException {
+	private void constantFloat(DataInput in, int poolIndex) throws IOException {
 		if (cd != null)
 			pool[poolIndex] = in.readFloat(); // ALU
 		else
 			in.skipBytes(4);
 	}
 
-	private void constantInteger(DataInputStream in, int poolIndex) throws IOException {
+	private void constantInteger(DataInput in, int poolIndex) throws IOException {
 		intPool[poolIndex] = in.readInt();
 		if (cd != null)
 			pool[poolIndex] = intPool[poolIndex];
@@ -698,7 +747,7 @@ public class Clazz {
 	 * @param tag
 	 * @throws IOException
 	 */
-	protected void nameAndType(DataInputStream in, int poolIndex, byte tag) throws IOException {
+	protected void nameAndType(DataInput in, int poolIndex, byte tag) throws IOException {
 		int name_index = in.readUnsignedShort();
 		int descriptor_index = in.readUnsignedShort();
 		pool[poolIndex] = new Assoc(tag, name_index, descriptor_index);
@@ -710,7 +759,7 @@ public class Clazz {
 	 * @param tag
 	 * @throws IOException
 	 */
-	private void methodRef(DataInputStream in, int poolIndex) throws IOException {
+	private void methodRef(DataInput in, int poolIndex) throws IOException {
 		int class_index = in.readUnsignedShort();
 		int name_and_type_index = in.readUnsignedShort();
 		pool[poolIndex] = new Assoc((byte) 10, class_index, name_and_type_index);
@@ -721,7 +770,7 @@ public class Clazz {
 	 * @param poolIndex
 	 * @throws IOException
 	 */
-	private void constantString(DataInputStream in, int poolIndex) throws IOException {
+	private void constantString(DataInput in, int poolIndex) throws IOException {
 		int string_index = in.readUnsignedShort();
 		intPool[poolIndex] = string_index;
 	}
@@ -731,7 +780,7 @@ public class Clazz {
 	 * @param poolIndex
 	 * @throws IOException
 	 */
-	protected void constantClass(DataInputStream in, int poolIndex) throws IOException {
+	protected void constantClass(DataInput in, int poolIndex) throws IOException {
 		int class_index = in.readUnsignedShort();
 		intPool[poolIndex] = class_index;
 		ClassConstant c = new ClassConstant(class_index);
@@ -742,7 +791,7 @@ public class Clazz {
 	 * @param in
 	 * @throws IOException
 	 */
-	protected void constantDouble(DataInputStream in, int poolIndex) throws IOException {
+	protected void constantDouble(DataInput in, int poolIndex) throws IOException {
 		if (cd != null)
 			pool[poolIndex] = in.readDouble();
 		else
@@ -753,7 +802,7 @@ public class Clazz {
 	 * @param in
 	 * @throws IOException
 	 */
-	protected void constantLong(DataInputStream in, int poolIndex) throws IOException {
+	protected void constantLong(DataInput in, int poolIndex) throws IOException {
 		if (cd != null) {
 			pool[poolIndex] = in.readLong();
 		} else
@@ -765,13 +814,127 @@ public class Clazz {
 	 * @param poolIndex
 	 * @throws IOException
 	 */
-	protected void constantUtf8(DataInputStream in, int poolIndex) throws IOException {
+	protected void constantUtf8(DataInput in, int poolIndex) throws IOException {
 		// CONSTANT_Utf8
 
+		if (lazy != null) {
+			// remember where the string is, it is decoded on first use
+			intPool[poolIndex] = lazy.position();
+			pool[poolIndex] = LAZY_UTF8;
+			in.skipBytes(in.readUnsignedShort());
+			return;
+		}
+
 		String name = in.readUTF();
 		pool[poolIndex] = name;
 	}
 
+	/**
+	 * Answer the constant at the given index in the constant pool. If the
+	 * constant is a UTF-8 constant that was not decoded yet then it is decoded
+	 * now.
+	 */
+	Object constant(int index) {
+		Object o = pool[index];
+		if (o == LAZY_UTF8) {
+			if (lazy == null)
+				throw new IllegalStateException("The UTF-8 constant at " + index
+						+ " was not used during the parse and can no longer be decoded");
+			try {
+				o = lazy.readUTF(intPool[index]);
+			}
+			catch (IOException e) {
+				throw new IllegalArgumentException("Invalid class file (or parsing is wrong), cannot decode UTF-8 at "
+						+ index + " " + e);
+			}
+			pool[index] = o;
+		}
+		return o;
+	}
+
+	String utf8(int index) {
+		return (String) constant(index);
+	}
+
+	/**
+	 * Answer true if the class overrides {@link #pool(Object[], int[])}. This
+	 * is looked up once per class, the classes are weakly held.
+	 */
+	static boolean overridesPool(Class< ? > c) {
+		if (c == Clazz.class)
+			return false;
+
+		Boolean overrides = poolOverrides.get(c);
+		if (overrides == null) {
+			overrides = false;
+			for (Class< ? > rover = c; rover != Clazz.class; rover = rover.getSuperclass()) {
+				try {
+					rover.getDeclaredMethod("pool", Object[].class, int[].class);
+					overrides = true;
+					break;
+				}
+				catch (NoSuchMethodException e) {
+					// Look in the super class
+				}
+			}
+			poolOverrides.put(c, overrides);
+		}
+		return overrides;
+	}
+
+	/**
+	 * Decode all UTF-8 constants that were not decoded yet.
+	 */
+	void decodePool() {
+		for (int i = 0; i < pool.length; i++)
+			if (pool[i] == LAZY_UTF8)
+				constant(i);
+	}
+
+	/**
+	 * Answer the content of a resource as a buffer. A large file resource is
+	 * memory mapped, an embedded resource is wrapped, otherwise the content is
+	 * read.
+	 */
+	static ByteBuffer buffer(Resource resource) throws Exception {
+		if (resource instanceof EmbeddedResource)
+			return ByteBuffer.wrap(((EmbeddedResource) resource).data);
+
+		if (resource instanceof FileResource) {
+			RandomAccessFile raf = new RandomAccessFile(((FileResource) resource).file, "r");
+			try {
+				long size = raf.length();
+				if (size >= MAP_THRESHOLD)
+					return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+				byte[] data = new byte[(int) size];
+				raf.readFully(data);
+				return ByteBuffer.wrap(data);
+			}
+			finally {
+				raf.close();
+			}
+		}
+
+		InputStream in = resource.openInputStream();
+		try {
+			if (resource instanceof ZipResource) {
+				long size = resource.size();
+				if (size >= 0 && size < Integer.MAX_VALUE) {
+					byte[] data = new byte[(int) size];
+					new DataInputStream(in).readFully(data);
+					return ByteBuffer.wrap(data);
+				}
+			}
+			ByteArrayOutputStream bout = new ByteArrayOutputStream();
+			IO.copy(in, bout);
+			return ByteBuffer.wrap(bout.toByteArray());
+		}
+		finally {
+			in.close();
+		}
+	}
+
 	/**
 	 * Find a method reference in the pool that points to the given class,
 	 * methodname and descriptor.
@@ -789,15 +952,15 @@ public class Clazz {
 					// Method ref
 					int class_index = methodref.a;
 					int class_name_index = intPool[class_index];
-					if (clazz.equals(pool[class_name_index])) {
+					if (clazz.equals(constant(class_name_index))) {
 						int name_and_type_index = methodref.b;
-						Assoc name_and_type = (Assoc) pool[name_and_type_index];
+						Assoc name_and_type = (Assoc) constant(name_and_type_index);
 						if (name_and_type.tag == 12) {
 							// Name and Type
 							int name_index = name_and_type.a;
 							int type_index = name_and_type.b;
-							if (methodname.equals(pool[name_index])) {
-								if (descriptor.equals(pool[type_index])) {
+							if (methodname.equals(constant(name_index))) {
+								if (descriptor.equals(constant(type_index))) {
 									return i;
 								}
 							}
@@ -817,7 +980,7 @@ public class Clazz {
 	 * @param access_flags
 	 * @throws Exception
 	 */
-	private void doAttributes(DataInputStream in, ElementType member, boolean crawl, int access_flags) throws Exception {
+	private void doAttributes(DataInput in, ElementType member, boolean crawl, int access_flags) throws Exception {
 		int attributesCount = in.readUnsignedShort();
 		for (int j = 0; j < attributesCount; j++) {
 			// skip name CONSTANT_Utf8 pointer
@@ -833,9 +996,9 @@ public class Clazz {
 	 * @param access_flags
 	 * @throws Exception
 	 */
-	private void doAttribute(DataInputStream in, ElementType member, boolean crawl, int access_flags) throws Exception {
+	private void doAttribute(DataInput in, ElementType member, boolean crawl, int access_flags) throws Exception {
 		int attribute_name_index = in.readUnsignedShort();
-		String attributeName = (String) pool[attribute_name_index];
+		String attributeName = utf8(attribute_name_index);
 		long attribute_length = in.readInt();
 		attribute_length &= 0xFFFFFFFF;
 		if ("Deprecated".equals(attributeName)) {
@@ -884,21 +1047,21 @@ public class Clazz {
 	 * @param in
 	 * @throws IOException
 	 */
-	private void doEnclosingMethod(DataInputStream in) throws IOException {
+	private void doEnclosingMethod(DataInput in) throws IOException {
 		int cIndex = in.readShort();
 		int mIndex = in.readShort();
 
 		if (cd != null) {
 			int nameIndex = intPool[cIndex];
-			TypeRef cName = analyzer.getTypeRef((String) pool[nameIndex]);
+			TypeRef cName = analyzer.getTypeRef(utf8(nameIndex));
 
 			String mName = null;
 			String mDescriptor = null;
 
 			if (mIndex != 0) {
-				Assoc nameAndType = (Assoc) pool[mIndex];
-				mName = (String) pool[nameAndType.a];
-				mDescriptor = (String) pool[nameAndType.b];
+				Assoc nameAndType = (Assoc) constant(mIndex);
+				mName = utf8(nameAndType.a);
+				mDescriptor = utf8(nameAndType.b);
 			}
 			cd.enclosingMethod(cName, mName, mDescriptor);
 		}
@@ -921,7 +1084,7 @@ public class Clazz {
 	 * @param in
 	 * @throws Exception
 	 */
-	private void doInnerClasses(DataInputStream in) throws Exception {
+	private void doInnerClasses(DataInput in) throws Exception {
 		int number_of_classes = in.readShort();
 		for (int i = 0; i < number_of_classes; i++) {
 			int inner_class_info_index = in.readShort();
@@ -936,16 +1099,16 @@ public class Clazz {
 
 				if (inner_class_info_index != 0) {
 					int nameIndex = intPool[inner_class_info_index];
-					innerClass = analyzer.getTypeRef((String) pool[nameIndex]);
+					innerClass = analyzer.getTypeRef(utf8(nameIndex));
 				}
 
 				if (outer_class_info_index != 0) {
 					int nameIndex = intPool[outer_class_info_index];
-					outerClass = analyzer.getTypeRef((String) pool[nameIndex]);
+					outerClass = analyzer.getTypeRef(utf8(nameIndex));
 				}
 
 				if (inner_name_index != 0)
-					innerName = (String) pool[inner_name_index];
+					innerName = utf8(inner_name_index);
 
 				cd.innerClass(innerClass, outerClass, innerName, inner_class_access_flags);
 			}
@@ -967,9 +1130,9 @@ public class Clazz {
 	 * @param access_flags
 	 */
 
-	void doSignature(DataInputStream in, ElementType member, int access_flags) throws IOException {
+	void doSignature(DataInput in, ElementType member, int access_flags) throws IOException {
 		int signature_index = in.readUnsignedShort();
-		String signature = (String) pool[signature_index];
+		String signature = utf8(signature_index);
 
 		parseDescriptor(signature, access_flags);
 
@@ -983,26 +1146,26 @@ public class Clazz {
 	/**
 	 * Handle a constant value call the data collector with it
 	 */
-	void doConstantValue(DataInputStream in) throws IOException {
+	void doConstantValue(DataInput in) throws IOException {
 		int constantValue_index = in.readUnsignedShort();
 		if (cd == null)
 			return;
 
-		Object object = pool[constantValue_index];
+		Object object = constant(constantValue_index);
 		if (object == null)
-			object = pool[intPool[constantValue_index]];
+			object = constant(intPool[constantValue_index]);
 
 		last.constant = object;
 		cd.constant(object);
 	}
 
-	void doExceptions(DataInputStream in, int access_flags) throws IOException {
+	void doExceptions(DataInput in, int access_flags) throws IOException {
 		int exception_count = in.readUnsignedShort();
 		for (int i = 0; i < exception_count; i++) {
 			int index = in.readUnsignedShort();
 			if (api != null && (Modifier.isPublic(access_flags) || Modifier.isProtected(access_flags))) {
-				ClassConstant cc = (ClassConstant) pool[index];
-				String descr = (String) pool[cc.cname];
+				ClassConstant cc = (ClassConstant) constant(index);
+				String descr = utf8(cc.cname);
 
 				TypeRef clazz = analyzer.getTypeRef(descr);
 				referTo(clazz, access_flags);
@@ -1034,7 +1197,7 @@ public class Clazz {
 	 * @param pool
 	 * @throws Exception
 	 */
-	private void doCode(DataInputStream in) throws Exception {
+	private void doCode(DataInput in) throws Exception {
 		/* int max_stack = */in.readUnsignedShort();
 		/* int max_locals = */in.readUnsignedShort();
 		int code_length = in.readInt();
@@ -1094,8 +1257,8 @@ public class Clazz {
 						getMethodDef(0, methodref);
 
 					if ((methodref == forName || methodref == class$) && lastReference != -1
-							&& pool[intPool[lastReference]] instanceof String) {
-						String fqn = (String) pool[intPool[lastReference]];
+							&& constant(intPool[lastReference]) instanceof String) {
+						String fqn = utf8(intPool[lastReference]);
 						if (!fqn.equals("class") && fqn.indexOf('.') > 0) {
 							TypeRef clazz = analyzer.getTypeRefFromFQN(fqn);
 							referTo(clazz, 0);
@@ -1141,12 +1304,12 @@ public class Clazz {
 		}
 	}
 
-	private void doSourceFile(DataInputStream in) throws IOException {
+	private void doSourceFile(DataInput in) throws IOException {
 		int sourcefile_index = in.readUnsignedShort();
-		this.sourceFile = pool[sourcefile_index].toString();
+		this.sourceFile = constant(sourcefile_index).toString();
 	}
 
-	private void doParameterAnnotations(DataInputStream in, ElementType member, RetentionPolicy policy, int access_flags)
+	private void doParameterAnnotations(DataInput in, ElementType member, RetentionPolicy policy, int access_flags)
 			throws IOException {
 		int num_parameters = in.readUnsignedByte();
 		for (int p = 0; p < num_parameters; p++) {
@@ -1156,7 +1319,7 @@ public class Clazz {
 		}
 	}
 
-	private void doAnnotations(DataInputStream in, ElementType member, RetentionPolicy policy, int access_flags)
+	private void doAnnotations(DataInput in, ElementType member, RetentionPolicy policy, int access_flags)
 			throws IOException {
 		int num_annotations = in.readUnsignedShort(); // # of annotations
 		for (int a = 0; a < num_annotations; a++) {
@@ -1169,16 +1332,16 @@ public class Clazz {
 		}
 	}
 
-	private Annotation doAnnotation(DataInputStream in, ElementType member, RetentionPolicy policy, boolean collect,
+	private Annotation doAnnotation(DataInput in, ElementType member, RetentionPolicy policy, boolean collect,
 			int access_flags) throws IOException {
 		int type_index = in.readUnsignedShort();
 		if (annotations == null)
 			annotations = new HashSet<TypeRef>();
 
-		TypeRef tr = analyzer.getTypeRef(pool[type_index].toString());
+		TypeRef tr = analyzer.getTypeRef(constant(type_index).toString());
 		annotations.add(tr);
 
-		TypeRef name = analyzer.getTypeRef((String) pool[type_index]);
+		TypeRef name = analyzer.getTypeRef(utf8(type_index));
 		if (policy == RetentionPolicy.RUNTIME) {
 			referTo(type_index, 0);
 			hasRuntimeAnnotations = true;
@@ -1191,7 +1354,7 @@ public class Clazz {
 		Map<String,Object> elements = null;
 		for (int v = 0; v < num_element_value_pairs; v++) {
 			int element_name_index = in.readUnsignedShort();
-			String element = (String) pool[element_name_index];
+			String element = utf8(element_name_index);
 			Object value = doElementValue(in, member, policy, collect, access_flags);
 			if (collect) {
 				if (elements == null)
@@ -1204,7 +1367,7 @@ public class Clazz {
 		return null;
 	}
 
-	private Object doElementValue(DataInputStream in, ElementType member, RetentionPolicy policy, boolean collect,
+	private Object doElementValue(DataInput in, ElementType member, RetentionPolicy policy, boolean collect,
 			int access_flags) throws IOException {
 		char tag = (char) in.readUnsignedByte();
 		switch (tag) {
@@ -1220,34 +1383,34 @@ public class Clazz {
 			case 's' : // String
 			case 'J' : // Long
 				const_value_index = in.readUnsignedShort();
-				return pool[const_value_index];
+				return constant(const_value_index);
 
 			case 'Z' : // Boolean
 				const_value_index = in.readUnsignedShort();
-				return pool[const_value_index] == null || pool[const_value_index].equals(0) ? false : true;
+				return constant(const_value_index) == null || constant(const_value_index).equals(0) ? false : true;
 
 			case 'e' : // enum constant
 				int type_name_index = in.readUnsignedShort();
 				if (policy == RetentionPolicy.RUNTIME) {
 					referTo(type_name_index, 0);
 					if (api != null && (Modifier.isPublic(access_flags) || Modifier.isProtected(access_flags))) {
-						TypeRef name = analyzer.getTypeRef((String) pool[type_name_index]);
+						TypeRef name = analyzer.getTypeRef(utf8(type_name_index));
 						api.add(name.getPackageRef());
 					}
 				}
 				int const_name_index = in.readUnsignedShort();
-				return pool[const_name_index];
+				return constant(const_name_index);
 
 			case 'c' : // Class
 				int class_info_index = in.readUnsignedShort();
 				if (policy == RetentionPolicy.RUNTIME) {
 					referTo(class_info_index, 0);
 					if (api != null && (Modifier.isPublic(access_flags) || Modifier.isProtected(access_flags))) {
-						TypeRef name = analyzer.getTypeRef((String) pool[class_info_index]);
+						TypeRef name = analyzer.getTypeRef(utf8(class_info_index));
 						api.add(name.getPackageRef());
 					}
 				}
-				return pool[class_info_index];
+				return constant(class_info_index);
 
 			case '@' : // Annotation type
 				return doAnnotation(in, member, policy, collect, access_flags);
@@ -1292,7 +1455,7 @@ public class Clazz {
 	}
 
 	void referTo(int index, int modifiers) {
-		String descriptor = (String) pool[index];
+		String descriptor = utf8(index);
 		parseDescriptor(descriptor, modifiers);
 	}
 
@@ -1462,6 +1625,7 @@ public class Clazz {
 		pool = null;
 		intPool = null;
 		xref = null;
+		lazy = null;
 	}
 
 	public boolean is(QUERY query, Instruction instr, Analyzer analyzer) throws Exception {
@@ -1549,20 +1713,20 @@ public class Clazz {
 		if (methodRefPoolIndex == 0)
 			return;
 
-		Object o = pool[methodRefPoolIndex];
+		Object o = constant(methodRefPoolIndex);
 		if (o != null && o instanceof Assoc) {
 			Assoc assoc = (Assoc) o;
 			if (assoc.tag == 10) {
 				int string_index = intPool[assoc.a];
-				TypeRef className = analyzer.getTypeRef((String) pool[string_index]);
+				TypeRef className = analyzer.getTypeRef(utf8(string_index));
 				int name_and_type_index = assoc.b;
-				Assoc name_and_type = (Assoc) pool[name_and_type_index];
+				Assoc name_and_type = (Assoc) constant(name_and_type_index);
 				if (name_and_type.tag == 12) {
 					// Name and Type
 					int name_index = name_and_type.a;
 					int type_index = name_and_type.b;
-					String method = (String) pool[name_index];
-					String descriptor = (String) pool[type_index];
+					String method = utf8(name_index);
+					String descriptor = utf8(type_index);
 					cd.referenceMethod(access, className, method, descriptor);
 				} else
 					throw new IllegalArgumentException(
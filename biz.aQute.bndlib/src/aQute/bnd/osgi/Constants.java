@@ -74,6 +74,8 @@ public interface Constants {
 	String							BUILDPATH									= "-buildpath";
 	String							BUILDPACKAGES								= "-buildpackages";
 	String							BUMPPOLICY									= "-bumppolicy";
+	String							CLASSCACHE									= "-classcache";
+	String							CLASSPARSER									= "-classparser";
 	String							CONDUIT										= "-conduit";
 	String							COMPILER_SOURCE								= "-source";
 	String							COMPILER_TARGET								= "-target";
@@ -100,6 +102,7 @@ public interface Constants {
 	String							NOMANIFEST									= "-nomanifest";
 	String							NOUSES										= "-nouses";
 	String							NOBUNDLES									= "-nobundles";
+	String							PARALLEL									= "-parallel";
 	String							PEDANTIC									= "-pedantic";
 	String							PLUGIN										= "-plugin";
 	String							PLUGINPATH									= "-pluginpath";
@@ -162,7 +165,7 @@ public interface Constants {
 			PROVIDER_POLICY, REMOVEHEADERS, RESOURCEONLY, SOURCES, SOURCEPATH, SOURCES, SOURCEPATH, SUB, RUNBUNDLES,
 			RUNPATH, RUNSYSTEMPACKAGES, RUNPROPERTIES, REPORTNEWER, UNDERTEST, TESTPATH, TESTPACKAGES, TESTREPORT,
 			VERBOSE, NOMANIFEST, DEPLOYREPO, RELEASEREPO, SAVEMANIFEST, RUNVM, WAB, WABLIB, RUNFRAMEWORK, RUNFW, RUNTRACE,
-			TESTCONTINUOUS, SNAPSHOT, NAMESECTION, DIGESTS, DSANNOTATIONS, EXPERIMENTS, BASELINE, BASELINEREPO, PROFILE
+			TESTCONTINUOUS, SNAPSHOT, NAMESECTION, DIGESTS, DSANNOTATIONS, EXPERIMENTS, BASELINE, BASELINEREPO, PROFILE, PARALLEL, CLASSPARSER, CLASSCACHE
 																				};
 
 	// Ignore bundle specific headers. These bundles do not make
@@ -252,6 +255,8 @@ public interface Constants {
 	String							CURRENT_PACKAGE								= "@package";
 
 	String							BUILDFILES									= "buildfiles";
+	String							BUILDREPORT									= "buildreport";
+	String							BUILDFINGERPRINT							= "buildfingerprint";
 
 	String							EMPTY_HEADER								= "<<EMPTY>>";
 
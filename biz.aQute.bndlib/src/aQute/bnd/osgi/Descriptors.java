@@ -1,13 +1,19 @@
 package aQute.bnd.osgi;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 import aQute.libg.generics.*;
 
+/**
+ * Interns type, package and descriptor references. References are compared by
+ * identity so the caches are concurrent maps; classes can be parsed in parallel
+ * by the {@link Analyzer} and must still share the same reference objects.
+ */
 public class Descriptors {
-	Map<String,TypeRef>		typeRefCache		= Create.map();
-	Map<String,Descriptor>	descriptorCache		= Create.map();
-	Map<String,PackageRef>	packageCache		= Create.map();
+	ConcurrentMap<String,TypeRef>		typeRefCache		= new ConcurrentHashMap<String,TypeRef>();
+	ConcurrentMap<String,Descriptor>	descriptorCache		= new ConcurrentHashMap<String,Descriptor>();
+	ConcurrentMap<String,PackageRef>	packageCache		= new ConcurrentHashMap<String,PackageRef>();
 
 	// MUST BE BEFORE PRIMITIVES, THEY USE THE DEFAULT PACKAGE!!
 	final static PackageRef	DEFAULT_PACKAGE		= new PackageRef();
@@ -371,8 +377,8 @@ public class Descriptors {
 			ref = new ConcreteRef(pref, binaryClassName);
 		}
 
-		typeRefCache.put(binaryClassName, ref);
-		return ref;
+		TypeRef existing = typeRefCache.putIfAbsent(binaryClassName, ref);
+		return existing != null ? existing : ref;
 	}
 
 	public PackageRef getPackageRef(String binaryPackName) {
@@ -384,8 +390,8 @@ public class Descriptors {
 			return ref;
 
 		ref = new PackageRef(binaryPackName);
-		packageCache.put(binaryPackName, ref);
-		return ref;
+		PackageRef existing = packageCache.putIfAbsent(binaryPackName, ref);
+		return existing != null ? existing : ref;
 	}
 
 	public Descriptor getDescriptor(String descriptor) {
@@ -393,8 +399,8 @@ public class Descriptors {
 		if (d != null)
 			return d;
 		d = new Descriptor(descriptor);
-		descriptorCache.put(descriptor, d);
-		return d;
+		Descriptor existing = descriptorCache.putIfAbsent(descriptor, d);
+		return existing != null ? existing : d;
 	}
 
 	public class Descriptor {
@@ -0,0 +1,117 @@
+package aQute.bnd.osgi;
+
+import java.util.*;
+
+/**
+ * A flattened view of the properties of a processor and its parents. For each
+ * key it holds the raw value and the processor that defines it, a child
+ * overrides its parents. The keys are sorted so a wildcard key only has to
+ * look at the keys that start with its literal prefix.
+ * <p>
+ * The view is immutable. It remembers the generation of the properties of
+ * each processor in the chain and is replaced as soon as one of them changes.
+ * Only the lookup is flattened, the values are expanded on each request since
+ * macros like ${tstamp} or ${classes} do not only depend on the properties.
+ */
+class EffectiveProperties {
+	final Processor[]				chain;
+	final int[]						generations;
+	final Map<String,Definition>	definitions	= new HashMap<String,Definition>();
+	final TreeSet<String>			keys		= new TreeSet<String>();
+
+	static class Definition {
+		final String	value;
+		final Processor	source;
+
+		Definition(String value, Processor source) {
+			this.value = value;
+			this.source = source;
+		}
+	}
+
+	EffectiveProperties(Processor processor) {
+		List<Processor> list = new ArrayList<Processor>();
+		for (Processor p = processor; p != null; p = p.getParent())
+			list.add(p);
+
+		// Make sure the properties are read before the generations are taken
+		for (Processor p : list)
+			p.getProperties();
+
+		chain = list.toArray(new Processor[list.size()]);
+		generations = new int[chain.length];
+		for (int i = 0; i < chain.length; i++)
+			generations[i] = chain[i].generation;
+
+		// The properties are a Hashtable, holding its lock makes the iteration
+		// safe against other threads that change them
+		for (int i = chain.length - 1; i >= 0; i--) {
+			Properties properties = chain[i].properties;
+			synchronized (properties) {
+				for (Map.Entry<Object,Object> entry : properties.entrySet()) {
+					String key = (String) entry.getKey();
+					definitions.put(key, new Definition((String) entry.getValue(), chain[i]));
+					keys.add(key);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Answer true if the properties in the chain have not changed since this
+	 * view was made.
+	 */
+	boolean isValid(Processor processor) {
+		int i = 0;
+		for (Processor p = processor; p != null; p = p.getParent(), i++) {
+			if (i >= chain.length || chain[i] != p || generations[i] != p.generation)
+				return false;
+		}
+		return i == chain.length;
+	}
+
+	Definition get(String key) {
+		return definitions.get(key);
+	}
+
+	/**
+	 * Answer the keys, in sorted order, that match the instruction.
+	 */
+	List<String> select(String key, Instruction ins) {
+		String prefix = getPrefix(key);
+		SortedSet<String> candidates = prefix.length() == 0 ? keys : keys.subSet(prefix, prefix + Character.MAX_VALUE);
+
+		List<String> matched = new ArrayList<String>();
+		for (String k : candidates)
+			if (ins.matches(k))
+				matched.add(k);
+		return matched;
+	}
+
+	/**
+	 * Answer the literal start of a wildcard key, all keys matching the key
+	 * start with it. Only the plain characters before the first wildcard are
+	 * used, an alternative makes the prefix empty.
+	 */
+	static String getPrefix(String key) {
+		String s = Processor.removeDuplicateMarker(key);
+		if (s.startsWith("!"))
+			s = s.substring(1);
+
+		if (s.indexOf('|') >= 0)
+			return "";
+
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '.' && i == s.length() - 2 && s.charAt(i + 1) == '*')
+				break;
+
+			if (Character.isLetterOrDigit(c) || c == '.' || c == '-' || c == '_' || c == '/')
+				sb.append(c);
+			else
+				break;
+		}
+		return sb.toString();
+	}
+}
@@ -6,6 +6,7 @@ import java.io.*;
 import java.net.*;
 import java.security.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.jar.*;
 import java.util.regex.*;
 import java.util.zip.*;
@@ -16,7 +17,11 @@ import aQute.service.reporter.*;
 
 public class Jar implements Closeable {
 	public enum Compression {
-		DEFLATE, STORE
+		DEFLATE, STORE,
+		/**
+		 * Deflate the entries concurrently, see {@link ParallelZipOutputStream}
+		 */
+		PARALLEL
 	}
 
 	public static final Object[]			EMPTY_ARRAY	= new Jar[0];
@@ -33,9 +38,16 @@ public class Jar implements Closeable {
 	boolean									doNotTouchManifest;
 	boolean									nomanifest;
 	Compression								compression	= Compression.DEFLATE;
+	int										parallelism;
 	boolean									closed;
 	String[]								algorithms;
 
+	/**
+	 * Maximum nr of bytes kept in memory while staging the resources for the
+	 * digests.
+	 */
+	static final long						STAGING_MEMORY	= 32 * 1024 * 1024;
+
 	public Jar(String name) {
 		this.name = name;
 	}
@@ -244,41 +256,51 @@ public class Jar implements Closeable {
 	public void write(OutputStream out) throws Exception {
 		check();
 
-		if (!doNotTouchManifest && !nomanifest && algorithms != null) {
+		Manifest manifest = null;
+		Map<String,StagedResource> staged = null;
+		Staging staging = new Staging();
+		try {
+			if (!doNotTouchManifest && !nomanifest && algorithms != null) {
+
+				// ok, we have a request to create digests
+				// of the resources. Since we have to output
+				// the manifest first, we have a slight problem.
+				// We can also not make multiple passes over the resource
+				// because some resources are not idempotent and/or can
+				// take significant time. So we write each resource once
+				// to a staging area while calculating the digests, then
+				// output the manifest followed by the staged resources.
+
+				// Like calcChecksums(null), we use the standard SHA and MD5
+				manifest = getManifest() == null ? new Manifest() : copy(getManifest());
+				staged = stage(manifest, getDigests(null), staging);
+			}
 
-			// ok, we have a request to create digests
-			// of the resources. Since we have to output
-			// the manifest first, we have a slight problem.
-			// We can also not make multiple passes over the resource
-			// because some resources are not idempotent and/or can
-			// take significant time. So we just copy the jar
-			// to a temporary file, read it in again, calculate
-			// the checksums and save.
+			write(out, manifest, staged);
+		}
+		finally {
+			staging.delete();
+		}
+	}
 
-			String[] algs = algorithms;
-			algorithms = null;
+	private void write(OutputStream out, Manifest manifest, Map<String,StagedResource> staged) throws Exception {
+		if (compression == Compression.PARALLEL) {
+			int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+			ExecutorService pool = Executors.newFixedThreadPool(threads);
 			try {
-				File f = File.createTempFile(getName(), ".jar");
-				System.out.println("Created tmp file " + f);
-				write(f);
-				Jar tmp = new Jar(f);
-				try {
-					tmp.calcChecksums(algorithms);
-					tmp.write(out);
-				}
-				finally {
-					f.delete();
-					tmp.close();
-				}
+				write(new ParallelZipOutputStream(out, pool), manifest, staged);
 			}
 			finally {
-				algorithms = algs;
+				pool.shutdownNow();
 			}
 			return;
 		}
 
 		ZipOutputStream jout = nomanifest || doNotTouchManifest ? new ZipOutputStream(out) : new JarOutputStream(out);
+		write(jout, manifest, staged);
+	}
 
+	private void write(ZipOutputStream jout, Manifest manifest, Map<String,StagedResource> staged) throws Exception {
 		switch (compression) {
 			case STORE :
 				jout.setMethod(ZipOutputStream.DEFLATED);
@@ -298,17 +320,19 @@ public class Jar implements Closeable {
 				done.add("META-INF/MANIFEST.MF");
 			}
 		} else
-			doManifest(done, jout);
+			doManifest(done, jout, manifest == null ? getManifest() : manifest);
 
 		for (Map.Entry<String,Resource> entry : getResources().entrySet()) {
 			// Skip metainf contents
-			if (!done.contains(entry.getKey()))
-				writeResource(jout, directories, entry.getKey(), entry.getValue());
+			if (!done.contains(entry.getKey())) {
+				Resource r = staged == null ? null : staged.get(entry.getKey());
+				writeResource(jout, directories, entry.getKey(), r == null ? entry.getValue() : r);
+			}
 		}
 		jout.finish();
 	}
 
-	private void doManifest(Set<String> done, ZipOutputStream jout) throws Exception {
+	private void doManifest(Set<String> done, ZipOutputStream jout, Manifest manifest) throws Exception {
 		check();
 		if (nomanifest)
 			return;
@@ -316,7 +340,7 @@ public class Jar implements Closeable {
 		JarEntry ze = new JarEntry("META-INF/MANIFEST.MF");
 
 		jout.putNextEntry(ze);
-		writeManifest(jout);
+		writeManifest(manifest, jout);
 		jout.closeEntry();
 		done.add(ze.getName());
 	}
@@ -475,6 +499,17 @@ public class Jar implements Closeable {
 		}
 	}
 
+	/**
+	 * Copy a manifest including the attributes of its sections, the copy
+	 * constructor of {@link Manifest} shares them with the original.
+	 */
+	private static Manifest copy(Manifest org) {
+		Manifest result = new Manifest(org);
+		for (Map.Entry<String,Attributes> entry : result.getEntries().entrySet())
+			entry.setValue(new Attributes(entry.getValue()));
+		return result;
+	}
+
 	private static Manifest clean(Manifest org) {
 
 		Manifest result = new Manifest();
@@ -679,21 +714,13 @@ public class Jar implements Closeable {
 
 	public void calcChecksums(String algorithms[]) throws Exception {
 		check();
-		if (algorithms == null)
-			algorithms = new String[] {
-					"SHA", "MD5"
-			};
-
 		Manifest m = getManifest();
 		if (m == null) {
 			m = new Manifest();
 			setManifest(m);
 		}
 
-		MessageDigest digests[] = new MessageDigest[algorithms.length];
-		int n = 0;
-		for (String algorithm : algorithms)
-			digests[n++] = MessageDigest.getInstance(algorithm);
+		MessageDigest digests[] = getDigests(algorithms);
 
 		byte buffer[] = new byte[30000];
 
@@ -728,6 +755,60 @@ public class Jar implements Closeable {
 		}
 	}
 
+	private static MessageDigest[] getDigests(String algorithms[]) throws NoSuchAlgorithmException {
+		if (algorithms == null)
+			algorithms = new String[] {
+					"SHA", "MD5"
+			};
+
+		MessageDigest digests[] = new MessageDigest[algorithms.length];
+		int n = 0;
+		for (String algorithm : algorithms)
+			digests[n++] = MessageDigest.getInstance(algorithm);
+		return digests;
+	}
+
+	/**
+	 * Write each resource once to a staging area while calculating the
+	 * digests, the digests are set in the given manifest. Resources are kept in
+	 * memory until {@link #STAGING_MEMORY} bytes are used, after that they are
+	 * appended to the single temporary file of the staging area.
+	 */
+	private Map<String,StagedResource> stage(Manifest m, MessageDigest digests[], Staging staging) throws Exception {
+		Map<String,StagedResource> staged = new HashMap<String,StagedResource>();
+		for (Map.Entry<String,Resource> entry : resources.entrySet()) {
+
+			// Skip the manifest
+			if (entry.getKey().equals("META-INF/MANIFEST.MF") || entry.getValue() == null)
+				continue;
+
+			for (MessageDigest d : digests)
+				d.reset();
+
+			StagedResource r = new StagedResource(entry.getValue(), staging, digests);
+			staged.put(entry.getKey(), r);
+			try {
+				entry.getValue().write(r);
+			}
+			catch (Exception e) {
+				throw new Exception("Problem writing resource " + entry.getKey(), e);
+			}
+			finally {
+				r.close();
+			}
+
+			Attributes attributes = m.getAttributes(entry.getKey());
+			if (attributes == null) {
+				attributes = new Attributes();
+				m.getEntries().put(entry.getKey(), attributes);
+			}
+			for (MessageDigest d : digests)
+				attributes.putValue(d.getAlgorithm() + "-Digest", Base64.encodeBase64(d.digest()));
+		}
+		staging.close();
+		return staged;
+	}
+
 	Pattern	BSN	= Pattern.compile("\\s*([-\\w\\d\\._]+)\\s*;?.*");
 
 	public String getBsn() throws Exception {
@@ -820,6 +901,14 @@ public class Jar implements Closeable {
 		return this.compression;
 	}
 
+	/**
+	 * Set the number of threads used for {@link Compression#PARALLEL}, 0 uses
+	 * a thread per processor.
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
 	void check() {
 		if (closed)
 			throw new RuntimeException("Already closed " + name);
@@ -858,4 +947,168 @@ public class Jar implements Closeable {
 	public void setDigestAlgorithms(String[] algorithms) {
 		this.algorithms = algorithms;
 	}
+
+	/**
+	 * The staging area of a write. It keeps track of the memory budget and
+	 * holds the temporary file that the resources are appended to once the
+	 * budget is used.
+	 */
+	private static class Staging {
+		long			budget	= STAGING_MEMORY;
+		File			file;
+		OutputStream	out;
+		long			length;
+
+		/**
+		 * Answer the stream to append to, the staged resource must keep track
+		 * of its offset and length.
+		 */
+		OutputStream spill() throws IOException {
+			if (file == null) {
+				file = File.createTempFile("jar", ".stage");
+				out = new BufferedOutputStream(new FileOutputStream(file));
+			}
+			return out;
+		}
+
+		/**
+		 * Finish the writing, after this the staged resources can be read.
+		 */
+		void close() throws IOException {
+			if (out != null) {
+				out.close();
+				out = null;
+			}
+		}
+
+		InputStream open(final long offset, final long size) throws IOException {
+			final RandomAccessFile raf = new RandomAccessFile(file, "r");
+			raf.seek(offset);
+			return new InputStream() {
+				long	left	= size;
+
+				@Override
+				public int read() throws IOException {
+					if (left <= 0)
+						return -1;
+					left--;
+					return raf.read();
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					if (left <= 0)
+						return -1;
+					int n = raf.read(b, off, (int) Math.min(len, left));
+					if (n > 0)
+						left -= n;
+					return n;
+				}
+
+				@Override
+				public void close() throws IOException {
+					raf.close();
+				}
+			};
+		}
+
+		void delete() {
+			try {
+				close();
+			}
+			catch (IOException e) {
+				// ignore, we delete it anyway
+			}
+			if (file != null)
+				file.delete();
+		}
+	}
+
+	/**
+	 * A resource that was written to a staging area while its digests were
+	 * calculated. The content is kept in memory as long as it fits in the
+	 * budget, otherwise it is appended to the file of the staging area.
+	 */
+	private static class StagedResource extends OutputStream implements Resource {
+		final Resource			resource;
+		final Staging			staging;
+		final MessageDigest[]	digests;
+		ByteArrayOutputStream	bout	= new ByteArrayOutputStream();
+		byte[]					data;
+		long					offset	= -1;
+		long					length;
+
+		StagedResource(Resource resource, Staging staging, MessageDigest[] digests) {
+			this.resource = resource;
+			this.staging = staging;
+			this.digests = digests;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {
+				(byte) b
+			}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			for (MessageDigest d : digests)
+				d.update(b, off, len);
+
+			if (offset < 0 && bout.size() + len > staging.budget) {
+				offset = staging.length;
+				bout.writeTo(staging.spill());
+				staging.length += bout.size();
+				bout = null;
+			}
+			if (offset < 0)
+				bout.write(b, off, len);
+			else {
+				staging.spill().write(b, off, len);
+				staging.length += len;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (offset < 0) {
+				if (bout != null) {
+					data = bout.toByteArray();
+					bout = null;
+					staging.budget -= data.length;
+				}
+			} else
+				length = staging.length - offset;
+		}
+
+		public InputStream openInputStream() throws Exception {
+			if (offset >= 0)
+				return staging.open(offset, length);
+			return new ByteArrayInputStream(data);
+		}
+
+		public void write(OutputStream out) throws Exception {
+			if (offset >= 0)
+				IO.copy(openInputStream(), out);
+			else
+				out.write(data);
+		}
+
+		public long lastModified() {
+			return resource.lastModified();
+		}
+
+		public void setExtra(String extra) {
+			resource.setExtra(extra);
+		}
+
+		public String getExtra() {
+			return resource.getExtra();
+		}
+
+		public long size() {
+			return offset >= 0 ? length : data.length;
+		}
+	}
 }
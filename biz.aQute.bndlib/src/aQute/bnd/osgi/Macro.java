@@ -5,6 +5,7 @@ import java.lang.reflect.*;
 import java.net.*;
 import java.text.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.regex.*;
 
 import aQute.bnd.version.*;
@@ -42,20 +43,118 @@ public class Macro {
 
 	String process(String line, Link link) {
 		StringBuilder sb = new StringBuilder();
-		process(line, 0, '\u0000', '\u0000', sb, link);
+		getTemplate(line).process(this, sb, link);
 		return sb.toString();
 	}
 
-	int process(CharSequence org, int index, char begin, char end, StringBuilder result, Link link) {
-		StringBuilder line = new StringBuilder(org);
+	/**
+	 * A line is compiled once into a list of parts: literal text, the base
+	 * directory for a ./ and the references to macros. A reference holds the
+	 * parts of its key since the key itself can contain macros. The templates
+	 * are cached per line, the cache is cleared when the properties of the
+	 * domain change.
+	 */
+	final static int				MAX_TEMPLATES	= 2000;
+	final Map<String,Template>		templates		= new ConcurrentHashMap<String,Template>();
+
+	static abstract class Part {
+		abstract void process(Macro macro, StringBuilder result, Link link);
+	}
+
+	static class Literal extends Part {
+		final String	text;
+
+		Literal(String text) {
+			this.text = text;
+		}
+
+		@Override
+		void process(Macro macro, StringBuilder result, Link link) {
+			result.append(text);
+		}
+	}
+
+	static class Base extends Part {
+		@Override
+		void process(Macro macro, StringBuilder result, Link link) {
+			result.append(macro.domain.getBase().getAbsolutePath());
+			result.append('/');
+		}
+	}
+
+	final static Part	BASE	= new Base();
+
+	static class Template extends Part {
+		final Part[]	parts;
+
+		Template(List<Part> parts) {
+			this.parts = parts.toArray(new Part[parts.size()]);
+		}
+
+		@Override
+		void process(Macro macro, StringBuilder result, Link link) {
+			for (Part part : parts)
+				part.process(macro, result, link);
+		}
+	}
+
+	static class Reference extends Template {
+		Reference(List<Part> parts) {
+			super(parts);
+		}
+
+		@Override
+		void process(Macro macro, StringBuilder result, Link link) {
+			String key;
+			if (parts.length == 1 && parts[0] instanceof Literal)
+				key = ((Literal) parts[0]).text;
+			else {
+				StringBuilder sb = new StringBuilder();
+				super.process(macro, sb, link);
+				key = sb.toString();
+			}
+			result.append(macro.replace(key, link));
+		}
+	}
+
+	Template getTemplate(String line) {
+		Template template = templates.get(line);
+		if (template == null) {
+			List<Part> parts = new ArrayList<Part>();
+			compile(line, 0, '\u0000', '\u0000', parts);
+			template = new Template(parts);
+			if (templates.size() >= MAX_TEMPLATES)
+				templates.clear();
+			templates.put(line, template);
+		}
+		return template;
+	}
+
+	/**
+	 * Forget the template of a line.
+	 */
+	void forget(String line) {
+		templates.remove(line);
+	}
+
+	/**
+	 * Forget all templates.
+	 */
+	void clear() {
+		templates.clear();
+	}
+
+	static int compile(String line, int index, char begin, char end, List<Part> result) {
 		int nesting = 1;
 
-		StringBuilder variable = new StringBuilder();
+		List<Part> variable = new ArrayList<Part>();
+		StringBuilder literal = new StringBuilder();
 		outer: while (index < line.length()) {
 			char c1 = line.charAt(index++);
 			if (c1 == end) {
 				if (--nesting == 0) {
-					result.append(replace(variable.toString(), link));
+					flush(literal, variable);
+					result.add(new Reference(variable));
 					return index;
 				}
 			} else if (c1 == begin)
@@ -65,13 +164,14 @@ public class Macro {
 				// as a
 				// literal
 				index++;
-				variable.append('$');
+				literal.append('$');
 				continue outer;
 			} else if (c1 == '$' && index < line.length() - 2) {
 				char c2 = line.charAt(index);
 				char terminator = getTerminator(c2);
 				if (terminator != 0) {
-					index = process(line, index + 1, c2, terminator, variable, link);
+					flush(literal, variable);
+					index = compile(line, index + 1, c2, terminator, variable);
 					continue outer;
 				}
 			} else if (c1 == '.' && index < line.length() && line.charAt(index) == '/') {
@@ -79,17 +179,26 @@ public class Macro {
 				if (index == 1 || Character.isWhitespace(line.charAt(index - 2))) {
 					// make sure it is preceded by whitespace or starts at begin
 					index++;
-					variable.append(domain.getBase().getAbsolutePath());
-					variable.append('/');
+					flush(literal, variable);
+					variable.add(BASE);
 					continue outer;
 				}
 			}
-			variable.append(c1);
+			literal.append(c1);
 		}
-		result.append(variable);
+		// Not terminated, the parts are added without a reference
+		flush(literal, variable);
+		result.addAll(variable);
 		return index;
 	}
 
+	private static void flush(StringBuilder literal, List<Part> parts) {
+		if (literal.length() > 0) {
+			parts.add(new Literal(literal.toString()));
+			literal.setLength(0);
+		}
+	}
+
 	public static char getTerminator(char c) {
 		switch (c) {
 			case '(' :
@@ -215,19 +324,16 @@ public class Macro {
 			; // System.err.println("Huh? Target should never be null " +
 		// domain);
 		else {
-			String cname = "_" + method.replaceAll("-", "_");
+			Method m = getCommands(target.getClass()).get(method.replace('-', '_'));
+			if (m == null)
+				return null;
+
 			try {
-				Method m = target.getClass().getMethod(cname, new Class[] {
-					String[].class
-				});
 				Object result = m.invoke(target, new Object[] {
 					args
 				});
 				return result == null ? null : result.toString();
 			}
-			catch (NoSuchMethodException e) {
-				// Ignore
-			}
 			catch (InvocationTargetException e) {
 				if (e.getCause() instanceof IllegalArgumentException) {
 					domain.error("%s, for cmd: %s, arguments; %s", e.getCause().getMessage(), method,
@@ -245,6 +351,35 @@ public class Macro {
 		return null;
 	}
 
+	/**
+	 * The commands of a class are its public methods that start with an
+	 * underscore and take a String[]. They are collected once per class, a
+	 * name that is not in the table is not a command of the class. The tables
+	 * are kept per macro so they do not hold on to the classes of plugins
+	 * after the processor is gone.
+	 */
+	final Map<Class< ? >,Map<String,Method>>	commandTables	= new ConcurrentHashMap<Class< ? >,Map<String,Method>>();
+
+	Map<String,Method> getCommands(Class< ? > c) {
+		Map<String,Method> table = commandTables.get(c);
+		if (table != null)
+			return table;
+
+		table = new HashMap<String,Method>();
+		for (Method m : c.getMethods()) {
+			if (!m.getName().startsWith("_"))
+				continue;
+
+			Class< ? >[] types = m.getParameterTypes();
+			if (types.length != 1 || types[0] != String[].class)
+				continue;
+
+			table.put(m.getName().substring(1), m);
+		}
+		commandTables.put(c, table);
+		return table;
+	}
+
 	/**
 	 * Return a unique list where the duplicates are removed.
 	 * 
@@ -0,0 +1,263 @@
+package aQute.bnd.osgi;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+/**
+ * A ZIP output stream that deflates the entries concurrently. The content of
+ * an entry is collected while it is written, when the entry is closed it is
+ * deflated as a whole on the executor. The entries are written in the order
+ * they were put and the deflated data only depends on the content, so the
+ * output is deterministic.
+ * <p>
+ * Since the compressed size and CRC are known before an entry is written, the
+ * local headers contain them and no data descriptors are used. ZIP64 is not
+ * supported, a ZipException is thrown when the output needs it.
+ */
+class ParallelZipOutputStream extends ZipOutputStream {
+	final static int			MAX_PENDING		= 16 * 1024 * 1024;
+	final static int			UTF8_FLAG		= 0x0800;
+
+	final ExecutorService		executor;
+	final Set<String>			names			= new HashSet<String>();
+	final LinkedList<Entry>		pending			= new LinkedList<Entry>();
+	final List<Entry>			written			= new ArrayList<Entry>();
+	ZipEntry					current;
+	ByteArrayOutputStream		content;
+	long						pendingBytes;
+	long						offset;
+	boolean						finished;
+
+	static class Entry {
+		byte[]					name;
+		byte[]					extra;
+		int						method;
+		int						time;
+		long					crc;
+		long					size;
+		long					csize;
+		long					offset;
+		byte[]					stored;
+		Future<byte[]>			deflated;
+	}
+
+	ParallelZipOutputStream(OutputStream out, ExecutorService executor) {
+		super(out);
+		this.executor = executor;
+	}
+
+	@Override
+	public void putNextEntry(ZipEntry e) throws IOException {
+		if (current != null)
+			closeEntry();
+		if (!names.add(e.getName()))
+			throw new ZipException("duplicate entry: " + e.getName());
+		current = e;
+		content = new ByteArrayOutputStream();
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (current == null)
+			throw new ZipException("no current ZIP entry");
+		content.write(b, off, len);
+	}
+
+	@Override
+	public void closeEntry() throws IOException {
+		if (current == null)
+			return;
+
+		final byte[] data = content.toByteArray();
+		Entry entry = new Entry();
+		entry.name = current.getName().getBytes("UTF-8");
+		entry.extra = current.getExtra();
+		entry.method = current.getMethod() == ZipEntry.STORED ? ZipEntry.STORED : ZipEntry.DEFLATED;
+		entry.time = dosTime(current.getTime() == -1 ? System.currentTimeMillis() : current.getTime());
+		entry.size = data.length;
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		entry.crc = crc.getValue();
+		current = null;
+		content = null;
+
+		if (entry.method == ZipEntry.STORED)
+			entry.stored = data;
+		else {
+			entry.deflated = executor.submit(new Callable<byte[]>() {
+				public byte[] call() throws Exception {
+					return deflate(data);
+				}
+			});
+		}
+
+		pending.add(entry);
+		pendingBytes += data.length;
+		while (pendingBytes > MAX_PENDING && !pending.isEmpty())
+			writePending();
+	}
+
+	@Override
+	public void finish() throws IOException {
+		if (finished)
+			return;
+
+		closeEntry();
+		while (!pending.isEmpty())
+			writePending();
+
+		if (written.size() > 0xFFFF)
+			throw new ZipException("Too many entries for parallel compression: " + written.size());
+
+		long start = offset;
+		for (Entry entry : written) {
+			writeInt(0x02014b50);
+			writeShort(20);
+			writeShort(entry.method == ZipEntry.STORED ? 10 : 20);
+			writeShort(UTF8_FLAG);
+			writeShort(entry.method);
+			writeInt(entry.time);
+			writeInt(entry.crc);
+			writeInt(entry.csize);
+			writeInt(entry.size);
+			writeShort(entry.name.length);
+			writeShort(entry.extra == null ? 0 : entry.extra.length);
+			writeShort(0); // comment
+			writeShort(0); // disk
+			writeShort(0); // internal attributes
+			writeInt(0); // external attributes
+			writeInt(entry.offset);
+			writeBytes(entry.name);
+			if (entry.extra != null)
+				writeBytes(entry.extra);
+		}
+		long size = offset - start;
+		checkOffset();
+
+		writeInt(0x06054b50);
+		writeShort(0);
+		writeShort(0);
+		writeShort(written.size());
+		writeShort(written.size());
+		writeInt(size);
+		writeInt(start);
+		writeShort(0);
+		out.flush();
+		finished = true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			finish();
+		}
+		finally {
+			// The deflater of the super class is never used but holds native
+			// memory
+			def.end();
+			out.close();
+		}
+	}
+
+	private void writePending() throws IOException {
+		Entry entry = pending.removeFirst();
+		pendingBytes -= entry.size;
+
+		byte[] data = entry.stored;
+		if (data == null) {
+			try {
+				data = entry.deflated.get();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+			catch (ExecutionException e) {
+				IOException ioe = new IOException("Deflating failed: " + e.getCause());
+				ioe.initCause(e.getCause());
+				throw ioe;
+			}
+		}
+		entry.csize = data.length;
+
+		checkOffset();
+		entry.offset = offset;
+		writeInt(0x04034b50);
+		writeShort(entry.method == ZipEntry.STORED ? 10 : 20);
+		writeShort(UTF8_FLAG);
+		writeShort(entry.method);
+		writeInt(entry.time);
+		writeInt(entry.crc);
+		writeInt(entry.csize);
+		writeInt(entry.size);
+		writeShort(entry.name.length);
+		writeShort(entry.extra == null ? 0 : entry.extra.length);
+		writeBytes(entry.name);
+		if (entry.extra != null)
+			writeBytes(entry.extra);
+		writeBytes(data);
+
+		entry.stored = null;
+		entry.deflated = null;
+		written.add(entry);
+	}
+
+	/**
+	 * Deflate the content of an entry as a raw deflate stream.
+	 */
+	static byte[] deflate(byte[] data) {
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		try {
+			deflater.setInput(data);
+			deflater.finish();
+
+			ByteArrayOutputStream bout = new ByteArrayOutputStream(data.length / 2 + 64);
+			byte[] buffer = new byte[16 * 1024];
+			while (!deflater.finished()) {
+				int n = deflater.deflate(buffer);
+				bout.write(buffer, 0, n);
+			}
+			return bout.toByteArray();
+		}
+		finally {
+			deflater.end();
+		}
+	}
+
+	private void checkOffset() throws ZipException {
+		if (offset > 0xFFFFFFFFL)
+			throw new ZipException("Output too large for parallel compression");
+	}
+
+	private void writeShort(int v) throws IOException {
+		out.write(v & 0xFF);
+		out.write((v >>> 8) & 0xFF);
+		offset += 2;
+	}
+
+	private void writeInt(long v) throws IOException {
+		writeShort((int) (v & 0xFFFF));
+		writeShort((int) ((v >>> 16) & 0xFFFF));
+	}
+
+	private void writeBytes(byte[] b) throws IOException {
+		out.write(b);
+		offset += b.length;
+	}
+
+	/**
+	 * Convert a time in milliseconds to the MS-DOS date and time format used
+	 * in ZIP headers, in the local time zone like {@link ZipEntry}.
+	 */
+	static int dosTime(long time) {
+		Calendar c = Calendar.getInstance();
+		c.setTimeInMillis(time);
+		int year = c.get(Calendar.YEAR);
+		if (year < 1980)
+			return (1 << 21) | (1 << 16);
+		return (year - 1980) << 25 | (c.get(Calendar.MONTH) + 1) << 21 | c.get(Calendar.DAY_OF_MONTH) << 16
+				| c.get(Calendar.HOUR_OF_DAY) << 11 | c.get(Calendar.MINUTE) << 5 | c.get(Calendar.SECOND) >> 1;
+	}
+}
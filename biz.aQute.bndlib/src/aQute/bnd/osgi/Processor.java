@@ -18,14 +18,15 @@ import aQute.service.reporter.*;
 public class Processor extends Domain implements Reporter, Registry, Constants, Closeable {
 
 	static ThreadLocal<Processor>	current			= new ThreadLocal<Processor>();
+	static ThreadLocal<Boolean>		serial			= new ThreadLocal<Boolean>();
 	static ExecutorService			executor		= Executors.newCachedThreadPool();
 	static Random					random			= new Random();
 
 	// TODO handle include files out of date
 	// TODO make splitter skip eagerly whitespace so trim is not necessary
 	public final static String		LIST_SPLITTER	= "\\s*,\\s*";
-	final List<String>				errors			= new ArrayList<String>();
-	final List<String>				warnings		= new ArrayList<String>();
+	final List<String>				errors			= Collections.synchronizedList(new ArrayList<String>());
+	final List<String>				warnings		= Collections.synchronizedList(new ArrayList<String>());
 	final Set<Object>				basicPlugins	= new HashSet<Object>();
 	private final Set<Closeable>	toBeClosed		= new HashSet<Closeable>();
 	Set<Object>						plugins;
@@ -50,13 +51,88 @@ public class Processor extends Domain implements Reporter, Registry, Constants,
 	CL								pluginLoader;
 	Collection<String>				filter;
 	HashSet<String>					missingCommand;
+	volatile int					generation;
+	private volatile EffectiveProperties	effective;
+
+	/**
+	 * Properties that count their changes in the generation of the
+	 * processor, see {@link EffectiveProperties}.
+	 */
+	class TrackedProperties extends Properties {
+		private static final long	serialVersionUID	= 1L;
+
+		TrackedProperties(Properties defaults) {
+			super(defaults);
+		}
+
+		@Override
+		public synchronized Object put(Object key, Object value) {
+			generation++;
+			return super.put(key, value);
+		}
+
+		@Override
+		public synchronized Object remove(Object key) {
+			generation++;
+			return super.remove(key);
+		}
+
+		@Override
+		public synchronized void clear() {
+			generation++;
+			super.clear();
+		}
+
+		/**
+		 * Since Java 9 {@link Properties#putAll(Map)} no longer calls
+		 * {@link #put(Object, Object)}.
+		 */
+		@Override
+		public synchronized void putAll(Map< ? , ? > t) {
+			generation++;
+			super.putAll(t);
+		}
+
+		// The Map methods added in Java 8 that do not take a function are
+		// implemented with put and remove. The ones that take a function
+		// cannot be declared on Java 5 and are not tracked.
+
+		public synchronized Object putIfAbsent(Object key, Object value) {
+			Object old = get(key);
+			if (old == null)
+				put(key, value);
+			return old;
+		}
+
+		public synchronized boolean remove(Object key, Object value) {
+			Object old = get(key);
+			if (old == null || !old.equals(value))
+				return false;
+			remove(key);
+			return true;
+		}
+
+		public synchronized Object replace(Object key, Object value) {
+			if (!containsKey(key))
+				return null;
+			return put(key, value);
+		}
+
+		public synchronized boolean replace(Object key, Object oldValue, Object newValue) {
+			Object old = get(key);
+			if (old == null || !old.equals(oldValue))
+				return false;
+			put(key, newValue);
+			return true;
+		}
+	}
 
 	public Processor() {
-		properties = new Properties();
+		properties = new TrackedProperties(null);
 	}
 
 	public Processor(Properties parent) {
-		properties = new Properties(parent);
+		properties = new TrackedProperties(parent);
 	}
 
 	public Processor(Processor child) {
@@ -66,7 +142,7 @@ public class Processor extends Domain implements Reporter, Registry, Constants,
 
 	public void setParent(Processor processor) {
 		this.parent = processor;
-		Properties ext = new Properties(processor.properties);
+		Properties ext = new TrackedProperties(processor.properties);
 		ext.putAll(this.properties);
 		this.properties = ext;
 	}
@@ -75,6 +151,17 @@ public class Processor extends Domain implements Reporter, Registry, Constants,
 		return parent;
 	}
 
+	/**
+	 * Answer the flattened view on the properties of this processor and its
+	 * parents, it is made again when any of them has changed.
+	 */
+	EffectiveProperties getEffectiveProperties() {
+		EffectiveProperties e = effective;
+		if (e == null || !e.isValid(this))
+			effective = e = new EffectiveProperties(this);
+		return e;
+	}
+
 	public Processor getTop() {
 		if (parent == null)
 			return this;
@@ -117,8 +204,10 @@ public class Processor extends Domain implements Reporter, Registry, Constants,
 	public SetLocation warning(String string, Object... args) {
 		Processor p = current();
 		String s = formatArrays(string, args);
-		if (!p.warnings.contains(s))
-			p.warnings.add(s);
+		synchronized (p.warnings) {
+			if (!p.warnings.contains(s))
+				p.warnings.add(s);
+		}
 		p.signal();
 		return location(s);
 	}
@@ -129,8 +218,10 @@ public class Processor extends Domain implements Reporter, Registry, Constants,
 			if (p.isFailOk())
 				return p.warning(string, args);
 			String s = formatArrays(string, args == null ? new Object[0] : args);
-			if (!p.errors.contains(s))
-				p.errors.add(s);
+			synchronized (p.errors) {
+				if (!p.errors.contains(s))
+					p.errors.add(s);
+			}
 			return location(s);
 		}
 		finally {
@@ -159,10 +250,12 @@ public class Processor extends Domain implements Reporter, Registry, Constants,
 			if (p.isFailOk()) {
 				return p.warning(string + ": " + t, args);
 			}
-			p.errors.add("Exception: " + t.getMessage());
 			String s = formatArrays(string, args == null ? new Object[0] : args);
-			if (!p.errors.contains(s))
-				p.errors.add(s);
+			synchronized (p.errors) {
+				p.errors.add("Exception: " + t.getMessage());
+				if (!p.errors.contains(s))
+					p.errors.add(s);
+			}
 			return location(s);
 		}
 		finally {
@@ -657,9 +750,10 @@ public class Processor extends Domain implements Reporter, Registry, Constants,
 	}
 
 	public boolean refresh() {
-		plugins = null; // We always refresh our plugins
-		
-		
+		synchronized (this) {
+			plugins = null; // We always refresh our plugins
+		}
+
 		if (propertiesFile == null)
 			return false;
 
@@ -692,7 +786,10 @@ public class Processor extends Domain implements Reporter, Registry, Constants,
 		propertiesChanged();
 	}
 
-	public void propertiesChanged() {}
+	public void propertiesChanged() {
+		if (replacer != null)
+			replacer.clear();
+	}
 
 	/**
 	 * Set the properties by file. Setting the properties this way will also set
@@ -747,6 +844,54 @@ public class Processor extends Domain implements Reporter, Registry, Constants,
 		return !"false".equalsIgnoreCase(value);
 	}
 
+	/**
+	 * Answer the number of threads that may be used for work that can be done
+	 * in parallel. The {@link Constants#PARALLEL} option is either a number of
+	 * threads or a boolean, true means one thread per available processor.
+	 * Answers 1 when the option is not set, meaning work must be done serially.
+	 * 
+	 * @return the number of threads, at least 1
+	 */
+	public int getParallelism() {
+		if (serial.get() != null)
+			return 1;
+
+		return getParallelism(getProperty(PARALLEL));
+	}
+
+	/**
+	 * Answer the number of threads for the value of a parallel option, either
+	 * a number of threads or a boolean where true means one thread per
+	 * available processor.
+	 * 
+	 * @return the number of threads, 1 when the value is null
+	 */
+	public static int getParallelism(String parallel) {
+		if (parallel == null)
+			return 1;
+
+		parallel = parallel.trim();
+		if (parallel.matches("\\d+"))
+			return Math.max(1, Integer.parseInt(parallel));
+
+		if (isTrue(parallel))
+			return Runtime.getRuntime().availableProcessors();
+
+		return 1;
+	}
+
+	/**
+	 * Mark the current thread as one that already runs in parallel with other
+	 * work, {@link #getParallelism()} then answers 1 so no nested pools are
+	 * started.
+	 */
+	public static void setSerial(boolean on) {
+		if (on)
+			serial.set(Boolean.TRUE);
+		else
+			serial.remove();
+	}
+
 	/**
 	 * Get a property without preprocessing it with a proper default
 	 * 
@@ -769,22 +914,20 @@ public class Processor extends Domain implements Reporter, Registry, Constants,
 	public String getProperty(String key, String deflt) {
 
 		String value = null;
+		EffectiveProperties effective = getEffectiveProperties();
 
 		Instruction ins = new Instruction(key);
 		if (!ins.isLiteral()) {
 			// Handle a wildcard key, make sure they're sorted
 			// for consistency
-			SortedList<String> sortedList = SortedList.fromIterator(iterator());
 			StringBuilder sb = new StringBuilder();
 			String del = "";
-			for (String k : sortedList) {
-				if (ins.matches(k)) {
-					String v = getProperty(k, null);
-					if (v != null) {
-						sb.append(del);
-						del = ",";
-						sb.append(v);
-					}
+			for (String k : effective.select(key, ins)) {
+				String v = getProperty(k, null);
+				if (v != null) {
+					sb.append(del);
+					del = ",";
+					sb.append(v);
 				}
 			}
 			if (sb.length() == 0)
@@ -799,34 +942,24 @@ public class Processor extends Domain implements Reporter, Registry, Constants,
 
 		if (filter != null && filter.contains(key)) {
 			value = (String) getProperties().get(key);
-		} else {
-			while (source != null) {
-				value = (String) source.getProperties().get(key);
-				if (value != null)
-					break;
 
-				source = source.getParent();
-			}
-		}
-
-		// Check if we found a value, if not, try to prefix
-		// it with a profile if found and search again. profiles
-		// are a simple name that is prefixed like [profile]. This
-		// allows different variables to be used in different profiles.
+			// Check if we found a value, if not, try to prefix
+			// it with a profile if found and search again. profiles
+			// are a simple name that is prefixed like [profile]. This
+			// allows different variables to be used in different
+			// profiles.
 
-		if (value == null && profile != null) {
-			String pkey = "[" + profile + "]" + key;
-			if (filter != null && filter.contains(key)) {
+			if (value == null && profile != null) {
+				String pkey = "[" + profile + "]" + key;
 				value = (String) getProperties().get(pkey);
-			} else {
-				while (source != null) {
-					value = (String) source.getProperties().get(pkey);
-					if (value != null)
-						break;
-
-					source = source.getParent();
-				}
 			}
+		} else {
+			EffectiveProperties.Definition definition = effective.get(key);
+			if (definition != null) {
+				value = definition.value;
+				source = definition.source;
+			} else
+				source = null;
 		}
 
 		if (value != null)
@@ -1031,7 +1164,9 @@ public class Processor extends Domain implements Reporter, Registry, Constants,
 				break checkheader;
 			}
 		}
-		getProperties().put(key, value);
+		Object old = getProperties().put(key, value);
+		if (old != null && replacer != null)
+			replacer.forget(old.toString());
 	}
 
 	/**
@@ -0,0 +1,28 @@
+package aQute.bnd.service;
+
+import aQute.bnd.osgi.*;
+
+/**
+ * An analyzer plugin that wants to look at the classes in the class space can
+ * implement this interface to subscribe to a single pass over the class space.
+ * Before the {@link AnalyzerPlugin}s are called, the analyzer asks each class
+ * parser for a collector for each class and parses the class once for all
+ * collectors. The plugin can then get its collector back with
+ * {@link Analyzer#getClassDataCollector(ClassParser, Clazz)} instead of
+ * parsing the class again.
+ */
+public interface ClassParser {
+
+	/**
+	 * Answer a collector for the given class.
+	 *
+	 * @param analyzer
+	 *            the analyzer
+	 * @param clazz
+	 *            the class that is going to be parsed
+	 * @return a collector for the class or null if this plugin is not
+	 *         interested in the class
+	 * @throws Exception
+	 */
+	ClassDataCollector getClassDataCollector(Analyzer analyzer, Clazz clazz) throws Exception;
+}
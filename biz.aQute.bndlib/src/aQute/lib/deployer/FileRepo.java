@@ -202,6 +202,27 @@ public class FileRepo implements Plugin, RepositoryPlugin, Refreshable, Registry
 	boolean						inited;
 	boolean						trace;
 
+	/*
+	 * The in memory index of the bsns and their versions, see getIndex()
+	 */
+	final Object				lock				= new Object();
+	final Map<String,BsnEntry>	index				= new TreeMap<String,BsnEntry>();
+	long						indexed				= -1;
+
+	/**
+	 * The versions in a bsn directory, valid as long as the directory has the
+	 * same modification time.
+	 */
+	static class BsnEntry {
+		final File			dir;
+		long				lastModified	= -1;
+		SortedSet<Version>	versions;
+
+		BsnEntry(File dir) {
+			this.dir = dir;
+		}
+	}
+
 	public FileRepo() {}
 
 	public FileRepo(String name, File location, boolean canWrite) {
@@ -326,6 +347,7 @@ public class FileRepo implements Plugin, RepositoryPlugin, Refreshable, Registry
 			tmpJar.close();
 
 			IO.rename(tmpFile, file);
+			update(bsn);
 
 			fireBundleAdded(file);
 			afterPut(file, bsn, version, Hex.toHexString(digest));
@@ -424,16 +446,11 @@ public class FileRepo implements Plugin, RepositoryPlugin, Refreshable, Registry
 			if (reporter != null)
 				reporter.error("FileRepo root directory is not set.");
 		} else {
-			File[] list = root.listFiles();
-			if (list != null) {
-				for (File f : list) {
-					if (!f.isDirectory())
-						continue; // ignore non-directories
-					String fileName = f.getName();
-					if (fileName.charAt(0) == '.')
-						continue; // ignore hidden files
-					if (pattern == null || pattern.matches(fileName))
-						result.add(fileName);
+			List<String> bsns = getIndex();
+			if (bsns != null) {
+				for (String bsn : bsns) {
+					if (pattern == null || pattern.matches(bsn))
+						result.add(bsn);
 				}
 			} else if (reporter != null)
 				reporter.error("FileRepo root directory (%s) does not exist", root);
@@ -444,10 +461,59 @@ public class FileRepo implements Plugin, RepositoryPlugin, Refreshable, Registry
 
 	public SortedSet<Version> versions(String bsn) throws Exception {
 		init();
-		File dir = new File(root, bsn);
-		if (dir.isDirectory()) {
-			String versions[] = dir.list();
-			List<Version> list = new ArrayList<Version>();
+		synchronized (lock) {
+			if (getIndex() != null) {
+				BsnEntry entry = index.get(bsn);
+				if (entry != null) {
+					long lastModified = entry.dir.lastModified();
+					if (entry.versions == null || entry.lastModified != lastModified)
+						index(entry, lastModified);
+					return entry.versions;
+				}
+			}
+		}
+		return SortedList.empty();
+	}
+
+	/**
+	 * Answer the bsns in the repository or null if the root cannot be listed.
+	 * The bsns and their versions are kept in memory. The root and a bsn
+	 * directory are only listed again when their modification time changes,
+	 * adding or removing a file changes the modification time of the
+	 * directory it is in. A directory that was modified just before it was
+	 * listed is listed again on the next query, the modification time may not
+	 * be precise enough to detect a later change.
+	 */
+	private List<String> getIndex() {
+		synchronized (lock) {
+			long lastModified = root.lastModified();
+			if (indexed < 0 || indexed != lastModified) {
+				File[] list = root.listFiles();
+				if (list == null)
+					return null;
+
+				Set<String> bsns = new HashSet<String>();
+				for (File f : list) {
+					if (!f.isDirectory())
+						continue; // ignore non-directories
+					String fileName = f.getName();
+					if (fileName.charAt(0) == '.')
+						continue; // ignore hidden files
+					bsns.add(fileName);
+					if (!index.containsKey(fileName))
+						index.put(fileName, new BsnEntry(f));
+				}
+				index.keySet().retainAll(bsns);
+				indexed = stable(lastModified);
+			}
+			return new ArrayList<String>(index.keySet());
+		}
+	}
+
+	private void index(BsnEntry entry, long lastModified) {
+		List<Version> list = new ArrayList<Version>();
+		String versions[] = entry.dir.list();
+		if (versions != null) {
 			for (String v : versions) {
 				Matcher m = REPO_FILE.matcher(v);
 				if (m.matches()) {
@@ -457,9 +523,32 @@ public class FileRepo implements Plugin, RepositoryPlugin, Refreshable, Registry
 					list.add(new Version(version));
 				}
 			}
-			return new SortedList<Version>(list);
 		}
-		return SortedList.empty();
+		entry.versions = new SortedList<Version>(list);
+		entry.lastModified = stable(lastModified);
+	}
+
+	/**
+	 * Answer the modification time if it is old enough to detect a later
+	 * change, otherwise -1 so the directory is listed again.
+	 */
+	private static long stable(long lastModified) {
+		if (System.currentTimeMillis() - lastModified < 2000)
+			return -1;
+		return lastModified;
+	}
+
+	/**
+	 * Update the index after the files of a bsn changed.
+	 */
+	protected void update(String bsn) {
+		synchronized (lock) {
+			BsnEntry entry = index.get(bsn);
+			if (entry == null)
+				indexed = -1;
+			else
+				entry.versions = null;
+		}
 	}
 
 	@Override
@@ -474,6 +563,10 @@ public class FileRepo implements Plugin, RepositoryPlugin, Refreshable, Registry
 	public boolean refresh() throws Exception {
 		init();
 		exec(refresh, root);
+		synchronized (lock) {
+			index.clear();
+			indexed = -1;
+		}
 		if (dirty) {
 			dirty = false;
 			return true;
@@ -525,7 +618,7 @@ public class FileRepo implements Plugin, RepositoryPlugin, Refreshable, Registry
 			return null; // no default actions
 
 		try {
-			String bsn = (String) target[0];
+			final String bsn = (String) target[0];
 			Version version = (Version) target[1];
 
 			final File f = get(bsn, version, null);
@@ -538,6 +631,7 @@ public class FileRepo implements Plugin, RepositoryPlugin, Refreshable, Registry
 					IO.delete(f);
 					if (f.getParentFile().list().length == 0)
 						IO.delete(f.getParentFile());
+					update(bsn);
 					afterAction(f, "delete");
 				};
 			});
@@ -3,6 +3,7 @@ package aQute.junit;
 import java.io.*;
 import java.lang.reflect.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import junit.framework.*;
 
@@ -18,6 +19,7 @@ public class Activator extends Thread implements BundleActivator, TesterConstant
 	int					port		= -1;
 	boolean				continuous	= false;
 	boolean				trace		= false;
+	int					parallel	= 1;
 	PrintStream			out			= System.err;
 	JUnitEclipseReport	jUnitEclipseReport;
 
@@ -43,6 +45,7 @@ public class Activator extends Thread implements BundleActivator, TesterConstant
 	public void run() {
 		continuous = Boolean.valueOf(context.getProperty(TESTER_CONTINUOUS));
 		trace = context.getProperty(TESTER_TRACE) != null;
+		parallel = getParallelism(context.getProperty(TESTER_PARALLEL));
 		String testcases = context.getProperty(TESTER_NAMES);
 		if (context.getProperty(TESTER_PORT) != null) {
 			port = Integer.parseInt(context.getProperty(TESTER_PORT));
@@ -233,7 +236,10 @@ public class Activator extends Thread implements BundleActivator, TesterConstant
 						tr.begin(flattened, realcount);
 					}
 					trace("running suite " + suite);
-					suite.run(result);
+					if (parallel > 1)
+						run(suite, result, basic, systemOut, systemErr);
+					else
+						suite.run(result);
 
 				}
 				catch (Throwable t) {
@@ -265,6 +271,74 @@ public class Activator extends Thread implements BundleActivator, TesterConstant
 		return -1;
 	}
 
+	/**
+	 * Run the test classes of the suite concurrently. The tests of a class run
+	 * on one thread, the events are reported in the order of the suite as
+	 * soon as the class and the classes before it are done.
+	 */
+	private void run(TestSuite suite, final TestResult result, final BasicTestReport basic, final Tee systemOut,
+			final Tee systemErr) throws Exception {
+		Map<String,TestSuite> classes = new LinkedHashMap<String,TestSuite>();
+		for (Enumeration< ? > e = suite.tests(); e.hasMoreElements();) {
+			Test test = (Test) e.nextElement();
+			String name = getClassName(test);
+			TestSuite tests = classes.get(name);
+			if (tests == null) {
+				tests = new TestSuite(name);
+				classes.put(name, tests);
+			}
+			tests.addTest(test);
+		}
+
+		trace("running %s test classes on %s threads", classes.size(), parallel);
+		ExecutorService pool = Executors.newFixedThreadPool(parallel);
+		try {
+			List<Future<TestRecorder>> futures = new ArrayList<Future<TestRecorder>>();
+			for (final TestSuite tests : classes.values()) {
+				futures.add(pool.submit(new Callable<TestRecorder>() {
+					public TestRecorder call() throws Exception {
+						return new TestRecorder(result, basic, systemOut, systemErr).run(tests);
+					}
+				}));
+			}
+			for (Future<TestRecorder> future : futures) {
+				future.get().replay();
+			}
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private static String getClassName(Test test) {
+		if (test instanceof TestSuite && ((TestSuite) test).getName() != null)
+			return ((TestSuite) test).getName();
+
+		if (test instanceof JUnit4TestAdapter)
+			return ((JUnit4TestAdapter) test).getTestClass().getName();
+
+		return test.getClass().getName();
+	}
+
+	/**
+	 * Answer the number of threads for {@link #TESTER_PARALLEL}, a number of
+	 * threads or true for the number of processors. Anything else runs the
+	 * tests serially.
+	 */
+	static int getParallelism(String parallel) {
+		if (parallel == null)
+			return 1;
+
+		parallel = parallel.trim();
+		if (parallel.matches("\\d+"))
+			return Math.max(1, Integer.parseInt(parallel));
+
+		if (Boolean.parseBoolean(parallel))
+			return Runtime.getRuntime().availableProcessors();
+
+		return 1;
+	}
+
 	private TestSuite createSuite(Bundle tfw, List<String> testNames, TestResult result) throws Exception {
 		TestSuite suite = new TestSuite();
 		for (String fqn : testNames) {
@@ -9,13 +9,32 @@ import junit.framework.*;
 import org.osgi.framework.*;
 
 public class BasicTestReport implements TestListener, TestReporter {
-	private int				errors;
-	private PrintStream		out;
-	private final Tee		systemOut;
-	private final Tee		systemErr;
-	private int				fails;
-	private Bundle			targetBundle;
-	private final Activator	activator;
+	private int						errors;
+	private PrintStream				out;
+	private final Tee				systemOut;
+	private final Tee				systemErr;
+	private int						fails;
+	private Bundle					targetBundle;
+	private final Activator			activator;
+	private final Map<Test,Outcome>	outcomes	= Collections.synchronizedMap(new HashMap<Test,Outcome>());
+	private Test					endedTest;
+	private Outcome					ended;
+
+	/**
+	 * The output and duration of a test that ran on another thread. The events
+	 * of such a test are reported after it ran.
+	 */
+	static class Outcome {
+		final String	out;
+		final String	err;
+		final long		time;
+
+		Outcome(String out, String err, long time) {
+			this.out = out;
+			this.err = err;
+			this.time = time;
+		}
+	}
 
 	public BasicTestReport(Activator activator, Tee systemOut, Tee systemErr) {
 		this.systemOut = systemOut;
@@ -48,6 +67,20 @@ public class BasicTestReport implements TestListener, TestReporter {
 	public void startTest(Test test) {
 		activator.trace("  >> %s", test);
 		check();
+
+		endedTest = null;
+		ended = null;
+
+		// A test that ran on another thread already has its context
+		if (!outcomes.containsKey(test))
+			setContext(test);
+
+		fails = 0;
+		systemOut.clear().capture(true).echo(true);
+		systemErr.clear().capture(true).echo(true);
+	}
+
+	void setContext(Test test) {
 		Bundle b = targetBundle;
 		if (b == null)
 			b = FrameworkUtil.getBundle(test.getClass());
@@ -78,18 +111,22 @@ public class BasicTestReport implements TestListener, TestReporter {
 				}
 			}
 		}
-		fails = 0;
-		systemOut.clear().capture(true).echo(true);
-		systemErr.clear().capture(true).echo(true);
 	}
 
 	public void endTest(Test test) {
 		activator.trace("  << %s, fails=%s, errors=%s", test, fails, errors);
 		systemOut.capture(false);
 		systemErr.capture(false);
+
+		// The reporters after us still ask for the outcome of this test, it
+		// is kept until the next test starts
+		endedTest = test;
+		ended = outcomes.remove(test);
+
 		if (fails > 0) {
-			String sysout = systemOut.getContent();
-			String syserr = systemErr.getContent();
+			String[] captured = getCaptured(test);
+			String sysout = captured[0];
+			String syserr = captured[1];
 			if (sysout != null)
 				activator.trace("out: %s", sysout);
 			if (syserr != null) {
@@ -117,4 +154,39 @@ public class BasicTestReport implements TestListener, TestReporter {
 				systemOut.getContent(), systemErr.getContent()
 		};
 	}
+
+	/**
+	 * Remember the outcome of a test that ran on another thread.
+	 */
+	void ran(Test test, String out, String err, long time) {
+		outcomes.put(test, new Outcome(out, err, time));
+	}
+
+	/**
+	 * Answer the output of the test, either captured on another thread or
+	 * since the test started.
+	 */
+	public String[] getCaptured(Test test) {
+		Outcome outcome = getOutcome(test);
+		if (outcome == null)
+			return getCaptured();
+		return new String[] {
+				outcome.out, outcome.err
+		};
+	}
+
+	/**
+	 * Answer the duration of the test if it ran on another thread, otherwise
+	 * the given duration.
+	 */
+	long getTime(Test test, long time) {
+		Outcome outcome = getOutcome(test);
+		return outcome == null ? time : outcome.time;
+	}
+
+	private Outcome getOutcome(Test test) {
+		if (test == endedTest)
+			return ended;
+		return outcomes.get(test);
+	}
 }
@@ -207,7 +207,7 @@ public class JunitXmlReport implements TestReporter {
 	}
 
 	public void endTest(Test test) {
-		String[] outs = basic.getCaptured();
+		String[] outs = basic.getCaptured(test);
 		if (outs[0] != null) {
 			Tag sysout = new Tag(testcase, "system-out");
 			sysout.addContent(outs[0]);
@@ -218,7 +218,8 @@ public class JunitXmlReport implements TestReporter {
 			sysout.addContent(outs[1]);
 		}
 
-		testcase.addAttribute("time", getFraction(System.currentTimeMillis() - testStartTime, 1000));
+		long time = basic.getTime(test, System.currentTimeMillis() - testStartTime);
+		testcase.addAttribute("time", getFraction(time, 1000));
 		tests++;
 		tests++;
 	}
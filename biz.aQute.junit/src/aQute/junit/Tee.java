@@ -3,10 +3,11 @@ package aQute.junit;
 import java.io.*;
 
 public class Tee extends OutputStream {
-	PrintStream				oldStream;
-	ByteArrayOutputStream	buffer	= new ByteArrayOutputStream();
-	boolean					capture;
-	boolean					echo;
+	PrintStream									oldStream;
+	ByteArrayOutputStream						buffer			= new ByteArrayOutputStream();
+	final ThreadLocal<ByteArrayOutputStream>	threadBuffer	= new ThreadLocal<ByteArrayOutputStream>();
+	boolean										capture;
+	boolean										echo;
 
 	public Tee(PrintStream oldOut) {
 		oldStream = oldOut;
@@ -23,13 +24,41 @@ public class Tee extends OutputStream {
 
 	@Override
 	public void write(int character) throws IOException {
-		if (capture)
+		ByteArrayOutputStream local = threadBuffer.get();
+		if (local != null)
+			local.write(character);
+		else if (capture)
 			buffer.write(character);
 		if (echo)
 			oldStream.write(character);
 	}
 
 	public String getContent() {
+		return getContent(buffer);
+	}
+
+	/**
+	 * Capture the output of the current thread in its own buffer until
+	 * {@link #endThreadCapture()} is called. This keeps the output of tests
+	 * that run concurrently apart.
+	 */
+	public Tee beginThreadCapture() {
+		threadBuffer.set(new ByteArrayOutputStream());
+		return this;
+	}
+
+	/**
+	 * Stop capturing the output of the current thread separately.
+	 *
+	 * @return the output of the current thread or null if there was none
+	 */
+	public String endThreadCapture() {
+		ByteArrayOutputStream local = threadBuffer.get();
+		threadBuffer.remove();
+		return local == null ? null : getContent(local);
+	}
+
+	private static String getContent(ByteArrayOutputStream buffer) {
 		if (buffer.size() == 0)
 			return null;
 		try {
@@ -0,0 +1,103 @@
+package aQute.junit;
+
+import java.util.*;
+
+import junit.framework.*;
+
+/**
+ * Runs tests on a worker thread and records the events. The reporters are not
+ * thread safe and must report the tests in a deterministic order, so the
+ * events are replayed on the test thread after the tests ran. The output of
+ * the tests is captured per thread and handed to the {@link BasicTestReport}
+ * together with the duration of the test.
+ */
+public class TestRecorder implements TestListener {
+	final static int		START	= 0;
+	final static int		ERROR	= 1;
+	final static int		FAILURE	= 2;
+	final static int		END		= 3;
+
+	final TestResult		result;
+	final BasicTestReport	basic;
+	final Tee				systemOut;
+	final Tee				systemErr;
+	final TestResult		local	= new TestResult();
+	final List<Event>		events	= new ArrayList<Event>();
+	long					start;
+
+	static class Event {
+		final int		type;
+		final Test		test;
+		final Throwable	t;
+
+		Event(int type, Test test, Throwable t) {
+			this.type = type;
+			this.test = test;
+			this.t = t;
+		}
+	}
+
+	public TestRecorder(TestResult result, BasicTestReport basic, Tee systemOut, Tee systemErr) {
+		this.result = result;
+		this.basic = basic;
+		this.systemOut = systemOut;
+		this.systemErr = systemErr;
+		local.addListener(this);
+	}
+
+	/**
+	 * Run the test on the current thread, the events are recorded.
+	 */
+	public TestRecorder run(Test test) {
+		test.run(local);
+		return this;
+	}
+
+	/**
+	 * Report the recorded events to the result of the test run.
+	 */
+	public void replay() {
+		for (Event event : events) {
+			switch (event.type) {
+				case START :
+					result.startTest(event.test);
+					break;
+				case ERROR :
+					result.addError(event.test, event.t);
+					break;
+				case FAILURE :
+					result.addFailure(event.test, (AssertionFailedError) event.t);
+					break;
+				case END :
+					result.endTest(event.test);
+					break;
+			}
+		}
+	}
+
+	public void startTest(Test test) {
+		basic.check();
+		if (result.shouldStop())
+			local.stop();
+
+		basic.setContext(test);
+		systemOut.beginThreadCapture();
+		systemErr.beginThreadCapture();
+		start = System.currentTimeMillis();
+		events.add(new Event(START, test, null));
+	}
+
+	public void addError(Test test, Throwable t) {
+		events.add(new Event(ERROR, test, t));
+	}
+
+	public void addFailure(Test test, AssertionFailedError t) {
+		events.add(new Event(FAILURE, test, t));
+	}
+
+	public void endTest(Test test) {
+		long time = System.currentTimeMillis() - start;
+		basic.ran(test, systemOut.endThreadCapture(), systemErr.endThreadCapture(), time);
+		events.add(new Event(END, test, null));
+	}
+}
@@ -39,4 +39,12 @@ public interface TesterConstants {
 	 */
 	String	TESTER_TRACE		= "tester.trace";
 
+	/**
+	 * Run the test classes concurrently. The value is the number of threads or
+	 * true for the number of processors. The tests of a class run on the same
+	 * thread, the reports list the tests in the same order as when they run
+	 * serially. Default is to run the tests serially.
+	 */
+	String	TESTER_PARALLEL		= "tester.parallel";
+
 }
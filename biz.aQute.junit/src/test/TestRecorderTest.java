@@ -0,0 +1,109 @@
+package test;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import junit.framework.*;
+import aQute.junit.*;
+
+public class TestRecorderTest extends TestCase {
+	static PrintStream	out;
+
+	public static class A extends TestCase {
+		public A(String name) {
+			super(name);
+		}
+
+		public void testA1() throws Exception {
+			// Make sure the tests of B are done first
+			Thread.sleep(200);
+			out.print("a1");
+		}
+
+		public void testA2() {
+			out.print("a2");
+		}
+	}
+
+	public static class B extends TestCase {
+		public B(String name) {
+			super(name);
+		}
+
+		public void testB1() {
+			out.print("b1");
+			fail("b1");
+		}
+	}
+
+	/**
+	 * The tests of two classes run concurrently, the events must be replayed
+	 * in the order of the classes and each test must get its own output.
+	 */
+	public void testReplay() throws Exception {
+		final Tee systemOut = new Tee(new PrintStream(new ByteArrayOutputStream()));
+		final Tee systemErr = new Tee(new PrintStream(new ByteArrayOutputStream()));
+		out = systemOut.getStream();
+
+		final List<String> events = new ArrayList<String>();
+		final BasicTestReport basic = new BasicTestReport(new Activator(), systemOut, systemErr);
+		final TestResult result = new TestResult();
+		result.addListener(basic);
+		result.addListener(new TestListener() {
+			public void startTest(Test test) {
+				events.add("start " + name(test));
+			}
+
+			public void addError(Test test, Throwable t) {
+				events.add("error " + name(test));
+			}
+
+			public void addFailure(Test test, AssertionFailedError t) {
+				events.add("failure " + name(test));
+			}
+
+			public void endTest(Test test) {
+				events.add("end " + name(test) + " " + basic.getCaptured(test)[0]);
+			}
+		});
+
+		TestSuite a = new TestSuite();
+		Test a1 = new A("testA1");
+		a.addTest(a1);
+		a.addTest(new A("testA2"));
+		TestSuite b = new TestSuite();
+		b.addTest(new B("testB1"));
+
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		try {
+			List<Future<TestRecorder>> futures = new ArrayList<Future<TestRecorder>>();
+			for (final TestSuite tests : new TestSuite[] {
+					a, b
+			}) {
+				futures.add(pool.submit(new Callable<TestRecorder>() {
+					public TestRecorder call() throws Exception {
+						return new TestRecorder(result, basic, systemOut, systemErr).run(tests);
+					}
+				}));
+			}
+			for (Future<TestRecorder> future : futures)
+				future.get().replay();
+		}
+		finally {
+			pool.shutdownNow();
+		}
+
+		assertEquals(Arrays.asList("start testA1", "end testA1 a1", "start testA2", "end testA2 a2", "start testB1",
+				"failure testB1", "end testB1 b1"), events);
+		assertEquals(3, result.runCount());
+		assertEquals(1, result.failureCount());
+
+		// The outcomes are forgotten once reported
+		assertNull(basic.getCaptured(a1)[0]);
+	}
+
+	static String name(Test test) {
+		return ((TestCase) test).getName();
+	}
+}
@@ -176,8 +176,7 @@ public abstract class AbstractIndexedRepo implements RegistryPlugin, Plugin, Rem
 					CachingUriResourceHandle indexHandle = new CachingUriResourceHandle(indexLocation, getCacheDirectory(), connector, CachingMode.PreferRemote);
 					indexHandle.setReporter(reporter);
 					File indexFile = indexHandle.request();
-					InputStream indexStream = GZipUtils.detectCompression(new FileInputStream(indexFile));
-					readIndex(indexFile.getName(), indexLocation, indexStream, processor);
+					readIndex(indexFile, indexLocation, processor);
 				}
 				catch (Exception e) {
 					if (reporter != null)
@@ -412,6 +411,43 @@ public abstract class AbstractIndexedRepo implements RegistryPlugin, Plugin, Rem
 		throw new IllegalArgumentException("Failed to convert resource content location to a valid URI.");
 	}
 
+	/**
+	 * Read an index file. When there is a cache directory, the parsed index is
+	 * kept as a binary snapshot next to the cached indexes and the snapshot is
+	 * used as long as the index file does not change. Referrals in the index
+	 * are always passed to the processor, their indexes are read again.
+	 */
+	private void readIndex(File indexFile, URI baseUri, IRepositoryIndexProcessor processor) throws Exception {
+		File cacheDir = getCacheDirectory();
+		File snapshot = null;
+		if (cacheDir != null) {
+			snapshot = IndexSnapshot.getSnapshotFile(cacheDir, indexFile, baseUri);
+			try {
+				if (IndexSnapshot.read(snapshot, indexFile, processor))
+					return;
+			}
+			catch (Exception e) {
+				if (reporter != null)
+					reporter.warning("Unable to read index snapshot %s for %s: %s", snapshot, baseUri, e);
+			}
+		}
+
+		IndexSnapshot recorder = snapshot == null ? null : new IndexSnapshot(processor);
+		InputStream indexStream = GZipUtils.detectCompression(new FileInputStream(indexFile));
+		readIndex(indexFile.getName(), baseUri, indexStream, recorder == null ? processor : recorder);
+
+		if (recorder != null) {
+			try {
+				if (!recorder.write(snapshot, indexFile))
+					IO.delete(snapshot);
+			}
+			catch (Exception e) {
+				if (reporter != null)
+					reporter.warning("Unable to write index snapshot %s for %s: %s", snapshot, baseUri, e);
+			}
+		}
+	}
+
 	private void readIndex(String name, URI baseUri, InputStream stream, IRepositoryIndexProcessor listener)
 			throws Exception {
 		// Make sure we have a buffering stream
@@ -5,13 +5,25 @@ import java.util.*;
 import org.osgi.framework.*;
 import org.osgi.resource.*;
 
-
+/**
+ * Index of capabilities by namespace. Next to the list of capabilities per
+ * namespace, the capabilities are indexed on the value of their primary
+ * attribute, the attribute with the same name as the namespace like
+ * {@code osgi.wiring.package} or {@code osgi.identity}. When a requirement
+ * filter requires an exact value for the primary attribute, either directly or
+ * as a term of a top level {@code &}, only the capabilities with that value are
+ * matched against the filter. All other filters scan the whole namespace.
+ */
 public class CapabilityIndex {
 
-	private final Map<String,List<Capability>>	capabilityMap	= new HashMap<String,List<Capability>>();
+	private final Map<String,List<Capability>>				capabilityMap	= new HashMap<String,List<Capability>>();
+	private final Map<String,Map<String,List<Capability>>>	primaryMap		= new HashMap<String,Map<String,List<Capability>>>();
+	private final Set<String>								unindexed		= new HashSet<String>();
 
 	public void clear() {
 		capabilityMap.clear();
+		primaryMap.clear();
+		unindexed.clear();
 	}
 
 	public void addResource(Resource resource) {
@@ -23,14 +35,54 @@ public class CapabilityIndex {
 			addCapability(cap);
 		}
 	}
-	
+
 	public void addCapability(Capability cap) {
-		List<Capability> list = capabilityMap.get(cap.getNamespace());
+		String namespace = cap.getNamespace();
+		List<Capability> list = capabilityMap.get(namespace);
 		if (list == null) {
 			list = new LinkedList<Capability>();
-			capabilityMap.put(cap.getNamespace(), list);
+			capabilityMap.put(namespace, list);
 		}
 		list.add(cap);
+
+		// A namespace with a capability that has a primary value we cannot
+		// index, is always scanned
+		if (unindexed.contains(namespace))
+			return;
+
+		Object value = cap.getAttributes().get(namespace);
+		Collection< ? > values;
+		if (value instanceof String)
+			values = Collections.singleton(value);
+		else if (value instanceof Collection && !((Collection< ? >) value).isEmpty())
+			values = (Collection< ? >) value;
+		else {
+			unindexed.add(namespace);
+			primaryMap.remove(namespace);
+			return;
+		}
+
+		for (Object v : values) {
+			if (!(v instanceof String)) {
+				unindexed.add(namespace);
+				primaryMap.remove(namespace);
+				return;
+			}
+		}
+
+		Map<String,List<Capability>> primary = primaryMap.get(namespace);
+		if (primary == null) {
+			primary = new HashMap<String,List<Capability>>();
+			primaryMap.put(namespace, primary);
+		}
+		for (Object v : new LinkedHashSet<Object>(values)) {
+			List<Capability> caps = primary.get(v);
+			if (caps == null) {
+				caps = new ArrayList<Capability>(1);
+				primary.put((String) v, caps);
+			}
+			caps.add(cap);
+		}
 	}
 
 	public void appendMatchingCapabilities(Requirement requirement, Collection< ? super Capability> capabilities) {
@@ -42,7 +94,18 @@ public class CapabilityIndex {
 			String filterStr = requirement.getDirectives().get(Namespace.REQUIREMENT_FILTER_DIRECTIVE);
 			Filter filter = filterStr != null ? FrameworkUtil.createFilter(filterStr) : null;
 
-			for (Capability cap : caps) {
+			Collection<Capability> candidates = caps;
+			Map<String,List<Capability>> primary = primaryMap.get(requirement.getNamespace());
+			if (filterStr != null && primary != null) {
+				String value = getPrimaryValue(filterStr, requirement.getNamespace());
+				if (value != null) {
+					candidates = primary.get(value);
+					if (candidates == null)
+						return;
+				}
+			}
+
+			for (Capability cap : candidates) {
 				boolean match;
 				if (filter == null)
 					match = true;
@@ -58,4 +121,56 @@ public class CapabilityIndex {
 		}
 	}
 
+	/**
+	 * Answer the value the filter requires for the given attribute. This is
+	 * only found for a simple {@code (key=value)} filter or when such a filter
+	 * is a direct term of a top level {@code &}. Values with wildcards or
+	 * escapes are not recognized.
+	 *
+	 * @param filter
+	 *            the filter string, must be valid
+	 * @param key
+	 *            the attribute
+	 * @return the required value or null if it cannot be determined
+	 */
+	static String getPrimaryValue(String filter, String key) {
+		filter = filter.trim();
+		if (filter.startsWith("(&")) {
+			int depth = 0;
+			int start = -1;
+			for (int i = 2; i < filter.length() - 1; i++) {
+				char c = filter.charAt(i);
+				if (c == '\\') {
+					i++;
+				} else if (c == '(') {
+					if (depth++ == 0)
+						start = i;
+				} else if (c == ')') {
+					if (--depth == 0) {
+						String value = getSimpleValue(filter.substring(start, i + 1), key);
+						if (value != null)
+							return value;
+					}
+				}
+			}
+			return null;
+		}
+		return getSimpleValue(filter, key);
+	}
+
+	private static String getSimpleValue(String term, String key) {
+		if (!term.startsWith("(") || !term.endsWith(")"))
+			return null;
+
+		int n = term.indexOf('=');
+		if (n < 0 || !term.substring(1, n).trim().equals(key))
+			return null;
+
+		String value = term.substring(n + 1, term.length() - 1);
+		if (value.indexOf('*') >= 0 || value.indexOf('\\') >= 0 || value.indexOf('(') >= 0 || value.indexOf(')') >= 0)
+			return null;
+
+		return value;
+	}
+
 }
@@ -0,0 +1,316 @@
+package aQute.bnd.deployer.repository;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.FileChannel.MapMode;
+import java.security.*;
+import java.util.*;
+
+import org.osgi.framework.*;
+import org.osgi.resource.*;
+
+import aQute.bnd.deployer.repository.api.*;
+import aQute.bnd.osgi.resource.*;
+import aQute.lib.hex.*;
+import aQute.lib.io.*;
+
+/**
+ * A binary snapshot of the resources and referrals parsed from an index file.
+ * Parsing a large XML index takes seconds, reading the snapshot only has to
+ * rebuild the resources. The snapshot is stored in the cache directory of the
+ * repository and is only used when the length, modification time and SHA-1 of
+ * the index file are the same as when the snapshot was written.
+ * <p>
+ * When a resource has an attribute of a type that cannot be stored, no
+ * snapshot is written and the index is always parsed.
+ */
+class IndexSnapshot implements IRepositoryIndexProcessor {
+	final static int				MAGIC		= 0x424e4453;	// BNDS
+	final static int				VERSION		= 1;
+
+	final static int				STRING		= 0;
+	final static int				VERSION_	= 1;
+	final static int				LONG		= 2;
+	final static int				DOUBLE		= 3;
+	final static int				URI_		= 4;
+	final static int				LIST		= 5;
+
+	final IRepositoryIndexProcessor	delegate;
+	final List<Resource>			resources	= new ArrayList<Resource>();
+	final List<Referral>			referrals	= new ArrayList<Referral>();
+	final List<URI>					parents		= new ArrayList<URI>();
+	final List<int[]>				depths		= new ArrayList<int[]>();
+
+	/**
+	 * Create a processor that records the parsed resources and referrals
+	 * while forwarding them to the delegate.
+	 */
+	IndexSnapshot(IRepositoryIndexProcessor delegate) {
+		this.delegate = delegate;
+	}
+
+	public void processResource(Resource resource) {
+		resources.add(resource);
+		delegate.processResource(resource);
+	}
+
+	public void processReferral(URI parentUri, Referral referral, int maxDepth, int currentDepth) {
+		referrals.add(referral);
+		parents.add(parentUri);
+		depths.add(new int[] {
+				maxDepth, currentDepth
+		});
+		delegate.processReferral(parentUri, referral, maxDepth, currentDepth);
+	}
+
+	/**
+	 * Answer the snapshot file for an index file. Relative URLs in the index
+	 * are resolved against the base URI so it is part of the key.
+	 */
+	static File getSnapshotFile(File cacheDir, File indexFile, URI baseUri) throws Exception {
+		MessageDigest md = MessageDigest.getInstance("SHA1");
+		md.update(indexFile.getAbsolutePath().getBytes("UTF-8"));
+		md.update((byte) 0);
+		md.update(baseUri.toString().getBytes("UTF-8"));
+		return new File(cacheDir, "snapshots/" + Hex.toHexString(md.digest()));
+	}
+
+	/**
+	 * Replay the snapshot of the index file to the processor.
+	 *
+	 * @return false if there is no valid snapshot, nothing was processed
+	 */
+	static boolean read(File snapshot, File indexFile, IRepositoryIndexProcessor processor) throws Exception {
+		if (!snapshot.isFile())
+			return false;
+
+		List<Resource> resources = new ArrayList<Resource>();
+		List<Object[]> referrals = new ArrayList<Object[]>();
+
+		RandomAccessFile raf = new RandomAccessFile(snapshot, "r");
+		try {
+			ByteBuffer bb = raf.getChannel().map(MapMode.READ_ONLY, 0, raf.length());
+			DataInput in = new ByteBufferDataInput(bb);
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				return false;
+			if (in.readLong() != indexFile.length() || in.readLong() != indexFile.lastModified())
+				return false;
+			byte[] sha = new byte[in.readUnsignedShort()];
+			in.readFully(sha);
+			if (!Arrays.equals(sha, digest(indexFile)))
+				return false;
+
+			int n = in.readInt();
+			for (int i = 0; i < n; i++) {
+				ResourceBuilder builder = new ResourceBuilder();
+				int caps = in.readInt();
+				for (int c = 0; c < caps; c++)
+					builder.addCapability(readCapReq(in));
+				int reqs = in.readInt();
+				for (int r = 0; r < reqs; r++)
+					builder.addRequirement(readCapReq(in));
+				resources.add(builder.build());
+			}
+
+			n = in.readInt();
+			for (int i = 0; i < n; i++) {
+				String parent = readString(in);
+				Referral referral = new Referral(readString(in), in.readInt());
+				referrals.add(new Object[] {
+						new URI(parent), referral, in.readInt(), in.readInt()
+				});
+			}
+		}
+		catch (IOException e) {
+			// corrupt or truncated, parse the index again
+			return false;
+		}
+		finally {
+			raf.close();
+		}
+
+		for (Resource resource : resources)
+			processor.processResource(resource);
+		for (Object[] r : referrals)
+			processor.processReferral((URI) r[0], (Referral) r[1], (Integer) r[2], (Integer) r[3]);
+		return true;
+	}
+
+	/**
+	 * Write the recorded resources and referrals as the snapshot of the index
+	 * file.
+	 *
+	 * @return false if the resources cannot be stored
+	 */
+	boolean write(File snapshot, File indexFile) throws Exception {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bout);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(indexFile.length());
+		out.writeLong(indexFile.lastModified());
+		byte[] sha = digest(indexFile);
+		out.writeShort(sha.length);
+		out.write(sha);
+
+		out.writeInt(resources.size());
+		for (Resource resource : resources) {
+			List<Capability> caps = resource.getCapabilities(null);
+			out.writeInt(caps.size());
+			for (Capability cap : caps)
+				if (!writeCapReq(out, cap.getNamespace(), cap.getAttributes(), cap.getDirectives()))
+					return false;
+			List<Requirement> reqs = resource.getRequirements(null);
+			out.writeInt(reqs.size());
+			for (Requirement req : reqs)
+				if (!writeCapReq(out, req.getNamespace(), req.getAttributes(), req.getDirectives()))
+					return false;
+		}
+
+		out.writeInt(referrals.size());
+		for (int i = 0; i < referrals.size(); i++) {
+			writeString(out, parents.get(i).toString());
+			writeString(out, referrals.get(i).getUrl());
+			out.writeInt(referrals.get(i).getDepth());
+			out.writeInt(depths.get(i)[0]);
+			out.writeInt(depths.get(i)[1]);
+		}
+		out.close();
+
+		File dir = snapshot.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs())
+			return false;
+
+		// Write to a temporary file and rename so a concurrent reader never
+		// sees a partial snapshot
+		File tmp = IO.createTempFile(dir, snapshot.getName(), ".tmp");
+		FileOutputStream fout = new FileOutputStream(tmp);
+		try {
+			bout.writeTo(fout);
+		}
+		finally {
+			fout.close();
+		}
+		snapshot.delete();
+		if (!tmp.renameTo(snapshot)) {
+			IO.delete(tmp);
+			return false;
+		}
+		return true;
+	}
+
+	private static CapReqBuilder readCapReq(DataInput in) throws IOException {
+		CapReqBuilder builder = new CapReqBuilder(readString(in));
+		int n = in.readInt();
+		for (int i = 0; i < n; i++) {
+			String key = readString(in);
+			builder.addAttribute(key, readValue(in));
+		}
+		n = in.readInt();
+		for (int i = 0; i < n; i++) {
+			String key = readString(in);
+			builder.addDirective(key, readString(in));
+		}
+		return builder;
+	}
+
+	private static boolean writeCapReq(DataOutput out, String namespace, Map<String,Object> attributes,
+			Map<String,String> directives) throws IOException {
+		writeString(out, namespace);
+		out.writeInt(attributes.size());
+		for (Map.Entry<String,Object> entry : attributes.entrySet()) {
+			writeString(out, entry.getKey());
+			if (!writeValue(out, entry.getValue()))
+				return false;
+		}
+		out.writeInt(directives.size());
+		for (Map.Entry<String,String> entry : directives.entrySet()) {
+			writeString(out, entry.getKey());
+			writeString(out, entry.getValue());
+		}
+		return true;
+	}
+
+	private static Object readValue(DataInput in) throws IOException {
+		int type = in.readByte();
+		switch (type) {
+			case STRING :
+				return readString(in);
+			case VERSION_ :
+				return Version.parseVersion(readString(in));
+			case LONG :
+				return in.readLong();
+			case DOUBLE :
+				return in.readDouble();
+			case URI_ :
+				try {
+					return new URI(readString(in));
+				}
+				catch (URISyntaxException e) {
+					throw new IOException(e.getMessage());
+				}
+			case LIST :
+				int n = in.readInt();
+				List<Object> list = new ArrayList<Object>(n);
+				for (int i = 0; i < n; i++)
+					list.add(readValue(in));
+				return list;
+			default :
+				throw new IOException("Unknown attribute type in snapshot " + type);
+		}
+	}
+
+	private static boolean writeValue(DataOutput out, Object value) throws IOException {
+		if (value instanceof String) {
+			out.writeByte(STRING);
+			writeString(out, (String) value);
+		} else if (value instanceof Version) {
+			out.writeByte(VERSION_);
+			writeString(out, value.toString());
+		} else if (value instanceof Long) {
+			out.writeByte(LONG);
+			out.writeLong((Long) value);
+		} else if (value instanceof Double) {
+			out.writeByte(DOUBLE);
+			out.writeDouble((Double) value);
+		} else if (value instanceof URI) {
+			out.writeByte(URI_);
+			writeString(out, value.toString());
+		} else if (value instanceof List) {
+			out.writeByte(LIST);
+			List< ? > list = (List< ? >) value;
+			out.writeInt(list.size());
+			for (Object o : list)
+				if (!writeValue(out, o))
+					return false;
+		} else
+			return false;
+		return true;
+	}
+
+	/*
+	 * Strings are written with an int length, DataOutput.writeUTF is limited
+	 * to 64k which is too small for some descriptions and filters
+	 */
+	private static String readString(DataInput in) throws IOException {
+		int length = in.readInt();
+		if (length < 0)
+			throw new IOException("Invalid string length in snapshot " + length);
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	private static void writeString(DataOutput out, String s) throws IOException {
+		byte[] bytes = s.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static byte[] digest(File file) throws Exception {
+		MessageDigest md = MessageDigest.getInstance("SHA1");
+		IO.copy(file, md);
+		return md.digest();
+	}
+}
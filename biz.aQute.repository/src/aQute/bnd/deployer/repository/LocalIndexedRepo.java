@@ -4,6 +4,7 @@ import java.io.*;
 import java.net.*;
 import java.security.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import org.osgi.service.coordinator.*;
 import org.osgi.service.log.*;
@@ -13,15 +14,19 @@ import aQute.bnd.filerepo.*;
 import aQute.bnd.osgi.*;
 import aQute.bnd.service.*;
 import aQute.bnd.version.*;
+import aQute.lib.hex.*;
 import aQute.lib.io.*;
+import aQute.libg.cryptography.SHA1;
 
 public class LocalIndexedRepo extends FixedIndexedRepo implements Refreshable, Participant {
 
 	private static final String			CACHE_PATH				= ".cache";
+	private static final String			FRAGMENTS_PATH			= "fragments";
 	public static final String			PROP_LOCAL_DIR			= "local";
 	public static final String			PROP_READONLY			= "readonly";
 	public static final String			PROP_PRETTY				= "pretty";
 	public static final String			PROP_OVERWRITE			= "overwrite";
+	public static final String			PROP_PARALLEL			= "parallel";
 
 	private static final VersionRange	RANGE_ANY				= new VersionRange(Version.LOWEST.toString());
 
@@ -29,11 +34,34 @@ public class LocalIndexedRepo extends FixedIndexedRepo implements Refreshable, P
 	private boolean						readOnly;
 	private boolean						pretty					= false;
 	private boolean						overwrite				= true;
+	private int							parallel				= 1;
 	private File						storageDir;
 
 	// @GuardedBy("newFilesInCoordination")
 	private final List<URI>				newFilesInCoordination	= new LinkedList<URI>();
 
+	private final Map<File,FileKey>		fileKeys				= new ConcurrentHashMap<File,FileKey>();
+
+	/**
+	 * The key of the fragment of a file, valid as long as the file is not
+	 * modified.
+	 */
+	private static class FileKey {
+		final long		length;
+		final long		lastModified;
+		final String	key;
+
+		FileKey(File file, String key) {
+			this.length = file.length();
+			this.lastModified = file.lastModified();
+			this.key = key;
+		}
+
+		boolean isValid(File file) {
+			return file.length() == length && file.lastModified() == lastModified;
+		}
+	}
+
 	@Override
 	public synchronized void setProperties(Map<String,String> map) {
 		super.setProperties(map);
@@ -52,6 +80,7 @@ public class LocalIndexedRepo extends FixedIndexedRepo implements Refreshable, P
 		readOnly = Boolean.parseBoolean(map.get(PROP_READONLY));
 		pretty = Boolean.parseBoolean(map.get(PROP_PRETTY));
 		overwrite = map.get(PROP_OVERWRITE) == null ? true : Boolean.parseBoolean(map.get(PROP_OVERWRITE));
+		parallel = Processor.getParallelism(map.get(PROP_PARALLEL));
 
 		// Configure the storage repository
 		storageRepo = new FileRepo(storageDir);
@@ -133,13 +162,116 @@ public class LocalIndexedRepo extends FixedIndexedRepo implements Refreshable, P
 			out = new FileOutputStream(indexFile);
 
 			URI rootUri = storageDir.getCanonicalFile().toURI();
-			provider.generateIndex(allFiles, out, this.getName(), rootUri, pretty, registry, logService);
+			if (provider instanceof IRepositoryFragmentProvider) {
+				IRepositoryFragmentProvider fragmentProvider = (IRepositoryFragmentProvider) provider;
+				List<File> fragments = getFragments(allFiles, fragmentProvider, rootUri);
+				fragmentProvider.generateIndex(fragments, out, this.getName(), pretty);
+			} else
+				provider.generateIndex(allFiles, out, this.getName(), rootUri, pretty, registry, logService);
 		}
 		finally {
 			IO.close(out);
 		}
 	}
 
+	/**
+	 * Answer the fragments that describe the files, in the order of the file
+	 * names. A fragment is only generated when there is no fragment for the
+	 * content of the file at its location, so after a put only the new file
+	 * is analyzed. When the repository is parallel, the files are analyzed by
+	 * a pool of workers. Fragments that are no longer used are removed.
+	 */
+	private synchronized List<File> getFragments(Set<File> files, final IRepositoryFragmentProvider provider,
+			final URI rootUri) throws Exception {
+		final File dir = new File(cacheDir, FRAGMENTS_PATH + "/" + provider.getName());
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Could not create directory " + dir);
+
+		List<File> sorted = new ArrayList<File>(files);
+		Collections.sort(sorted);
+
+		List<File> fragments = new ArrayList<File>(sorted.size());
+		int threads = Math.min(parallel, sorted.size());
+		if (threads <= 1) {
+			for (File file : sorted)
+				fragments.add(getFragment(dir, file, provider, rootUri));
+		} else {
+			ExecutorService pool = Executors.newFixedThreadPool(threads);
+			try {
+				List<Future<File>> futures = new ArrayList<Future<File>>(sorted.size());
+				for (final File file : sorted) {
+					futures.add(pool.submit(new Callable<File>() {
+						public File call() throws Exception {
+							return getFragment(dir, file, provider, rootUri);
+						}
+					}));
+				}
+				for (Future<File> future : futures) {
+					try {
+						fragments.add(future.get());
+					}
+					catch (ExecutionException e) {
+						if (e.getCause() instanceof Exception)
+							throw (Exception) e.getCause();
+						throw e;
+					}
+				}
+			}
+			finally {
+				pool.shutdownNow();
+			}
+		}
+
+		Set<File> used = new HashSet<File>(fragments);
+		File[] existing = dir.listFiles();
+		if (existing != null)
+			for (File f : existing)
+				if (!used.contains(f))
+					IO.delete(f);
+
+		fileKeys.keySet().retainAll(files);
+		return fragments;
+	}
+
+	/**
+	 * Answer the fragment of a file, generate it when it does not exist. This
+	 * can be called concurrently for different files.
+	 */
+	private File getFragment(File dir, File file, IRepositoryFragmentProvider provider, URI rootUri)
+			throws Exception {
+		File fragment = new File(dir, getFileKey(file, rootUri) + ".xml");
+		if (!fragment.isFile()) {
+			File tmp = IO.createTempFile(dir, "fragment", ".tmp");
+			Writer out = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+			try {
+				provider.generateFragment(file, out, rootUri, registry, logService);
+			}
+			finally {
+				IO.close(out);
+			}
+			IO.rename(tmp, fragment);
+		}
+		return fragment;
+	}
+
+	/**
+	 * Answer the key of the fragment of a file. The fragment holds the URL of
+	 * the file relative to the root so the key covers the SHA-1 of the content
+	 * and the relative location. The key is only calculated again when the
+	 * file has changed in length or time stamp.
+	 */
+	private String getFileKey(File file, URI rootUri) throws Exception {
+		FileKey fileKey = fileKeys.get(file);
+		if (fileKey == null || !fileKey.isValid(file)) {
+			MessageDigest md = MessageDigest.getInstance("SHA1");
+			md.update(SHA1.digest(file).digest());
+			md.update(rootUri.relativize(file.toURI()).toString().getBytes("UTF-8"));
+			fileKey = new FileKey(file, Hex.toHexString(md.digest()));
+			fileKeys.put(file, fileKey);
+		}
+		return fileKey.key;
+	}
+
 	private void gatherFiles(Set<File> allFiles) throws Exception {
 		List<String> bsns = storageRepo.list(null);
 		if (bsns != null)
@@ -0,0 +1,59 @@
+package aQute.bnd.deployer.repository.api;
+
+import java.io.*;
+import java.net.*;
+
+import org.osgi.service.log.*;
+
+import aQute.bnd.service.*;
+
+/**
+ * A content provider that can generate the index in parts. The description of
+ * each file is generated once into a fragment, the index is then assembled
+ * from the fragments. This allows a repository to only analyze the files that
+ * are new or have changed.
+ */
+public interface IRepositoryFragmentProvider extends IRepositoryContentProvider {
+
+	/**
+	 * Generate the description of a single file. The fragment must only depend
+	 * on the content of the file and its location relative to the root URI.
+	 *
+	 * @param file
+	 *            The file to be described.
+	 * @param output
+	 *            The writer on which the fragment should be written.
+	 * @param rootUri
+	 *            The URI of the repository.
+	 * @param registry
+	 *            The bnd workspace plug-in registry if available, or
+	 *            {@code null}.
+	 * @param log
+	 *            The OSGi log service if available, or {@code null}.
+	 * @throws Exception
+	 *             If any other error unrecoverable occurs.
+	 */
+	void generateFragment(File file, Writer output, URI rootUri, Registry registry, LogService log) throws Exception;
+
+	/**
+	 * Generate a new repository index to a stream from fragments that were
+	 * generated with
+	 * {@link #generateFragment(File, Writer, URI, Registry, LogService)}. The
+	 * fragments are copied to the output, they are not held in memory.
+	 *
+	 * @param fragments
+	 *            The files holding the fragments, in UTF-8.
+	 * @param output
+	 *            The output stream, on which the index should be written.
+	 * @param repoName
+	 *            The name of the repository, which may be entered into the
+	 *            generated index.
+	 * @param pretty
+	 *            Hint to request "pretty printing", i.e. uncompressed, indented
+	 *            output.
+	 * @throws Exception
+	 *             If any other error unrecoverable occurs.
+	 */
+	void generateIndex(Iterable<File> fragments, OutputStream output, String repoName, boolean pretty)
+			throws Exception;
+}
@@ -13,6 +13,7 @@ import org.osgi.framework.*;
 import org.osgi.resource.Resource;
 import org.osgi.service.indexer.*;
 import org.osgi.service.indexer.impl.*;
+import org.osgi.service.indexer.impl.util.*;
 import org.osgi.service.log.*;
 import org.osgi.service.repository.*;
 
@@ -20,7 +21,7 @@ import aQute.bnd.deployer.repository.api.*;
 import aQute.bnd.osgi.resource.*;
 import aQute.bnd.service.*;
 
-public class R5RepoContentProvider implements IRepositoryContentProvider {
+public class R5RepoContentProvider implements IRepositoryFragmentProvider {
 
 	public static final String	NAME					= "R5";
 
@@ -37,6 +38,11 @@ public class R5RepoContentProvider implements IRepositoryContentProvider {
 	private static final String	TAG_ATTRIBUTE			= "attribute";
 	private static final String	TAG_DIRECTIVE			= "directive";
 
+	/**
+	 * Fixes the increment of the index, like it does for RepoIndex
+	 */
+	public static final String	REPOSITORY_INCREMENT_OVERRIDE	= "-repository.increment.override";
+
 	private static final String	ATTR_REFERRAL_URL		= "url";
 	private static final String	ATTR_REFERRAL_DEPTH		= "depth";
 
@@ -244,6 +250,99 @@ public class R5RepoContentProvider implements IRepositoryContentProvider {
 	}
 
 	public void generateIndex(Set<File> files, OutputStream output, String repoName, URI baseUri, boolean pretty, Registry registry, LogService log) throws Exception {
+		RepoIndex indexer = createIndexer(registry, log);
+
+		Map<String,String> config = config(repoName, pretty);
+		config.put(ResourceIndexer.ROOT_URL, baseUri.toString());
+
+		indexer.index(files, output, config);
+	}
+
+	/*
+	 * The fragment is the resource as RepoIndex.index prints it inside the
+	 * repository, so it already has the indentation of a nested tag. RepoIndex
+	 * only prints the resources with that indentation in a whole index, so
+	 * the resource is taken out of the index of just this file.
+	 */
+	public void generateFragment(File file, Writer output, URI rootUri, Registry registry, LogService log)
+			throws Exception {
+		RepoIndex indexer = createIndexer(registry, log);
+
+		Map<String,String> config = config(null, true);
+		config.put(ResourceIndexer.ROOT_URL, rootUri.toString());
+
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		indexer.index(Collections.singleton(file), bout, config);
+
+		// RepoIndex writes with the default encoding
+		String index = new String(bout.toByteArray());
+		int start = index.indexOf('>', index.indexOf("<" + Schema.ELEM_REPOSITORY)) + 1;
+		int end = index.lastIndexOf("\n</" + Schema.ELEM_REPOSITORY);
+		output.write(index, start, end - start);
+	}
+
+	public void generateIndex(Iterable<File> fragments, OutputStream output, String repoName, boolean pretty)
+			throws Exception {
+		generateIndex(fragments, output, config(repoName, pretty));
+	}
+
+	/**
+	 * Write the index from fragments with the configuration of
+	 * {@link RepoIndex#index(Set, OutputStream, Map)}, the name and increment
+	 * are taken from the configuration in the same way. The fragments are
+	 * indented for a pretty index, which is also what RepoIndex writes since
+	 * the configuration always holds {@link ResourceIndexer#PRETTY}.
+	 */
+	public void generateIndex(Iterable<File> fragments, OutputStream output, Map<String,String> config)
+			throws Exception {
+		// RepoIndex writes with the default encoding
+		PrintWriter pw = new PrintWriter(output);
+		pw.print(Schema.XML_PROCESSING_INSTRUCTION);
+
+		Tag repoTag = new Tag(Schema.ELEM_REPOSITORY);
+
+		String repoName = config.get(ResourceIndexer.REPOSITORY_NAME);
+		if (repoName == null)
+			repoName = ResourceIndexer.REPOSITORYNAME_DEFAULT;
+		repoTag.addAttribute(Schema.ATTR_NAME, repoName);
+
+		String increment = config.get(REPOSITORY_INCREMENT_OVERRIDE);
+		if (increment == null)
+			increment = Long.toString(System.currentTimeMillis());
+		repoTag.addAttribute(Schema.ATTR_INCREMENT, increment);
+
+		repoTag.addAttribute(Schema.ATTR_XML_NAMESPACE, Schema.NAMESPACE);
+
+		repoTag.printOpen(Indent.PRETTY, pw, false);
+		char[] buffer = new char[8192];
+		for (File fragment : fragments) {
+			Reader in = new InputStreamReader(new FileInputStream(fragment), "UTF-8");
+			try {
+				int size;
+				while ((size = in.read(buffer)) > 0)
+					pw.write(buffer, 0, size);
+			}
+			finally {
+				in.close();
+			}
+		}
+		repoTag.printClose(Indent.PRETTY, pw);
+		pw.flush();
+	}
+
+	/**
+	 * The configuration for RepoIndex. {@link ResourceIndexer#PRETTY} is
+	 * always set, so RepoIndex never compresses the output.
+	 */
+	private static Map<String,String> config(String repoName, boolean pretty) {
+		Map<String,String> config = new HashMap<String,String>();
+		if (repoName != null)
+			config.put(ResourceIndexer.REPOSITORY_NAME, repoName);
+		config.put(ResourceIndexer.PRETTY, Boolean.toString(pretty));
+		return config;
+	}
+
+	private static RepoIndex createIndexer(Registry registry, LogService log) throws InvalidSyntaxException {
 		RepoIndex indexer;
 		if (log != null)
 			indexer = new RepoIndex(log);
@@ -258,12 +357,6 @@ public class R5RepoContentProvider implements IRepositoryContentProvider {
 				indexer.addAnalyzer(analyzer, null);
 			}
 		}
-
-		Map<String,String> config = new HashMap<String,String>();
-		config.put(ResourceIndexer.REPOSITORY_NAME, repoName);
-		config.put(ResourceIndexer.ROOT_URL, baseUri.toString());
-		config.put(ResourceIndexer.PRETTY, Boolean.toString(pretty));
-
-		indexer.index(files, output, config);
+		return indexer;
 	}
 }
@@ -87,4 +87,38 @@ public class FindProvidersTest extends TestCase {
 		}
 	}
 
+	public static void testIndexedCapabilityLookup() throws Exception {
+		CapabilityIndex index = new CapabilityIndex();
+		index.addResource(new ResourceBuilder().addCapability(
+				new CapReqBuilder("osgi.wiring.package").addAttribute("osgi.wiring.package", "org.example.a")
+						.addAttribute("version", new Version("1.0.0"))).build());
+		index.addResource(new ResourceBuilder().addCapability(
+				new CapReqBuilder("osgi.wiring.package").addAttribute("osgi.wiring.package", "org.example.a")
+						.addAttribute("version", new Version("2.0.0"))).build());
+		index.addResource(new ResourceBuilder().addCapability(
+				new CapReqBuilder("osgi.wiring.package").addAttribute("osgi.wiring.package", "org.example.b")
+						.addAttribute("version", new Version("1.0.0"))).build());
+
+		assertEquals(1, match(index, CapReqBuilder.createPackageRequirement("org.example.a", "[1,2)")
+				.buildSyntheticRequirement()));
+		assertEquals(2, match(index, CapReqBuilder.createPackageRequirement("org.example.a", null)
+				.buildSyntheticRequirement()));
+		assertEquals(0, match(index, CapReqBuilder.createPackageRequirement("org.example.c", null)
+				.buildSyntheticRequirement()));
+
+		// filters that cannot be decomposed scan the namespace
+		assertEquals(3, match(index, new CapReqBuilder("osgi.wiring.package").addDirective("filter",
+				"(|(osgi.wiring.package=org.example.a)(osgi.wiring.package=org.example.b))").buildSyntheticRequirement()));
+		assertEquals(3, match(index, new CapReqBuilder("osgi.wiring.package").addDirective("filter",
+				"(osgi.wiring.package=org.example.*)").buildSyntheticRequirement()));
+		assertEquals(1, match(index, new CapReqBuilder("osgi.wiring.package").addDirective("filter",
+				"(&(!(osgi.wiring.package=org.example.a))(version>=1.0))").buildSyntheticRequirement()));
+		assertEquals(3, match(index, new CapReqBuilder("osgi.wiring.package").buildSyntheticRequirement()));
+	}
+
+	private static int match(CapabilityIndex index, Requirement requirement) {
+		List<Capability> caps = new ArrayList<Capability>();
+		index.appendMatchingCapabilities(requirement, caps);
+		return caps.size();
+	}
 }
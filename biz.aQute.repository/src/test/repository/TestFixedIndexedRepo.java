@@ -5,11 +5,16 @@ import java.util.*;
 import java.util.concurrent.atomic.*;
 
 import junit.framework.*;
+
+import org.osgi.resource.*;
+
 import test.lib.*;
 import aQute.bnd.deployer.repository.*;
 import aQute.bnd.osgi.*;
+import aQute.bnd.osgi.resource.*;
 import aQute.bnd.service.*;
 import aQute.bnd.version.*;
+import aQute.lib.io.*;
 
 public class TestFixedIndexedRepo extends TestCase {
 
@@ -158,4 +163,57 @@ public class TestFixedIndexedRepo extends TestCase {
 		assertTrue("Should be some ambiguity warnings", reporter.getWarnings().size() > 0);
 	}
 
+	public static void testIndexSnapshot() throws Exception {
+		File cache = new File("generated" + File.separator + "snapshotcache");
+		IO.deleteWithException(cache);
+		cache.mkdirs();
+
+		String locations = new File("testdata/big_index.xml").toURI() + "," + new File("testdata/fullobr.xml").toURI();
+		Requirement req = CapReqBuilder.createPackageRequirement("info.dmtree", null)
+				.buildSyntheticRequirement();
+
+		// First read parses the indexes and writes the snapshots
+		Processor reporter = new Processor();
+		FixedIndexedRepo parsed = createSnapshotRepo(locations, cache, reporter);
+		Collection<Capability> expected = parsed.findProviders(Collections.singleton(req)).get(req);
+		assertEquals(0, reporter.getErrors().size());
+		File[] snapshots = new File(cache, "snapshots").listFiles();
+		assertNotNull(snapshots);
+		assertEquals(2, snapshots.length);
+
+		// Second read must give the same resources from the snapshots
+		reporter = new Processor();
+		FixedIndexedRepo loaded = createSnapshotRepo(locations, cache, reporter);
+		Collection<Capability> actual = loaded.findProviders(Collections.singleton(req)).get(req);
+		assertEquals(0, reporter.getErrors().size());
+		assertEquals(0, reporter.getWarnings().size());
+
+		assertEquals(parsed.list(null), loaded.list(null));
+		for (String bsn : parsed.list(null))
+			assertEquals(new ArrayList<Version>(parsed.versions(bsn)), new ArrayList<Version>(loaded.versions(bsn)));
+		assertTrue(expected.size() > 0);
+		assertEquals(expected.size(), actual.size());
+		Iterator<Capability> a = actual.iterator();
+		for (Capability e : expected) {
+			Capability c = a.next();
+			assertEquals(e.getAttributes(), c.getAttributes());
+			assertEquals(e.getDirectives(), c.getDirectives());
+			assertEquals(e.getResource().getCapabilities(null).size(), c.getResource().getCapabilities(null).size());
+			assertEquals(e.getResource().getRequirements(null).size(), c.getResource().getRequirements(null).size());
+		}
+
+		assertEquals(parsed.get("name.njbartlett.osgi.emf.xmi", null).length,
+				loaded.get("name.njbartlett.osgi.emf.xmi", null).length);
+	}
+
+	private static FixedIndexedRepo createSnapshotRepo(String locations, File cache, Processor reporter) {
+		FixedIndexedRepo repo = new FixedIndexedRepo();
+		Map<String,String> props = new HashMap<String,String>();
+		props.put("name", "snapshot");
+		props.put("locations", locations);
+		props.put(FixedIndexedRepo.PROP_CACHE, cache.getAbsolutePath());
+		repo.setProperties(props);
+		repo.setReporter(reporter);
+		return repo;
+	}
 }
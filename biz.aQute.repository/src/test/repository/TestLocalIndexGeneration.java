@@ -1,11 +1,19 @@
 package test.repository;
 
 import java.io.*;
+import java.net.*;
 import java.util.*;
 
 import junit.framework.*;
+
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.service.indexer.ResourceIndexer;
+import org.osgi.service.indexer.impl.KnownBundleAnalyzer;
+import org.osgi.service.indexer.impl.RepoIndex;
+
 import test.lib.*;
 import aQute.bnd.deployer.repository.*;
+import aQute.bnd.deployer.repository.providers.*;
 import aQute.bnd.osgi.*;
 import aQute.bnd.service.*;
 import aQute.bnd.service.RepositoryPlugin.PutResult;
@@ -66,6 +74,98 @@ public class TestLocalIndexGeneration extends TestCase {
 		assertEquals(deployedFile.getAbsoluteFile(), files[0]);
 	}
 	
+	public static void testIncrementalIndex() throws Exception {
+		repo.put(new BufferedInputStream(new FileInputStream("testdata/bundles/name.njbartlett.osgi.emf.minimal-2.6.1.jar")), new RepositoryPlugin.PutOptions());
+
+		File fragments = IO.getFile("generated/testoutput/.cache/fragments/R5");
+		File[] first = fragments.listFiles();
+		assertEquals(1, first.length);
+		first[0].setLastModified(1000);
+
+		repo.put(new BufferedInputStream(new FileInputStream("testdata/bundles/name.njbartlett.osgi.emf.xmi-2.7.0.jar")), new RepositoryPlugin.PutOptions());
+
+		// The fragment of the first bundle is reused
+		File[] second = fragments.listFiles();
+		assertEquals(2, second.length);
+		assertTrue(Arrays.asList(second).contains(first[0]));
+		assertEquals(1000, first[0].lastModified());
+
+		AbstractIndexedRepo repo2 = createRepoForIndex(IO.getFile("generated/testoutput/index.xml.gz"));
+		assertEquals(1, repo2.get("name.njbartlett.osgi.emf.minimal", null).length);
+		assertEquals(1, repo2.get("name.njbartlett.osgi.emf.xmi", null).length);
+
+		// The fragment of a removed bundle is removed
+		IO.delete(IO.getFile("generated/testoutput/name.njbartlett.osgi.emf.xmi"));
+		repo.put(new BufferedInputStream(new FileInputStream("testdata/bundles/name.njbartlett.osgi.emf.minimal-2.7.0.jar")), new RepositoryPlugin.PutOptions());
+		File[] third = fragments.listFiles();
+		assertEquals(2, third.length);
+		assertTrue(Arrays.asList(third).contains(first[0]));
+	}
+
+	public static void testParallelIndex() throws Exception {
+		String[] bundles = {
+				"name.njbartlett.osgi.emf.minimal-2.6.1.jar", "name.njbartlett.osgi.emf.minimal-2.7.0.jar",
+				"name.njbartlett.osgi.emf.xmi-2.5.0.jar", "name.njbartlett.osgi.emf.xmi-2.7.0.jar"
+		};
+		for (String bundle : bundles)
+			repo.put(new BufferedInputStream(new FileInputStream("testdata/bundles/" + bundle)), new RepositoryPlugin.PutOptions());
+
+		File indexFile = IO.getFile("generated/testoutput/index.xml.gz");
+		String serial = IO.collect(indexFile).replaceAll("increment='\\d+'", "");
+
+		// Analyze all bundles again with a pool of workers
+		config.put("parallel", "4");
+		repo.setProperties(config);
+		IO.delete(IO.getFile("generated/testoutput/.cache/fragments"));
+		repo.put(new BufferedInputStream(new FileInputStream("testdata/bundles/" + bundles[0])), new RepositoryPlugin.PutOptions());
+
+		String parallel = IO.collect(indexFile).replaceAll("increment='\\d+'", "");
+		assertEquals(serial, parallel);
+		assertEquals(4, IO.getFile("generated/testoutput/.cache/fragments/R5").listFiles().length);
+	}
+
+	/**
+	 * An index made from fragments must be the same as the index RepoIndex
+	 * makes for the same bundles.
+	 */
+	public static void testFragmentIndexMatchesRepoIndex() throws Exception {
+		R5RepoContentProvider provider = new R5RepoContentProvider();
+		URI rootUri = IO.getFile("testdata/bundles").getCanonicalFile().toURI();
+		Set<File> files = new LinkedHashSet<File>();
+		List<File> fragments = new ArrayList<File>();
+		for (String bundle : new String[] {
+				"name.njbartlett.osgi.emf.minimal-2.6.1.jar", "name.njbartlett.osgi.emf.xmi-2.7.0.jar"
+		}) {
+			File file = IO.getFile("testdata/bundles/" + bundle);
+			files.add(file);
+			File fragment = new File(outputDir, bundle + ".xml");
+			Writer out = new OutputStreamWriter(new FileOutputStream(fragment), "UTF-8");
+			try {
+				provider.generateFragment(file, out, rootUri, null, null);
+			}
+			finally {
+				out.close();
+			}
+			fragments.add(fragment);
+		}
+
+		Map<String,String> config = new HashMap<String,String>();
+		config.put(ResourceIndexer.REPOSITORY_NAME, "test");
+		config.put(ResourceIndexer.PRETTY, "false");
+		config.put(R5RepoContentProvider.REPOSITORY_INCREMENT_OVERRIDE, "42");
+		ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		provider.generateIndex(fragments, actual, config);
+
+		RepoIndex indexer = new RepoIndex();
+		indexer.addAnalyzer(new KnownBundleAnalyzer(), FrameworkUtil.createFilter("(name=*)"));
+		config.put(ResourceIndexer.ROOT_URL, rootUri.toString());
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		indexer.index(files, expected, config);
+
+		assertEquals(new String(expected.toByteArray()), new String(actual.toByteArray()));
+		assertTrue(new String(actual.toByteArray()).contains("increment='42'"));
+	}
+
 	public static void testOverwrite() throws Exception {
 		config.put("overwrite", "false");
 		repo.setProperties(config);
@@ -47,6 +47,8 @@ public class ResolveProcess {
         } catch (ResolutionException e) {
             resolutionException = e;
             return false;
+        } finally {
+            log.log(LogService.LOG_DEBUG, "findProviders cache: " + resolveContext.getProviderCacheHits() + " hits, " + resolveContext.getProviderCacheMisses() + " misses");
         }
     }
 
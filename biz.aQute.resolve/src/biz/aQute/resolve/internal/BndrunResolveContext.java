@@ -2,13 +2,19 @@ package biz.aQute.resolve.internal;
 
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import org.osgi.framework.Version;
 import org.osgi.framework.namespace.IdentityNamespace;
@@ -25,6 +31,8 @@ import org.osgi.service.resolver.ResolveContext;
 
 import aQute.bnd.build.model.BndEditModel;
 import aQute.bnd.build.model.EE;
+import aQute.bnd.osgi.Constants;
+import aQute.bnd.osgi.Processor;
 import aQute.bnd.service.Registry;
 import aQute.bnd.osgi.resource.CapReqBuilder;
 import aQute.bnd.osgi.resource.Filters;
@@ -57,6 +65,15 @@ public class BndrunResolveContext extends ResolveContext {
     private Resource inputRequirementsResource = null;
     private EE ee;
 
+    // Providers per normalized requirement and the permitted flag per
+    // resource, valid for the lifetime of this resolve session
+    private final Map<List<Object>,List<Capability>> providerCache = new HashMap<List<Object>,List<Capability>>();
+    private final Map<Resource,Boolean> permittedCache = new IdentityHashMap<Resource,Boolean>();
+    private int providerCacheHits;
+    private int providerCacheMisses;
+
+    private Boolean concurrentQueries;
+
     public BndrunResolveContext(BndEditModel runModel, Registry registry, LogService log) {
         this.runModel = runModel;
         this.registry = registry;
@@ -125,8 +142,7 @@ public class BndrunResolveContext extends ResolveContext {
         Requirement frameworkReq = new CapReqBuilder(IdentityNamespace.IDENTITY_NAMESPACE).addDirective(Namespace.REQUIREMENT_FILTER_DIRECTIVE, filter.toString()).buildSyntheticRequirement();
 
         // Iterate over repos looking for matches
-        for (Repository repo : repos) {
-            Map<Requirement,Collection<Capability>> providers = repo.findProviders(Collections.singletonList(frameworkReq));
+        for (Map<Requirement,Collection<Capability>> providers : queryRepositories(frameworkReq)) {
             Collection<Capability> frameworkCaps = providers.get(frameworkReq);
             if (frameworkCaps != null) {
                 for (Capability frameworkCap : frameworkCaps) {
@@ -190,8 +206,9 @@ public class BndrunResolveContext extends ResolveContext {
         return null;
     }
 
-    public void addRepository(Repository repo) {
+    public synchronized void addRepository(Repository repo) {
         repos.add(repo);
+        providerCache.clear();
     }
 
     @Override
@@ -211,6 +228,41 @@ public class BndrunResolveContext extends ResolveContext {
     @Override
     public List<Capability> findProviders(Requirement requirement) {
         init();
+        List<Capability> result = new ArrayList<Capability>(getProviders(requirement));
+
+        if (Namespace.RESOLUTION_OPTIONAL.equals(requirement.getDirectives().get(Namespace.REQUIREMENT_RESOLUTION_DIRECTIVE))) {
+            // Only return the framework's capabilities when asked for optional resources.
+            List<Capability> fwkCaps = new ArrayList<Capability>(result.size());
+            for (Capability capability : result) {
+                if (capability.getResource() == frameworkResource)
+                    fwkCaps.add(capability);
+            }
+
+            // If the framework couldn't provide the requirement then save the list of potential providers
+            // to the side, in order to work out the optional resources later.
+            if (fwkCaps.isEmpty())
+                optionalRequirements.put(requirement, result);
+
+            return fwkCaps;
+        } else {
+            return result;
+        }
+    }
+
+    /**
+     * Answer the providers of the requirement from the framework and the
+     * repositories. The resolver asks for the same requirements many times, so
+     * the providers are cached by the namespace and directives (including the
+     * filter) of the requirement. The returned list must not be modified.
+     */
+    private synchronized List<Capability> getProviders(Requirement requirement) {
+        List<Object> key = Arrays.<Object> asList(requirement.getNamespace(), new TreeMap<String,String>(requirement.getDirectives()));
+        List<Capability> cached = providerCache.get(key);
+        if (cached != null) {
+            providerCacheHits++;
+            return cached;
+        }
+        providerCacheMisses++;
         ArrayList<Capability> result = new ArrayList<Capability>();
 
         // The selected OSGi framework always has the first chance to provide the capabilities
@@ -224,8 +276,7 @@ public class BndrunResolveContext extends ResolveContext {
         }
 
         // int score = 0;
-        for (Repository repo : repos) {
-            Map<Requirement,Collection<Capability>> providers = repo.findProviders(Collections.singleton(requirement));
+        for (Map<Requirement,Collection<Capability>> providers : queryRepositories(requirement)) {
             Collection<Capability> capabilities = providers.get(requirement);
             if (capabilities != null && !capabilities.isEmpty()) {
                 result.ensureCapacity(result.size() + capabilities.size());
@@ -240,26 +291,102 @@ public class BndrunResolveContext extends ResolveContext {
             // score--;
         }
 
-        if (Namespace.RESOLUTION_OPTIONAL.equals(requirement.getDirectives().get(Namespace.REQUIREMENT_RESOLUTION_DIRECTIVE))) {
-            // Only return the framework's capabilities when asked for optional resources.
-            List<Capability> fwkCaps = new ArrayList<Capability>(result.size());
-            for (Capability capability : result) {
-                if (capability.getResource() == frameworkResource)
-                    fwkCaps.add(capability);
-            }
+        cached = Collections.unmodifiableList(result);
+        providerCache.put(key, cached);
+        return cached;
+    }
 
-            // If the framework couldn't provide the requirement then save the list of potential providers
-            // to the side, in order to work out the optional resources later.
-            if (fwkCaps.isEmpty())
-                optionalRequirements.put(requirement, result);
+    /**
+     * Ask the repositories for the providers of the requirement. The answers
+     * are returned in the order of the repositories, which is their priority.
+     * When concurrent queries are enabled, the repositories are asked in
+     * parallel so a slow remote repository does not hold up the local ones.
+     */
+    private List<Map<Requirement,Collection<Capability>>> queryRepositories(final Requirement requirement) {
+        List<Map<Requirement,Collection<Capability>>> answers = new ArrayList<Map<Requirement,Collection<Capability>>>(repos.size());
+        if (repos.size() < 2 || !isConcurrentQueries()) {
+            for (Repository repo : repos)
+                answers.add(repo.findProviders(Collections.singleton(requirement)));
+            return answers;
+        }
 
-            return fwkCaps;
-        } else {
-            return result;
+        List<FutureTask<Map<Requirement,Collection<Capability>>>> tasks = new ArrayList<FutureTask<Map<Requirement,Collection<Capability>>>>(repos.size());
+        for (final Repository repo : repos) {
+            FutureTask<Map<Requirement,Collection<Capability>>> task = new FutureTask<Map<Requirement,Collection<Capability>>>(new Callable<Map<Requirement,Collection<Capability>>>() {
+                public Map<Requirement,Collection<Capability>> call() throws Exception {
+                    return repo.findProviders(Collections.singleton(requirement));
+                }
+            });
+            tasks.add(task);
         }
+
+        // The first repository is asked on the calling thread
+        for (int i = 1; i < tasks.size(); i++)
+            Processor.getExecutor().execute(tasks.get(i));
+        tasks.get(0).run();
+
+        for (FutureTask<Map<Requirement,Collection<Capability>>> task : tasks) {
+            try {
+                answers.add(task.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                if (e.getCause() instanceof Error)
+                    throw (Error) e.getCause();
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        return answers;
+    }
+
+    /**
+     * Answer if the repositories are queried concurrently. This is set with
+     * {@link #setConcurrentQueries(boolean)} or with the
+     * {@link Constants#PARALLEL} property of the run model, which is read as
+     * in {@link Processor#getParallelism(String)}. Queries are concurrent when
+     * this gives more than one thread.
+     */
+    public synchronized boolean isConcurrentQueries() {
+        if (concurrentQueries == null) {
+            Object parallel = runModel.genericGet(Constants.PARALLEL);
+            concurrentQueries = Processor.getParallelism(parallel == null ? null : parallel.toString()) > 1;
+        }
+        return concurrentQueries;
+    }
+
+    public synchronized void setConcurrentQueries(boolean concurrent) {
+        this.concurrentQueries = concurrent;
+    }
+
+    /**
+     * Answer the number of {@link #findProviders(Requirement)} calls that were
+     * answered from the cache.
+     */
+    public synchronized int getProviderCacheHits() {
+        return providerCacheHits;
+    }
+
+    /**
+     * Answer the number of {@link #findProviders(Requirement)} calls that had
+     * to ask the repositories.
+     */
+    public synchronized int getProviderCacheMisses() {
+        return providerCacheMisses;
     }
 
     private boolean isPermitted(Resource resource) {
+        Boolean permitted = permittedCache.get(resource);
+        if (permitted == null) {
+            permitted = calculatePermitted(resource);
+            permittedCache.put(resource, permitted);
+        }
+        return permitted;
+    }
+
+    private boolean calculatePermitted(Resource resource) {
         // OSGi frameworks cannot be selected as ordinary resources
         Capability fwkCap = findFrameworkContractCapability(resource);
         if (fwkCap != null) {
@@ -8,6 +8,9 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import junit.framework.TestCase;
 
@@ -16,6 +19,7 @@ import org.osgi.resource.Namespace;
 import org.osgi.resource.Requirement;
 import org.osgi.resource.Resource;
 import org.osgi.service.log.LogService;
+import org.osgi.service.repository.Repository;
 
 import test.lib.MockRegistry;
 import test.lib.NullLogService;
@@ -287,4 +291,78 @@ public class BndrunResolveContextTest extends TestCase {
         assertEquals(1, providers.size());
         assertEquals(new File("testdata/repo3/org.apache.felix.framework-4.0.2.jar").toURI(), findContentURI(providers.get(0).getResource()));
     }
+
+    public static void testProviderCache() {
+        MockRegistry registry = new MockRegistry();
+        registry.addPlugin(createRepo(new File("testdata/repo1.index.xml")));
+
+        BndrunResolveContext context = new BndrunResolveContext(new BndEditModel(), registry, log);
+
+        Requirement req1 = new CapReqBuilder("osgi.wiring.package").addDirective("filter", "(osgi.wiring.package=org.apache.felix.gogo.api)").buildSyntheticRequirement();
+        Requirement req2 = new CapReqBuilder("osgi.wiring.package").addDirective("filter", "(osgi.wiring.package=org.apache.felix.gogo.api)").buildSyntheticRequirement();
+
+        List<Capability> providers1 = context.findProviders(req1);
+        assertEquals(1, providers1.size());
+        assertEquals(0, context.getProviderCacheHits());
+        assertEquals(1, context.getProviderCacheMisses());
+
+        // The resolver may modify the returned list
+        providers1.clear();
+
+        List<Capability> providers2 = context.findProviders(req2);
+        assertEquals(1, providers2.size());
+        assertEquals(1, context.getProviderCacheHits());
+        assertEquals(1, context.getProviderCacheMisses());
+
+        Requirement optional = new CapReqBuilder("osgi.wiring.package").addDirective("filter", "(osgi.wiring.package=org.apache.felix.gogo.api)").addDirective(Namespace.REQUIREMENT_RESOLUTION_DIRECTIVE, Namespace.RESOLUTION_OPTIONAL).buildSyntheticRequirement();
+        assertEquals(0, context.findProviders(optional).size());
+        assertEquals(2, context.getProviderCacheMisses());
+        assertEquals(1, context.getOptionalRequirements().get(optional).size());
+    }
+
+    public static void testConcurrentQueries() throws Exception {
+        Requirement req = new CapReqBuilder("osgi.wiring.package").addDirective("filter", "(osgi.wiring.package=org.apache.felix.gogo.api)").buildSyntheticRequirement();
+
+        MockRegistry registry = new MockRegistry();
+        registry.addPlugin(createRepo(new File("testdata/repo1.index.xml")));
+        registry.addPlugin(createRepo(new File("testdata/repo2.index.xml")));
+
+        BndrunResolveContext serial = new BndrunResolveContext(new BndEditModel(), registry, log);
+        assertFalse(serial.isConcurrentQueries());
+        List<Capability> expected = serial.findProviders(req);
+        assertEquals(2, expected.size());
+
+        BndEditModel runModel = new BndEditModel();
+        runModel.genericSet("-parallel", "4");
+        BndrunResolveContext concurrent = new BndrunResolveContext(runModel, registry, log);
+        assertTrue(concurrent.isConcurrentQueries());
+        assertEquals(expected, concurrent.findProviders(req));
+
+        // The first repository only answers when the second one is asked at
+        // the same time
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Repository first = createRepo(new File("testdata/repo1.index.xml"));
+        final Repository second = createRepo(new File("testdata/repo2.index.xml"));
+        registry = new MockRegistry();
+        registry.addPlugin(new Repository() {
+            public Map<Requirement,Collection<Capability>> findProviders(Collection< ? extends Requirement> requirements) {
+                try {
+                    if (!latch.await(10, TimeUnit.SECONDS))
+                        return Collections.emptyMap();
+                } catch (InterruptedException e) {
+                    return Collections.emptyMap();
+                }
+                return first.findProviders(requirements);
+            }
+        });
+        registry.addPlugin(new Repository() {
+            public Map<Requirement,Collection<Capability>> findProviders(Collection< ? extends Requirement> requirements) {
+                latch.countDown();
+                return second.findProviders(requirements);
+            }
+        });
+        concurrent = new BndrunResolveContext(new BndEditModel(), registry, log);
+        concurrent.setConcurrentQueries(true);
+        assertEquals(2, concurrent.findProviders(req).size());
+    }
 }